@@ -3,6 +3,7 @@ package com.nexhacks.tapmate;
 import android.app.Application;
 import com.nexhacks.tapmate.memory.AppDatabase;
 import com.nexhacks.tapmate.utils.Config;
+import com.nexhacks.tapmate.utils.LauncherIndex;
 
 public class TapMateApplication extends Application {
     private static AppDatabase database;
@@ -12,6 +13,7 @@ public class TapMateApplication extends Application {
         super.onCreate();
         Config.loadEnv(this);
         database = AppDatabase.getDatabase(this);
+        LauncherIndex.getInstance(this).start();
     }
     
     public static AppDatabase getDatabase() {
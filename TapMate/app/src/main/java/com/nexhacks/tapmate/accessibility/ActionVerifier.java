@@ -0,0 +1,216 @@
+package com.nexhacks.tapmate.accessibility;
+
+import android.os.Build;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Verifies a GUI action from the accessibility event stream instead of waiting for a
+// full-screen analysis: a click should produce TYPE_VIEW_CLICKED on the target, a type
+// TYPE_VIEW_TEXT_CHANGED carrying the value, and a scroll TYPE_VIEW_SCROLLED to a new position
+public class ActionVerifier {
+    public enum Verdict {
+        CONFIRMED,   // the expected event for the target arrived
+        INDIRECT,    // no matching event, but the UI changed (new window, content update)
+        NO_EFFECT,   // the action was performed but nothing happened within the window
+        FAILED,      // the action couldn't be performed (no such node, action refused)
+        UNKNOWN      // action type we can't verify
+    }
+
+    public static class Expectation {
+        final String action;
+        final String target;
+        final String value;
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile Verdict verdict = Verdict.NO_EFFECT;
+        // Window and app of the node the action went to, once the service has found it
+        volatile int targetWindowId = -1;
+        volatile String targetPackage;
+
+        Expectation(String action, String target, String value) {
+            this.action = action;
+            this.target = target != null ? target : "";
+            this.value = value != null ? value : "";
+        }
+    }
+
+    private final List<Expectation> pending = new CopyOnWriteArrayList<>();
+    // Scrolling views remembered; events come from every app, so older ones are dropped
+    static final int MAX_SCROLL_POSITIONS = 32;
+
+    // Last seen scroll position per scrolling view, to tell a real scroll from a repeat event.
+    // Least recently scrolled first.
+    private final Map<String, Integer> scrollPositions = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_SCROLL_POSITIONS;
+        }
+    };
+
+    // Register before performing the action so no event can be missed
+    public Expectation expect(String action, String target, String value) {
+        Expectation expectation = new Expectation(action.toLowerCase(Locale.ROOT), target, value);
+        pending.add(expectation);
+        return expectation;
+    }
+
+    // Wait up to timeoutMs for a verdict; returns early as soon as the action is confirmed
+    public Verdict await(Expectation expectation, long timeoutMs) {
+        try {
+            if (!isVerifiable(expectation.action)) {
+                return Verdict.UNKNOWN;
+            }
+            expectation.latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.remove(expectation);
+        }
+        return expectation.verdict;
+    }
+
+    public void cancel(Expectation expectation) {
+        pending.remove(expectation);
+    }
+
+    // Called by the service with the node it is about to click, so a window change can be
+    // attributed to the click only when it comes from the same window or app
+    void onClickTarget(AccessibilityNodeInfo node) {
+        CharSequence packageName = node.getPackageName();
+        for (Expectation expectation : pending) {
+            if (expectation.action.equals("click") && expectation.targetPackage == null) {
+                expectation.targetWindowId = node.getWindowId();
+                expectation.targetPackage = packageName != null ? packageName.toString() : "";
+            }
+        }
+    }
+
+    private static boolean isVerifiable(String action) {
+        return action.equals("click") || action.equals("type") || action.equals("scroll");
+    }
+
+    // Called from TapMateAccessibilityService.onAccessibilityEvent (main thread)
+    void onEvent(AccessibilityEvent event) {
+        int type = event.getEventType();
+        Integer scrollPosition = null;
+        String scrollKey = null;
+        if (type == AccessibilityEvent.TYPE_VIEW_SCROLLED) {
+            scrollKey = event.getWindowId() + "/" + event.getClassName();
+            scrollPosition = event.getScrollY() * 31 + event.getScrollX() + event.getFromIndex() * 7919;
+        }
+        if (pending.isEmpty()) {
+            if (scrollKey != null) {
+                synchronized (scrollPositions) {
+                    scrollPositions.put(scrollKey, scrollPosition);
+                }
+            }
+            return;
+        }
+
+        String sourceId = null;
+        AccessibilityNodeInfo source = event.getSource();
+        if (source != null) {
+            sourceId = source.getViewIdResourceName();
+        }
+        String eventText = eventText(event);
+
+        for (Expectation expectation : pending) {
+            Verdict verdict = match(expectation, event, type, sourceId, eventText, scrollKey, scrollPosition);
+            if (verdict == Verdict.CONFIRMED) {
+                expectation.verdict = Verdict.CONFIRMED;
+                expectation.latch.countDown();
+            } else if (verdict == Verdict.INDIRECT && expectation.verdict == Verdict.NO_EFFECT) {
+                // Keep waiting for the direct event, but remember the UI did react
+                expectation.verdict = Verdict.INDIRECT;
+            }
+        }
+
+        if (scrollKey != null) {
+            synchronized (scrollPositions) {
+                scrollPositions.put(scrollKey, scrollPosition);
+            }
+        }
+    }
+
+    private Verdict match(Expectation expectation, AccessibilityEvent event, int type, String sourceId,
+                          String eventText, String scrollKey, Integer scrollPosition) {
+        switch (expectation.action) {
+            case "click":
+                if (type == AccessibilityEvent.TYPE_VIEW_CLICKED && targets(expectation.target, sourceId, eventText)) {
+                    return Verdict.CONFIRMED;
+                }
+                // Clicks that navigate often skip TYPE_VIEW_CLICKED; a new window in the target's
+                // app is effect enough (one from anywhere else is only INDIRECT)
+                if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED && fromTargetApp(expectation, event)) {
+                    return Verdict.CONFIRMED;
+                }
+                break;
+            case "type":
+                // performInput may fall back to another editable field, so the typed value is
+                // what identifies the event rather than the source id. An empty value would
+                // match any text change, so that can only be INDIRECT.
+                if (type == AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED && !expectation.value.isEmpty()
+                    && eventText.contains(expectation.value.toLowerCase(Locale.ROOT))) {
+                    return Verdict.CONFIRMED;
+                }
+                break;
+            case "scroll":
+                if (type == AccessibilityEvent.TYPE_VIEW_SCROLLED && scrolled(event, scrollKey, scrollPosition)) {
+                    return Verdict.CONFIRMED;
+                }
+                break;
+        }
+        if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            || type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+            || type == AccessibilityEvent.TYPE_VIEW_CLICKED
+            || type == AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
+            || type == AccessibilityEvent.TYPE_VIEW_SCROLLED) {
+            return Verdict.INDIRECT;
+        }
+        return Verdict.NO_EFFECT;
+    }
+
+    // Targets are resource ids, or the node text/description when the plan used text
+    private static boolean targets(String target, String sourceId, String eventText) {
+        if (target.isEmpty()) return true;
+        if (target.equals(sourceId)) return true;
+        if (sourceId != null && sourceId.endsWith("/" + target)) return true;
+        return eventText.contains(target.toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean fromTargetApp(Expectation expectation, AccessibilityEvent event) {
+        String targetPackage = expectation.targetPackage;
+        if (targetPackage == null) return false;
+        if (expectation.targetWindowId != -1 && event.getWindowId() == expectation.targetWindowId) return true;
+        CharSequence packageName = event.getPackageName();
+        return packageName != null && !targetPackage.isEmpty() && targetPackage.contentEquals(packageName);
+    }
+
+    private boolean scrolled(AccessibilityEvent event, String scrollKey, Integer scrollPosition) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+            && (event.getScrollDeltaX() != 0 || event.getScrollDeltaY() != 0)) {
+            return true;
+        }
+        synchronized (scrollPositions) {
+            Integer previous = scrollPositions.get(scrollKey);
+            return previous == null || !previous.equals(scrollPosition);
+        }
+    }
+
+    private static String eventText(AccessibilityEvent event) {
+        StringBuilder text = new StringBuilder();
+        for (CharSequence part : event.getText()) {
+            if (part != null) text.append(part).append(' ');
+        }
+        if (event.getContentDescription() != null) {
+            text.append(event.getContentDescription());
+        }
+        return text.toString().toLowerCase(Locale.ROOT);
+    }
+}
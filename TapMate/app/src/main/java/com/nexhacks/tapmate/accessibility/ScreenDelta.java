@@ -0,0 +1,91 @@
+package com.nexhacks.tapmate.accessibility;
+
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ScreenDelta {
+    private static final String TAG = "ScreenDelta";
+
+    // Nodes added to / removed from a screen state JSON, as a JSON array of the nodes with a
+    // "change" field ("added" or "removed"). Nodes are compared the same way ScreenFingerprint
+    // hashes them, so moved bounds alone are not a change.
+    public static String between(String beforeJson, String afterJson) {
+        JSONArray delta = new JSONArray();
+        try {
+            JSONArray before = parse(beforeJson);
+            JSONArray after = parse(afterJson);
+
+            Map<String, Integer> remaining = new HashMap<>();
+            for (int i = 0; i < before.length(); i++) {
+                JSONObject node = before.optJSONObject(i);
+                if (node == null) continue;
+                String key = key(node);
+                Integer count = remaining.get(key);
+                remaining.put(key, count == null ? 1 : count + 1);
+            }
+
+            List<JSONObject> added = new ArrayList<>();
+            for (int i = 0; i < after.length(); i++) {
+                JSONObject node = after.optJSONObject(i);
+                if (node == null) continue;
+                String key = key(node);
+                Integer count = remaining.get(key);
+                if (count != null && count > 0) {
+                    remaining.put(key, count - 1);
+                } else {
+                    added.add(node);
+                }
+            }
+
+            for (int i = 0; i < before.length(); i++) {
+                JSONObject node = before.optJSONObject(i);
+                if (node == null) continue;
+                String key = key(node);
+                Integer count = remaining.get(key);
+                if (count != null && count > 0) {
+                    remaining.put(key, count - 1);
+                    delta.put(copyWithChange(node, "removed"));
+                }
+            }
+            for (JSONObject node : added) {
+                delta.put(copyWithChange(node, "added"));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not diff screen states", e);
+        }
+        return delta.toString();
+    }
+
+    private static JSONArray parse(String screenStateJson) throws org.json.JSONException {
+        if (screenStateJson == null || screenStateJson.trim().isEmpty()) {
+            return new JSONArray();
+        }
+        return new JSONArray(screenStateJson);
+    }
+
+    private static String key(JSONObject node) {
+        return node.optString("id", "") + '\u0000' + node.optString("text", "") + '\u0000' +
+            node.optString("desc", "") + '\u0000' + node.optBoolean("clickable") +
+            node.optBoolean("editable") + node.optBoolean("scrollable");
+    }
+
+    private static JSONObject copyWithChange(JSONObject node, String change) throws org.json.JSONException {
+        JSONObject copy = new JSONObject().put("change", change);
+        JSONArray names = node.names();
+        if (names != null) {
+            for (int i = 0; i < names.length(); i++) {
+                String name = names.getString(i);
+                // Bounds are noise for replanning
+                if (!"b".equals(name)) {
+                    copy.put(name, node.get(name));
+                }
+            }
+        }
+        return copy;
+    }
+}
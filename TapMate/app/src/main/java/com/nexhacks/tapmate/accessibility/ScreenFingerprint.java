@@ -0,0 +1,43 @@
+package com.nexhacks.tapmate.accessibility;
+
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class ScreenFingerprint {
+    private static final String TAG = "ScreenFingerprint";
+
+    // Content fingerprint of a screen state JSON (as produced by getScreenState)
+    // Bounds ("b") are left out on purpose: they move during animations while the
+    // content the LLM reasons about stays the same
+    public static long of(String screenStateJson) {
+        if (screenStateJson == null || screenStateJson.isEmpty()) {
+            return 0L;
+        }
+        try {
+            JSONArray nodes = new JSONArray(screenStateJson);
+            long hash = 1125899906842597L;
+            for (int i = 0; i < nodes.length(); i++) {
+                JSONObject node = nodes.optJSONObject(i);
+                if (node == null) continue;
+                hash = mix(hash, node.optString("id", ""));
+                hash = mix(hash, node.optString("text", ""));
+                hash = mix(hash, node.optString("desc", ""));
+                hash = 31 * hash + (node.optBoolean("clickable") ? 1 : 0);
+                hash = 31 * hash + (node.optBoolean("editable") ? 1 : 0);
+                hash = 31 * hash + (node.optBoolean("scrollable") ? 1 : 0);
+            }
+            return hash;
+        } catch (Exception e) {
+            Log.w(TAG, "Screen state is not a JSON array, hashing raw text");
+            return screenStateJson.hashCode();
+        }
+    }
+
+    private static long mix(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        return 31 * hash + 0x1F;
+    }
+}
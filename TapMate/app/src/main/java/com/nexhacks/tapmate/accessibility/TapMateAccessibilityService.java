@@ -17,6 +17,7 @@ public class TapMateAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "TapMateAccessibility";
     private static TapMateAccessibilityService instance;
+    private final ActionVerifier actionVerifier = new ActionVerifier();
 
     @Override
     public void onServiceConnected() {
@@ -27,7 +28,8 @@ public class TapMateAccessibilityService extends AccessibilityService {
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        // We can listen to events here if needed
+        // Click/text/scroll events confirm GUI agent actions
+        actionVerifier.onEvent(event);
     }
 
     @Override
@@ -39,6 +41,10 @@ public class TapMateAccessibilityService extends AccessibilityService {
         return instance;
     }
 
+    public ActionVerifier getActionVerifier() {
+        return actionVerifier;
+    }
+
     // --- GUI AGENT CORE ---
 
     // 1. Extract Screen State (The "Eyes" for the LLM)
@@ -111,6 +117,7 @@ public class TapMateAccessibilityService extends AccessibilityService {
         if (viewId != null && !viewId.isEmpty()) {
             List<AccessibilityNodeInfo> nodes = root.findAccessibilityNodeInfosByViewId(viewId);
             if (nodes != null && !nodes.isEmpty()) {
+                actionVerifier.onClickTarget(nodes.get(0));
                 return nodes.get(0).performAction(AccessibilityNodeInfo.ACTION_CLICK);
             }
         }
@@ -121,6 +128,7 @@ public class TapMateAccessibilityService extends AccessibilityService {
             if (nodes != null && !nodes.isEmpty()) {
                 for (AccessibilityNodeInfo node : nodes) {
                     if (node.isClickable()) {
+                        actionVerifier.onClickTarget(node);
                         return node.performAction(AccessibilityNodeInfo.ACTION_CLICK);
                     }
                 }
@@ -1,6 +1,6 @@
 package com.nexhacks.tapmate.agents;
 
-import org.json.JSONArray;
+import com.nexhacks.tapmate.gemini.SchemaRegistry;
 import org.json.JSONObject;
 import android.util.Log;
 import java.util.ArrayList;
@@ -12,24 +12,24 @@ public class AgentRegistry {
     
     public void registerAgent(BaseAgent agent) {
         agents.add(agent);
+        for (String function : agent.getHandledFunctions()) {
+            if (SchemaRegistry.getInstance().get(function) == null) {
+                Log.w(TAG, "Agent handles " + function + " but SchemaRegistry has no schema for it");
+            }
+        }
         Log.d(TAG, "Registered agent handling: " + java.util.Arrays.toString(agent.getHandledFunctions()));
     }
     
-    // Collect all function declarations from all agents
-    public JSONArray getAllFunctionDeclarations() {
-        JSONArray allFuncs = new JSONArray();
+    // Names of all functions the agents handle; their declarations come from SchemaRegistry
+    public String[] getAllFunctionNames() {
+        List<String> names = new ArrayList<>();
         for (BaseAgent agent : agents) {
-            try {
-                JSONArray agentFuncs = agent.getFunctionDeclarations();
-                for (int i = 0; i < agentFuncs.length(); i++) {
-                    allFuncs.put(agentFuncs.getJSONObject(i));
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting function declarations from agent", e);
+            for (String function : agent.getHandledFunctions()) {
+                names.add(function);
             }
         }
-        Log.d(TAG, "Total functions registered: " + allFuncs.length());
-        return allFuncs;
+        Log.d(TAG, "Total functions registered: " + names.size());
+        return names.toArray(new String[0]);
     }
     
     // Route function call to appropriate agent
@@ -97,6 +97,13 @@ public class AgentRegistry {
         return false; // No agent handled it
     }
     
+    // Session stopped: let each agent free what it holds
+    public void release() {
+        for (BaseAgent agent : agents) {
+            agent.release();
+        }
+    }
+
     public int getAgentCount() {
         return agents.size();
     }
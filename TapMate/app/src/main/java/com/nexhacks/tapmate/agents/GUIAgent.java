@@ -1,11 +1,19 @@
 package com.nexhacks.tapmate.agents;
 
+import com.nexhacks.tapmate.accessibility.ActionVerifier;
+import com.nexhacks.tapmate.accessibility.ScreenDelta;
 import com.nexhacks.tapmate.accessibility.TapMateAccessibilityService;
 import com.nexhacks.tapmate.gemini.GeminiClient;
+import com.nexhacks.tapmate.gemini.PromptBuilder;
+import com.nexhacks.tapmate.gemini.ResponseCache;
+import com.nexhacks.tapmate.gemini.TokenMeter;
+import com.nexhacks.tapmate.utils.LauncherIndex;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import android.os.Handler;
 import android.util.Log;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
@@ -17,7 +25,44 @@ public class GUIAgent extends BaseAgent {
     private Runnable screenStateUpdater;
     private android.content.Context context;
     private GeminiClient geminiClient;
-    
+    private SpeculativeAnalyzer speculativeAnalyzer;
+    private IntentRouter intentRouter;
+    private LocalPolicy localPolicy;
+    private GuiFlightRecorder flightRecorder = GuiFlightRecorder.getInstance();
+    private volatile GuiFlightRecorder.TaskTrace currentTrace;
+
+    // How long after an action we snapshot the screen to launch the speculative analysis
+    private static final long SPECULATION_DELAY_MS = 300;
+    // How long to wait for the accessibility event confirming an action, and how many
+    // times a step with no observable effect is retried before falling back to analysis
+    private static final long VERIFY_WINDOW_MS = 400;
+    private static final int STEP_RETRIES = 1;
+    // Plan tail patches allowed per task before we stop replanning
+    private static final int MAX_REPLANS = 3;
+    // Longest we wait for the next planned step to stream in
+    private static final long PLAN_STEP_TIMEOUT_MS = 30000;
+    // Token budgets for the whole prompt text (goal + instructions + history + screen)
+    private static final int PLANNING_TOKEN_BUDGET = 6000;
+    private static final int ANALYSIS_TOKEN_BUDGET = 2000;
+    // Used instead once the session's token budget is spent (see TokenMeter)
+    private static final int DEGRADED_PLANNING_TOKEN_BUDGET = 2500;
+    private static final int DEGRADED_ANALYSIS_TOKEN_BUDGET = 1000;
+    // Local nearest-neighbour answers below this confidence go to the remote model
+    private static final double LOCAL_POLICY_MIN_CONFIDENCE = LocalPolicy.DEFAULT_MIN_CONFIDENCE;
+
+    private static final PromptBuilder.Fragment PLAN_INSTRUCTIONS = new PromptBuilder.Fragment(
+        "Create a step-by-step todo list to achieve this goal. " +
+        "Return ONLY a JSON array of steps, each step should be: {\"action\": \"click|type|scroll|open_app\", \"target\": \"node_id or text\", \"value\": \"text to type if needed\"}. " +
+        "Example: [{\"action\":\"click\",\"target\":\"search_button\"},{\"action\":\"type\",\"target\":\"search_input\",\"value\":\"pizza\"}]");
+    private static final PromptBuilder.Fragment STEPS_INSTRUCTIONS = new PromptBuilder.Fragment(
+        "Return JSON array of steps: [{\"action\":\"click\",\"target\":\"id\"}]");
+    private static final PromptBuilder.Fragment REPLAN_INSTRUCTIONS = new PromptBuilder.Fragment(
+        "The failed step could not be carried out. Return ONLY a JSON array of steps that replaces the failed step " +
+        "and the remaining steps, in the same format ({\"action\", \"target\", \"value\"}), using ids from the " +
+        "current screen. Respond with 'GOAL_ACHIEVED' instead if the goal is already complete.");
+    private static final PromptBuilder.Fragment ANALYSIS_INSTRUCTIONS = new PromptBuilder.Fragment(
+        "Respond with 'GOAL_ACHIEVED' if the goal is complete, or 'CONTINUE' with a brief reason if not.");
+
     public GUIAgent(Handler mainHandler, AgentCallback callback,
                    TapMateAccessibilityService accessibilityService,
                    ExecutorService executorService,
@@ -29,57 +74,9 @@ public class GUIAgent extends BaseAgent {
         this.screenStateUpdater = screenStateUpdater;
         this.context = context;
         this.geminiClient = new GeminiClient();
-    }
-    
-    @Override
-    public JSONArray getFunctionDeclarations() {
-        try {
-            JSONArray funcs = new JSONArray();
-            
-            // gui_execute_plan - Main GUI agent function that creates a todo list and executes step by step
-            JSONObject planParams = new JSONObject();
-            planParams.put("goal", new JSONObject()
-                .put("type", "STRING")
-                .put("description", "The user's goal (e.g., 'Open Messenger', 'Order Uber to bakery', 'Send a message to John')"));
-            planParams.put("current_screen_state", new JSONObject()
-                .put("type", "STRING")
-                .put("description", "Current screen state JSON from accessibility service"));
-            funcs.put(createFunctionDeclarationWithTypes("gui_execute_plan",
-                "Execute a GUI task by creating a todo list of steps, then executing each step and analyzing the result. " +
-                "After each step, analyze the new screen state to determine if the goal is achieved or if more steps are needed. " +
-                "This is the main GUI agent function - use this instead of individual click/type/scroll functions.",
-                planParams, new String[]{"goal", "current_screen_state"}));
-            
-            // Keep low-level functions for internal use (not exposed to LLM)
-            // gui_click - Internal use only
-            funcs.put(createFunctionDeclaration("gui_click", 
-                "INTERNAL: Click an element on the screen given its ID or text. Use gui_execute_plan instead.",
-                new String[]{"node_id"}, new String[]{"node_id"}));
-            
-            // gui_type - Internal use only
-            funcs.put(createFunctionDeclaration("gui_type",
-                "INTERNAL: Type text into an editable field. Use gui_execute_plan instead.",
-                new String[]{"node_id", "text"}, new String[]{"node_id", "text"}));
-            
-            // gui_scroll - Internal use only
-            JSONObject scrollParams = new JSONObject();
-            scrollParams.put("direction", new JSONObject()
-                .put("type", "STRING")
-                .put("enum", new JSONArray().put("UP").put("DOWN")));
-            funcs.put(createFunctionDeclarationWithTypes("gui_scroll",
-                "INTERNAL: Scroll the screen up or down. Use gui_execute_plan instead.",
-                scrollParams, new String[]{"direction"}));
-            
-            // gui_open_app
-            funcs.put(createFunctionDeclaration("gui_open_app",
-                "Open an app on the phone by name. Use this when the user asks to open an app that's not currently visible on screen.",
-                new String[]{"app_name"}, new String[]{"app_name"}));
-            
-            return funcs;
-        } catch (org.json.JSONException e) {
-            Log.e(TAG, "Error creating function declarations", e);
-            return new JSONArray();
-        }
+        this.speculativeAnalyzer = new SpeculativeAnalyzer(geminiClient);
+        this.intentRouter = new IntentRouter(context);
+        this.localPolicy = LocalPolicy.getInstance(context);
     }
     
     @Override
@@ -120,6 +117,11 @@ public class GUIAgent extends BaseAgent {
     public String[] getHandledFunctions() {
         return new String[]{"gui_execute_plan", "gui_click", "gui_type", "gui_scroll", "gui_open_app"};
     }
+
+    @Override
+    public void release() {
+        geminiClient.release();
+    }
     
     private void handleExecutePlan(JSONObject args, String callId) {
         String goal = args.optString("goal", "");
@@ -131,13 +133,36 @@ public class GUIAgent extends BaseAgent {
         }
         
         executorService.execute(() -> {
+            GuiFlightRecorder.TaskTrace trace = flightRecorder.begin(callId, goal);
+            trace.initialSnapshotBytes = screenStateJson.length();
+            TokenMeter.Usage taskTokens = TokenMeter.getInstance().beginTask();
+            trace.setTokenUsage(taskTokens);
+            currentTrace = trace;
             try {
-                // Step 1: Create a todo list using Gemini to plan the steps
-                String todoList = createTodoList(goal, screenStateJson);
-                
-                // Step 2: Execute each step in the todo list
-                String result = executeTodoList(goal, todoList, callId);
+                // Step 0: Goals with a direct intent equivalent skip planning entirely
+                String fastPath = intentRouter.tryRoute(goal);
+                if (fastPath != null) {
+                    flightRecorder.finish(trace, "INTENT_FAST_PATH", true);
+                    Log.d(TAG, "Intent router: " + intentRouter.getStats());
+                    String result = "Goal achieved: " + fastPath;
+                    mainHandler.post(() -> callback.onResult("gui_execute_plan", result, callId));
+                    return;
+                }
+
+                // Step 1: Start planning; the plan streams in step by step
+                PlanStream plan = createTodoList(goal, screenStateJson);
                 
+                // Step 2: Execute each step in the todo list as soon as it arrives
+                String result = executeTodoList(goal, plan, callId);
+                plan.cancel();
+                boolean achieved = result.startsWith("Goal achieved");
+                flightRecorder.finish(trace, achieved ? "GOAL_ACHIEVED" : "STEPS_EXHAUSTED", achieved);
+                Log.d(TAG, "Speculative analysis: " + speculativeAnalyzer.getStats());
+                Log.d(TAG, "Local policy: " + localPolicy.getStats());
+                Log.d(TAG, "Model requests: " + geminiClient.getResilience().getStats());
+                Log.d(TAG, "Flight recorder: " + flightRecorder.getSummary());
+                Log.d(TAG, "Task tokens: " + taskTokens + "; " + TokenMeter.getInstance().getStats());
+
                 mainHandler.post(() -> {
                     try {
                         callback.onResult("gui_execute_plan", result, callId);
@@ -147,51 +172,50 @@ public class GUIAgent extends BaseAgent {
                 });
             } catch (Exception e) {
                 Log.e(TAG, "Error executing plan", e);
+                flightRecorder.finish(trace, "ERROR", false);
                 mainHandler.post(() -> callback.onError("gui_execute_plan", "Error: " + e.getMessage(), callId));
+            } finally {
+                TokenMeter.getInstance().endTask(taskTokens);
             }
         });
     }
     
-    private String createTodoList(String goal, String screenStateJson) {
-        // Use Gemini (trained model) to create a todo list based on the goal and current screen state
-        final AtomicReference<String> resultRef = new AtomicReference<>("");
-        final CountDownLatch latch = new CountDownLatch(1);
-        
-        String planningPrompt = "Given the user's goal: \"" + goal + "\" and the current screen state: " + screenStateJson + 
-            ", create a step-by-step todo list to achieve this goal. " +
-            "Return ONLY a JSON array of steps, each step should be: {\"action\": \"click|type|scroll|open_app\", \"target\": \"node_id or text\", \"value\": \"text to type if needed\"}. " +
-            "Example: [{\"action\":\"click\",\"target\":\"search_button\"},{\"action\":\"type\",\"target\":\"search_input\",\"value\":\"pizza\"}]";
-        
-        geminiClient.queryAgent(planningPrompt, screenStateJson, new GeminiClient.GeminiCallback() {
-            @Override
-            public void onResponse(String toolName, JSONObject toolArgs) {
-                if (toolName.equals("text_response")) {
-                    String text = toolArgs.optString("text", "");
-                    resultRef.set(text);
-                } else {
-                    resultRef.set("{\"steps\":[]}");
-                }
-                latch.countDown();
-            }
-            
-            @Override
-            public void onError(Exception e) {
-                Log.e(TAG, "Error creating todo list", e);
-                resultRef.set("{\"steps\":[]}");
-                latch.countDown();
+    private PlanStream createTodoList(String goal, String screenStateJson) {
+        // Goals that closely match a training example get their first step on device, chosen
+        // from the live screen (the model's copy of it may be stale); the model plans the rest
+        String liveScreenState = accessibilityService != null ? accessibilityService.getScreenState() : screenStateJson;
+        LocalPolicy.Decision local = localPolicy.decide(goal, liveScreenState);
+        if (local != null && local.confidence >= LOCAL_POLICY_MIN_CONFIDENCE) {
+            try {
+                String plan = new JSONArray().put(local.toStep()).toString();
+                localPolicy.recordDecision(true);
+                Log.d(TAG, "Local policy plan (confidence " + local.confidence + ", matched \"" +
+                    local.matchedGoal + "\"): " + plan);
+                return PlanStream.of(plan);
+            } catch (Exception e) {
+                Log.w(TAG, "Could not use local policy decision", e);
             }
-        });
-        
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
         }
+        localPolicy.recordDecision(false);
+        return streamPlan(goal, screenStateJson, null);
+    }
+
+    // Use Gemini (trained model) to create a todo list based on the goal and current screen state;
+    // history lists the steps already taken when planning the rest of a task
+    private PlanStream streamPlan(String goal, String screenStateJson, List<String> history) {
+        PromptBuilder.Prompt planningPrompt = new PromptBuilder(planningTokenBudget())
+            .add("Given the user's goal: \"" + goal + "\"\n\n")
+            .history(history)
+            .screen(screenStateJson)
+            .addAfterScreen(PLAN_INSTRUCTIONS)
+            .build();
         
-        return resultRef.get();
+        PlanStream plan = new PlanStream();
+        plan.attach(geminiClient.streamAgent(planningPrompt, ResponseCache.CallType.PLAN, plan));
+        return plan;
     }
     
-    private String executeTodoList(String goal, String todoList, String callId) {
+    private String executeTodoList(String goal, PlanStream plan, String callId) {
         // Execute the todo list step by step
         // After each step, analyze the screen state
         // Continue until goal is achieved or max steps reached
@@ -199,29 +223,50 @@ public class GUIAgent extends BaseAgent {
         int maxSteps = 10;
         int stepCount = 0;
         String currentScreenState = accessibilityService != null ? accessibilityService.getScreenState() : "[]";
+        String initialScreenState = currentScreenState;
         
-        // Parse todo list (expecting JSON array of steps)
+        // Steps are appended as they stream in; after a replan the patched plan replaces the stream
         JSONArray steps = new JSONArray();
-        try {
-            // Try to parse as JSON array directly
-            if (todoList.trim().startsWith("[")) {
-                steps = new JSONArray(todoList);
-            } else {
-                // Try to extract from text response
-                JSONObject parsed = new JSONObject(todoList);
-                if (parsed.has("steps")) {
-                    steps = parsed.getJSONArray("steps");
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing todo list", e);
-            // Fallback: create steps from analysis
-            steps = createStepsFromAnalysis(goal, currentScreenState);
-        }
+        PlanStream stream = plan;
+        // Index in steps of the current stream's first step
+        int streamBase = 0;
         
-        Log.d(TAG, "Executing plan with " + steps.length() + " steps for goal: " + goal);
+        Log.d(TAG, "Executing streamed plan for goal: " + goal);
+        List<String> history = new ArrayList<>();
+        // Screen the current plan was written against; replans send only the delta from it
+        String planBaseScreenState = initialScreenState;
+        int replans = 0;
         
-        for (int i = 0; i < steps.length() && stepCount < maxSteps; i++) {
+        for (int i = 0; stepCount < maxSteps; i++) {
+            if (i >= steps.length() && stream != null) {
+                JSONObject next = awaitPlanStep(stream, i - streamBase);
+                if (next == null && stream.isLocal() && i > 0) {
+                    // The local step didn't finish the task: plan the rest from the screen it led to
+                    Log.d(TAG, "Local step done, planning the rest of: " + goal);
+                    PlanStream rest = streamPlan(goal, currentScreenState, history);
+                    stream.continueWith(rest);
+                    stream = rest;
+                    streamBase = i;
+                    next = awaitPlanStep(stream, 0);
+                }
+                if (next != null) {
+                    steps.put(next);
+                    if (i == 0 && currentTrace != null) {
+                        currentTrace.planningMs = stream.getFirstStepLatencyMs();
+                    }
+                } else if (i == streamBase && !stream.isFailed() && parseSteps(stream.getText()) == null) {
+                    // The model didn't return a step list at all
+                    Log.e(TAG, "Error parsing todo list: " + stream.getText());
+                    JSONArray fallback = createStepsFromAnalysis(goal, currentScreenState);
+                    for (int j = 0; j < fallback.length(); j++) {
+                        steps.put(fallback.opt(j));
+                    }
+                    stream = null;
+                }
+            }
+            if (i >= steps.length()) {
+                break;
+            }
             try {
                 JSONObject step = steps.getJSONObject(i);
                 String action = step.optString("action", "");
@@ -229,26 +274,102 @@ public class GUIAgent extends BaseAgent {
                 String value = step.optString("value", "");
                 
                 Log.d(TAG, "Step " + (i + 1) + ": " + action + " -> " + target);
+                GuiFlightRecorder.StepTrace stepTrace = currentTrace != null
+                    ? currentTrace.newStep(i, action, target) : new GuiFlightRecorder.StepTrace();
                 
-                // Execute the step
-                boolean success = executeStep(action, target, value);
+                // Execute the step and verify it from accessibility events; a step that couldn't
+                // be performed is retried right away, without a model call
+                long actionStart = System.currentTimeMillis();
+                ActionVerifier.Verdict verdict = executeVerifiedStep(action, target, value);
+                for (int retry = 0; retry < STEP_RETRIES && shouldRetry(action, verdict); retry++) {
+                    Log.d(TAG, "Step " + (i + 1) + " " + verdict + ", retrying");
+                    stepTrace.retries++;
+                    verdict = executeVerifiedStep(action, target, value);
+                }
+                boolean success = verdict != ActionVerifier.Verdict.NO_EFFECT && verdict != ActionVerifier.Verdict.FAILED;
+                stepTrace.actionMs = System.currentTimeMillis() - actionStart;
+                stepTrace.actionSuccess = success;
+                stepTrace.verdict = verdict.name();
+                history.add(action + " " + target + (value.isEmpty() ? "" : " = \"" + value + "\"") +
+                    (success ? "" : " (failed)"));
                 
                 if (!success) {
-                    Log.w(TAG, "Step " + (i + 1) + " failed, analyzing screen state");
-                    // Analyze and potentially replan
-                    String analysis = analyzeScreenState(goal, currentScreenState);
-                    if (analysis.contains("GOAL_ACHIEVED")) {
-                        return "Goal achieved: " + goal;
+                    if (replans < MAX_REPLANS) {
+                        // Patch the plan from the failure point: the model sees the failed step,
+                        // the steps still ahead and what changed on screen, not the whole task again
+                        Log.w(TAG, "Step " + (i + 1) + " failed, replanning from here");
+                        long replanStart = System.currentTimeMillis();
+                        currentScreenState = accessibilityService != null ? accessibilityService.getScreenState() : "[]";
+                        // The model needs the whole remaining plan, so let the stream finish first
+                        if (stream != null) {
+                            JSONObject next;
+                            while ((next = awaitPlanStep(stream, steps.length() - streamBase)) != null) {
+                                steps.put(next);
+                            }
+                        }
+                        JSONArray remaining = new JSONArray();
+                        for (int j = i + 1; j < steps.length(); j++) {
+                            remaining.put(steps.get(j));
+                        }
+                        String patch = replanTail(goal, step, remaining,
+                            ScreenDelta.between(planBaseScreenState, currentScreenState), history);
+                        stepTrace.analysisMs += System.currentTimeMillis() - replanStart;
+                        replans++;
+                        if (patch.contains("GOAL_ACHIEVED")) {
+                            return "Goal achieved: " + goal;
+                        }
+                        JSONArray tail = parseSteps(patch);
+                        if (tail != null) {
+                            JSONArray patched = new JSONArray();
+                            for (int j = 0; j < i; j++) {
+                                patched.put(steps.get(j));
+                            }
+                            for (int j = 0; j < tail.length(); j++) {
+                                patched.put(tail.get(j));
+                            }
+                            steps = patched;
+                            stream = null;
+                            planBaseScreenState = currentScreenState;
+                            Log.d(TAG, "Plan patched from step " + (i + 1) + ": " + tail.length() + " new steps");
+                            // Run the replacement for this step next (the failed attempt still counts)
+                            stepCount++;
+                            i--;
+                            continue;
+                        }
+                    } else {
+                        Log.w(TAG, "Step " + (i + 1) + " failed, analyzing screen state");
+                        long failureAnalysisStart = System.currentTimeMillis();
+                        String analysis = analyzeScreenState(goal, currentScreenState, history);
+                        stepTrace.analysisMs += System.currentTimeMillis() - failureAnalysisStart;
+                        if (analysis.contains("GOAL_ACHIEVED")) {
+                            return "Goal achieved: " + goal;
+                        }
                     }
                 }
                 
+                // Take an early look at the screen and start the analysis call speculatively
+                // while the UI is still settling
+                long settleStart = System.currentTimeMillis();
+                try {
+                    // Time spent waiting for verification already counts towards settling
+                    Thread.sleep(Math.max(0, SPECULATION_DELAY_MS - stepTrace.actionMs));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String earlyScreenState = accessibilityService != null ? accessibilityService.getScreenState() : "[]";
+                String predictedScreenState = predictPostActionScreen(action, target, value, earlyScreenState);
+                PromptBuilder.Prompt speculativePrompt = buildAnalysisPrompt(goal, predictedScreenState, history);
+                // Over the token budget a wrong guess is too expensive; analyse once, for real
+                SpeculativeAnalyzer.Speculation speculation = TokenMeter.getInstance().isOverBudget()
+                    ? null : speculativeAnalyzer.launch(speculativePrompt, predictedScreenState);
+
                 // Wait for screen to update
                 try {
-                    Thread.sleep(1500);
+                    Thread.sleep(1500 - SPECULATION_DELAY_MS);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
-                
+
                 // Update screen state
                 if (screenStateUpdater != null) {
                     mainHandler.post(screenStateUpdater);
@@ -258,12 +379,24 @@ public class GUIAgent extends BaseAgent {
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
-                
+
+                stepTrace.settleMs = System.currentTimeMillis() - settleStart;
+
                 currentScreenState = accessibilityService != null ? accessibilityService.getScreenState() : "[]";
-                
-                // Analyze after each step
-                String analysis = analyzeScreenState(goal, currentScreenState);
+                stepTrace.snapshotBytes = currentScreenState.length();
+
+                // Analyze after each step (reuse the speculative answer if the screen matches the prediction)
+                long analysisStart = System.currentTimeMillis();
+                String analysis = speculativeAnalyzer.resolve(speculation, currentScreenState);
+                stepTrace.speculationHit = analysis != null;
+                if (analysis == null) {
+                    analysis = analyzeScreenState(goal, currentScreenState, history);
+                }
+                stepTrace.analysisMs += System.currentTimeMillis() - analysisStart;
                 if (analysis.contains("GOAL_ACHIEVED") || analysis.contains("SUCCESS")) {
+                    if (i == 0 && success) {
+                        recordSingleStepSuccess(goal, initialScreenState, action, target, value);
+                    }
                     return "Goal achieved: " + goal + " (completed in " + (stepCount + 1) + " steps)";
                 }
                 
@@ -276,16 +409,84 @@ public class GUIAgent extends BaseAgent {
         return "Completed " + stepCount + " steps. Goal: " + goal;
     }
     
+    private JSONObject awaitPlanStep(PlanStream stream, int index) {
+        try {
+            return stream.awaitStep(index, PLAN_STEP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Ask for a replacement for the failed step and everything after it
+    private String replanTail(String goal, JSONObject failedStep, JSONArray remainingSteps,
+                              String screenDeltaJson, List<String> history) {
+        final AtomicReference<String> resultRef = new AtomicReference<>("");
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        PromptBuilder.Prompt prompt = new PromptBuilder(analysisTokenBudget())
+            .add("Goal: " + goal + "\n\n")
+            .add("Failed step: " + failedStep + "\n")
+            .add("Remaining steps: " + remainingSteps + "\n\n")
+            .history(history)
+            .screenLabel("Screen changes since the plan was made (JSON): ")
+            .screen(screenDeltaJson)
+            .addAfterScreen(REPLAN_INSTRUCTIONS)
+            .build();
+
+        geminiClient.queryAgent(prompt, ResponseCache.CallType.REPLAN, new GeminiClient.GeminiCallback() {
+            @Override
+            public void onResponse(String toolName, JSONObject toolArgs) {
+                String text = toolArgs.optString("text", "");
+                resultRef.set(text);
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Error replanning", e);
+                latch.countDown();
+            }
+        });
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return resultRef.get();
+    }
+
+    // Pull a step array out of a model answer ("[...]", {"steps":[...]}, or either wrapped in prose)
+    private JSONArray parseSteps(String text) {
+        try {
+            int start = text.indexOf('[');
+            int end = text.lastIndexOf(']');
+            if (start >= 0 && end > start) {
+                return new JSONArray(text.substring(start, end + 1));
+            }
+            JSONObject parsed = new JSONObject(text.trim());
+            return parsed.optJSONArray("steps");
+        } catch (Exception e) {
+            Log.w(TAG, "Could not parse steps from: " + text);
+            return null;
+        }
+    }
+
     private JSONArray createStepsFromAnalysis(String goal, String screenStateJson) {
         // Fallback: use Gemini to create steps from analysis
         JSONArray steps = new JSONArray();
         final AtomicReference<String> resultRef = new AtomicReference<>("[]");
         final CountDownLatch latch = new CountDownLatch(1);
         
-        String prompt = "Goal: " + goal + ". Screen: " + screenStateJson + 
-            ". Return JSON array of steps: [{\"action\":\"click\",\"target\":\"id\"}]";
+        PromptBuilder.Prompt prompt = new PromptBuilder(planningTokenBudget())
+            .add("Goal: " + goal + "\n\n")
+            .screen(screenStateJson)
+            .addAfterScreen(STEPS_INSTRUCTIONS)
+            .build();
         
-        geminiClient.queryAgent(prompt, screenStateJson, new GeminiClient.GeminiCallback() {
+        geminiClient.queryAgent(prompt, ResponseCache.CallType.PLAN, new GeminiClient.GeminiCallback() {
             @Override
             public void onResponse(String toolName, JSONObject toolArgs) {
                 String text = toolArgs.optString("text", "[]");
@@ -310,6 +511,51 @@ public class GUIAgent extends BaseAgent {
         return steps;
     }
     
+    // A goal one step achieved is exactly the kind of decision the local policy can learn
+    private void recordSingleStepSuccess(String goal, String screenStateJson, String action, String target, String value) {
+        try {
+            switch (action.toLowerCase()) {
+                case "click":
+                    localPolicy.recordSuccess(goal, screenStateJson, "gui_click", new JSONObject().put("node_id", target));
+                    break;
+                case "type":
+                    localPolicy.recordSuccess(goal, screenStateJson, "gui_type",
+                        new JSONObject().put("node_id", target).put("text", value));
+                    break;
+                case "scroll":
+                    localPolicy.recordSuccess(goal, screenStateJson, "gui_scroll",
+                        new JSONObject().put("direction", value.isEmpty() ? "DOWN" : value.toUpperCase()));
+                    break;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not record success for local policy", e);
+        }
+    }
+
+    // Perform the step and wait (briefly) for the accessibility event that confirms it
+    private ActionVerifier.Verdict executeVerifiedStep(String action, String target, String value) {
+        ActionVerifier verifier = accessibilityService != null ? accessibilityService.getActionVerifier() : null;
+        if (verifier == null) {
+            return executeStep(action, target, value) ? ActionVerifier.Verdict.UNKNOWN : ActionVerifier.Verdict.FAILED;
+        }
+        ActionVerifier.Expectation expectation = verifier.expect(action, target, value);
+        if (!executeStep(action, target, value)) {
+            verifier.cancel(expectation);
+            return ActionVerifier.Verdict.FAILED;
+        }
+        return verifier.await(expectation, VERIFY_WINDOW_MS);
+    }
+
+    // A click that was dispatched but not confirmed may still have landed (slow app), and a
+    // second one could send or pay twice: it goes to replanning instead. Typing and
+    // scrolling can safely be repeated.
+    private static boolean shouldRetry(String action, ActionVerifier.Verdict verdict) {
+        if (verdict == ActionVerifier.Verdict.FAILED) return true;
+        if (verdict != ActionVerifier.Verdict.NO_EFFECT) return false;
+        String kind = action.toLowerCase();
+        return kind.equals("type") || kind.equals("scroll");
+    }
+
     private boolean executeStep(String action, String target, String value) {
         if (accessibilityService == null) {
             return false;
@@ -333,16 +579,14 @@ public class GUIAgent extends BaseAgent {
         }
     }
     
-    private String analyzeScreenState(String goal, String screenStateJson) {
+    private String analyzeScreenState(String goal, String screenStateJson, List<String> history) {
         // Use Gemini to analyze the screen state and determine if goal is achieved
         final AtomicReference<String> resultRef = new AtomicReference<>("ANALYZING");
         final CountDownLatch latch = new CountDownLatch(1);
         
-        String analysisPrompt = "Analyze if the goal \"" + goal + "\" has been achieved given this screen state: " + 
-            screenStateJson.substring(0, Math.min(2000, screenStateJson.length())) + 
-            ". Respond with 'GOAL_ACHIEVED' if the goal is complete, or 'CONTINUE' with a brief reason if not.";
-        
-        geminiClient.queryAgent(analysisPrompt, screenStateJson, new GeminiClient.GeminiCallback() {
+        PromptBuilder.Prompt analysisPrompt = buildAnalysisPrompt(goal, screenStateJson, history);
+
+        geminiClient.queryAgent(analysisPrompt, ResponseCache.CallType.ANALYSIS, new GeminiClient.GeminiCallback() {
             @Override
             public void onResponse(String toolName, JSONObject toolArgs) {
                 String text = toolArgs.optString("text", "CONTINUE");
@@ -366,7 +610,53 @@ public class GUIAgent extends BaseAgent {
         
         return resultRef.get();
     }
-    
+
+    private PromptBuilder.Prompt buildAnalysisPrompt(String goal, String screenStateJson, List<String> history) {
+        return new PromptBuilder(analysisTokenBudget())
+            .add("Analyze if the goal \"" + goal + "\" has been achieved given this screen state.\n\n")
+            .history(history)
+            .screen(screenStateJson)
+            .addAfterScreen(ANALYSIS_INSTRUCTIONS)
+            .build();
+    }
+
+    // Predict what the settled screen will look like: the early snapshot, with the typed
+    // value applied to the target field in case the tree hasn't caught up yet
+    private String predictPostActionScreen(String action, String target, String value, String earlyScreenState) {
+        if (!"type".equalsIgnoreCase(action) || target.isEmpty()) {
+            return earlyScreenState;
+        }
+        try {
+            JSONArray nodes = new JSONArray(earlyScreenState);
+            for (int i = 0; i < nodes.length(); i++) {
+                JSONObject node = nodes.getJSONObject(i);
+                if (target.equals(node.optString("id", "")) && node.optBoolean("editable")) {
+                    node.put("text", value);
+                    return nodes.toString();
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not predict post-action screen", e);
+        }
+        return earlyScreenState;
+    }
+
+    private static int planningTokenBudget() {
+        return TokenMeter.getInstance().isOverBudget() ? DEGRADED_PLANNING_TOKEN_BUDGET : PLANNING_TOKEN_BUDGET;
+    }
+
+    private static int analysisTokenBudget() {
+        return TokenMeter.getInstance().isOverBudget() ? DEGRADED_ANALYSIS_TOKEN_BUDGET : ANALYSIS_TOKEN_BUDGET;
+    }
+
+    public SpeculativeAnalyzer getSpeculativeAnalyzer() {
+        return speculativeAnalyzer;
+    }
+
+    public IntentRouter getIntentRouter() {
+        return intentRouter;
+    }
+
     private void handleClick(JSONObject args, String callId) {
         // #region agent log
         try {
@@ -520,14 +810,10 @@ public class GUIAgent extends BaseAgent {
             android.content.Intent intent = pm.getLaunchIntentForPackage(appName.toLowerCase().replace(" ", ""));
             
             if (intent == null) {
-                // Try to find by name
-                java.util.List<android.content.pm.ApplicationInfo> apps = pm.getInstalledApplications(0);
-                for (android.content.pm.ApplicationInfo app : apps) {
-                    String label = pm.getApplicationLabel(app).toString();
-                    if (label.toLowerCase().contains(appName.toLowerCase())) {
-                        intent = pm.getLaunchIntentForPackage(app.packageName);
-                        break;
-                    }
+                // Try to find by name in the launcher index
+                String packageName = LauncherIndex.getInstance(context).findPackage(appName);
+                if (packageName != null) {
+                    intent = pm.getLaunchIntentForPackage(packageName);
                 }
             }
             
@@ -0,0 +1,197 @@
+package com.nexhacks.tapmate.agents;
+
+import android.util.Log;
+import com.nexhacks.tapmate.gemini.TokenMeter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Bounded in-memory ring of per-task traces for gui_execute_plan, so we can see where a
+// slow task spent its time (planning, actions, settle waits, analysis)
+public class GuiFlightRecorder {
+    private static final String TAG = "GuiFlightRecorder";
+    private static final int DEFAULT_CAPACITY = 50;
+    private static final GuiFlightRecorder INSTANCE = new GuiFlightRecorder(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final ArrayDeque<TaskTrace> ring;
+
+    public GuiFlightRecorder(int capacity) {
+        this.capacity = capacity;
+        this.ring = new ArrayDeque<>(capacity);
+    }
+
+    public static GuiFlightRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    public static class StepTrace {
+        public int index;
+        public String action;
+        public String target;
+        public boolean actionSuccess;
+        public String verdict;
+        public int retries;
+        public long actionMs;
+        public long settleMs;
+        public long analysisMs;
+        public boolean speculationHit;
+        public int snapshotBytes;
+
+        JSONObject toJson() throws org.json.JSONException {
+            return new JSONObject()
+                .put("index", index)
+                .put("action", action)
+                .put("target", target)
+                .put("actionSuccess", actionSuccess)
+                .put("verdict", verdict != null ? verdict : JSONObject.NULL)
+                .put("retries", retries)
+                .put("actionMs", actionMs)
+                .put("settleMs", settleMs)
+                .put("analysisMs", analysisMs)
+                .put("speculationHit", speculationHit)
+                .put("snapshotBytes", snapshotBytes);
+        }
+    }
+
+    public static class TaskTrace {
+        public final String callId;
+        public final String goal;
+        public final long startedAt;
+        public long planningMs;
+        public int initialSnapshotBytes;
+        public final List<StepTrace> steps = new ArrayList<>();
+        public String outcome = "UNKNOWN";
+        public boolean success;
+        public long totalMs;
+        // Real counts from usageMetadata, accumulated by TokenMeter while the task runs
+        private volatile TokenMeter.Usage tokens = new TokenMeter.Usage();
+
+        TaskTrace(String callId, String goal) {
+            this.callId = callId;
+            this.goal = goal;
+            this.startedAt = System.currentTimeMillis();
+        }
+
+        public void setTokenUsage(TokenMeter.Usage usage) {
+            this.tokens = usage;
+        }
+
+        public long getTokensIn() {
+            return tokens.getPromptTokens();
+        }
+
+        public long getTokensCached() {
+            return tokens.getCachedTokens();
+        }
+
+        public long getTokensOut() {
+            return tokens.getOutputTokens();
+        }
+
+        public StepTrace newStep(int index, String action, String target) {
+            StepTrace step = new StepTrace();
+            step.index = index;
+            step.action = action;
+            step.target = target;
+            steps.add(step);
+            return step;
+        }
+
+        JSONObject toJson() throws org.json.JSONException {
+            JSONArray stepsJson = new JSONArray();
+            for (StepTrace step : steps) {
+                stepsJson.put(step.toJson());
+            }
+            return new JSONObject()
+                .put("callId", callId != null ? callId : JSONObject.NULL)
+                .put("goal", goal)
+                .put("startedAt", startedAt)
+                .put("planningMs", planningMs)
+                .put("initialSnapshotBytes", initialSnapshotBytes)
+                .put("steps", stepsJson)
+                .put("modelCalls", tokens.getCalls())
+                .put("tokensIn", tokens.getPromptTokens())
+                .put("tokensCached", tokens.getCachedTokens())
+                .put("tokensOut", tokens.getOutputTokens())
+                .put("outcome", outcome)
+                .put("success", success)
+                .put("totalMs", totalMs);
+        }
+    }
+
+    public TaskTrace begin(String callId, String goal) {
+        return new TaskTrace(callId, goal);
+    }
+
+    public void finish(TaskTrace trace, String outcome, boolean success) {
+        trace.outcome = outcome;
+        trace.success = success;
+        trace.totalMs = System.currentTimeMillis() - trace.startedAt;
+        synchronized (ring) {
+            if (ring.size() == capacity) {
+                ring.removeFirst();
+            }
+            ring.addLast(trace);
+        }
+        Log.d(TAG, "Task finished: outcome=" + outcome + ", totalMs=" + trace.totalMs +
+            ", planningMs=" + trace.planningMs + ", steps=" + trace.steps.size());
+    }
+
+    public List<TaskTrace> snapshot() {
+        synchronized (ring) {
+            return new ArrayList<>(ring);
+        }
+    }
+
+    // One JSON object per task, oldest first
+    public String exportJsonl() {
+        StringBuilder out = new StringBuilder();
+        for (TaskTrace trace : snapshot()) {
+            try {
+                out.append(trace.toJson().toString()).append('\n');
+            } catch (org.json.JSONException e) {
+                Log.e(TAG, "Error serializing trace", e);
+            }
+        }
+        return out.toString();
+    }
+
+    public boolean exportJsonl(File file) {
+        try (FileWriter writer = new FileWriter(file, false)) {
+            writer.write(exportJsonl());
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error exporting traces to " + file, e);
+            return false;
+        }
+    }
+
+    // Nearest-rank percentile of "seconds per successful GUI task" over the ring
+    public double successSecondsPercentile(double percentile) {
+        List<Long> durations = new ArrayList<>();
+        for (TaskTrace trace : snapshot()) {
+            if (trace.success) {
+                durations.add(trace.totalMs);
+            }
+        }
+        if (durations.isEmpty()) {
+            return Double.NaN;
+        }
+        Collections.sort(durations);
+        int rank = (int) Math.ceil(percentile / 100.0 * durations.size());
+        int index = Math.min(durations.size() - 1, Math.max(0, rank - 1));
+        return durations.get(index) / 1000.0;
+    }
+
+    public String getSummary() {
+        return String.format(java.util.Locale.US,
+            "successful task seconds p50=%.2f p90=%.2f p99=%.2f",
+            successSecondsPercentile(50), successSecondsPercentile(90), successSecondsPercentile(99));
+    }
+}
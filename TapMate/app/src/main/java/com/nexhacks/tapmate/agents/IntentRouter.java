@@ -0,0 +1,196 @@
+package com.nexhacks.tapmate.agents;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.util.Log;
+import com.nexhacks.tapmate.utils.LauncherIndex;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Classifies a gui_execute_plan goal locally and fires the equivalent intent when one
+// exists (open app, dial, SMS, Maps navigation, URL), so no planning or GUI steps run
+public class IntentRouter {
+    private static final String TAG = "IntentRouter";
+    private static final int MAX_RECENT_MISSES = 20;
+
+    public static final String RULE_OPEN_APP = "open_app";
+    public static final String RULE_DIAL = "dial";
+    public static final String RULE_SMS = "sms";
+    public static final String RULE_NAVIGATE = "navigate";
+    public static final String RULE_URL = "url";
+
+    private static final String PHONE = "(\\+?[0-9][0-9 ().-]{2,}[0-9])";
+
+    // Goals that chain several actions need the GUI planner
+    private static final Pattern COMPOUND = Pattern.compile(
+        "\\b(and|then|after|search|type|send|click|tap|find|scroll)\\b|,|;", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DIAL = Pattern.compile(
+        "^(?:call|dial|phone|ring)\\s+(?:the\\s+number\\s+)?" + PHONE + "$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SMS = Pattern.compile(
+        "^(?:text|sms|message|send\\s+(?:a\\s+)?(?:text|sms|message)\\s+to)\\s+" + PHONE +
+        "(?:\\s*(?:saying|that\\s+says|with|:)\\s+(.+))?$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NAVIGATE = Pattern.compile(
+        "^(?:navigate|(?:get\\s+|give\\s+me\\s+)?(walking\\s+)?directions|take\\s+me|walk\\s+me|bring\\s+me|guide\\s+me)" +
+        "\\s+(?:to\\s+)?(.+)$", Pattern.CASE_INSENSITIVE);
+    // Navigation targets that are places inside the phone, not on a map
+    private static final Pattern NOT_A_PLACE = Pattern.compile(
+        "\\b(settings?|page|screen|tab|menu|section|folder|inbox|chat|conversation|profile|bluetooth|wi-?fi)\\b",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern URL = Pattern.compile(
+        "^(?:(?:open|go\\s+to|visit|browse\\s+to)\\s+)?(https?://\\S+|(?:www\\.)?[a-z0-9-]+(?:\\.[a-z0-9-]+)*\\.(?:com|org|net|io|dev|app|edu|gov|co|ai)(?:/\\S*)?)$",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern OPEN_APP = Pattern.compile(
+        "^(?:open|launch|start|go\\s+to)\\s+(?:the\\s+|my\\s+)?(.+?)(?:\\s+app)?$", Pattern.CASE_INSENSITIVE);
+
+    private final Context context;
+    private final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+    private final AtomicLong misses = new AtomicLong();
+    private final ArrayDeque<String> recentMisses = new ArrayDeque<>();
+
+    public IntentRouter(Context context) {
+        this.context = context;
+    }
+
+    public static class Route {
+        public final String rule;
+        public final Intent intent;
+        public final String description;
+
+        Route(String rule, Intent intent, String description) {
+            this.rule = rule;
+            this.intent = intent;
+            this.description = description;
+        }
+    }
+
+    // Returns the fast-path route for a goal, or null if it needs GUI automation
+    public Route classify(String goal) {
+        if (goal == null || context == null) return null;
+        String text = goal.trim().replaceAll("[.!?]+$", "").trim();
+        if (text.isEmpty()) return null;
+
+        Matcher m = SMS.matcher(text);
+        if (m.matches()) {
+            String number = digitsOnly(m.group(1));
+            Intent intent = new Intent(Intent.ACTION_SENDTO, Uri.parse("smsto:" + number));
+            if (m.group(2) != null) {
+                intent.putExtra("sms_body", m.group(2).trim());
+            }
+            return new Route(RULE_SMS, intent, "Opened a new message to " + number);
+        }
+
+        boolean compound = COMPOUND.matcher(text).find();
+
+        m = DIAL.matcher(text);
+        if (m.matches() && !compound) {
+            String number = digitsOnly(m.group(1));
+            return new Route(RULE_DIAL, new Intent(Intent.ACTION_DIAL, Uri.parse("tel:" + number)),
+                "Opened the dialer with " + number);
+        }
+
+        m = NAVIGATE.matcher(text);
+        if (m.matches() && !compound && !NOT_A_PLACE.matcher(m.group(2)).find()) {
+            String destination = m.group(2).trim();
+            boolean walking = m.group(1) != null || text.toLowerCase().startsWith("walk");
+            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("google.navigation:q=" +
+                Uri.encode(destination) + (walking ? "&mode=w" : "")));
+            intent.setPackage("com.google.android.apps.maps");
+            return new Route(RULE_NAVIGATE, intent, "Started navigation to " + destination);
+        }
+
+        if (compound) return null;
+
+        m = URL.matcher(text);
+        if (m.matches()) {
+            String url = m.group(1);
+            if (!url.toLowerCase().startsWith("http")) {
+                url = "https://" + url;
+            }
+            return new Route(RULE_URL, new Intent(Intent.ACTION_VIEW, Uri.parse(url)), "Opened " + url);
+        }
+
+        m = OPEN_APP.matcher(text);
+        if (m.matches()) {
+            String appName = m.group(1).trim();
+            // Reported as done without a plan, so only a certain match qualifies; anything
+            // fuzzier is left to the GUI planner
+            String packageName = LauncherIndex.getInstance(context).findPackageExact(appName);
+            if (packageName != null) {
+                Intent intent = context.getPackageManager().getLaunchIntentForPackage(packageName);
+                if (intent != null) {
+                    return new Route(RULE_OPEN_APP, intent, "Opened " + appName);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Fires the fast-path intent for the goal. Returns a description of what was done,
+    // or null (and counts a miss) when the caller should fall back to GUI automation.
+    public String tryRoute(String goal) {
+        Route route = classify(goal);
+        if (route != null) {
+            try {
+                PackageManager pm = context.getPackageManager();
+                if (route.intent.resolveActivity(pm) != null) {
+                    route.intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                    context.startActivity(route.intent);
+                    hits.computeIfAbsent(route.rule, k -> new AtomicLong()).incrementAndGet();
+                    Log.d(TAG, "Fast path " + route.rule + ": " + route.description);
+                    return route.description;
+                }
+                Log.d(TAG, "No activity handles " + route.rule + " intent, falling back to GUI");
+            } catch (Exception e) {
+                Log.e(TAG, "Error firing " + route.rule + " intent", e);
+            }
+        }
+        misses.incrementAndGet();
+        synchronized (recentMisses) {
+            if (recentMisses.size() == MAX_RECENT_MISSES) {
+                recentMisses.removeFirst();
+            }
+            recentMisses.addLast(goal);
+        }
+        return null;
+    }
+
+    private static String digitsOnly(String number) {
+        return number.replaceAll("[^0-9+]", "");
+    }
+
+    public long getHits(String rule) {
+        AtomicLong count = hits.get(rule);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getTotalHits() {
+        long total = 0;
+        for (AtomicLong count : hits.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // Goals that fell through to GUI automation, oldest first; candidates for new rules
+    public List<String> getRecentMisses() {
+        synchronized (recentMisses) {
+            return new ArrayList<>(recentMisses);
+        }
+    }
+
+    public String getStats() {
+        return "hits=" + getTotalHits() + " " + hits + ", misses=" + misses.get();
+    }
+}
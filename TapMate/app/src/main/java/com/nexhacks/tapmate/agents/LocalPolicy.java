@@ -0,0 +1,435 @@
+package com.nexhacks.tapmate.agents;
+
+import android.content.Context;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Nearest-neighbour policy over the GUI training examples (and successes recorded on
+// device). Simple goal + screen -> single gui_click/gui_type/gui_scroll decisions are
+// answered locally when the match is confident; everything else goes to the remote model.
+public class LocalPolicy {
+    private static final String TAG = "LocalPolicy";
+    private static final String TRAINING_ASSET = "tapmate_gui_training.jsonl";
+    private static final String SUCCESSES_FILE = "local_policy_successes.jsonl";
+    public static final double DEFAULT_MIN_CONFIDENCE = 0.8;
+    private static final String LITERAL_TOKEN = "<text>";
+
+    private static final Set<String> STOPWORDS = new HashSet<>(Arrays.asList(
+        "the", "a", "an", "to", "into", "in", "on", "for", "of", "my", "please", "and", "with", "this", "that"));
+    private static final Set<String> ID_NOISE = new HashSet<>(Arrays.asList(
+        "btn", "button", "txt", "text", "view", "icon", "img", "layout"));
+    private static final Pattern PROMPT = Pattern.compile("^Goal:\\s*(.*?)\\s*Screen:\\s*(\\[.*\\])\\s*$", Pattern.DOTALL);
+    private static final Pattern LITERAL = Pattern.compile("'([^']+)'|\"([^\"]+)\"");
+    // Training screens are Python reprs: [{'id': 'x', 'text': "it's", 'editable': true}]
+    private static final Pattern REPR_NODE = Pattern.compile("\\{([^{}]*)\\}");
+    private static final Pattern REPR_FIELD = Pattern.compile(
+        "'(\\w+)'\\s*:\\s*(?:'((?:[^'\\\\]|\\\\.)*)'|\"((?:[^\"\\\\]|\\\\.)*)\"|(\\w+))");
+
+    private static volatile LocalPolicy INSTANCE;
+
+    private final Context context;
+    private final List<Example> examples = new ArrayList<>();
+    private final Map<String, Set<Integer>> byGoalToken = new HashMap<>();
+    // goal + tool + args of every example, so a success already known isn't added again
+    private final Set<String> exampleKeys = new HashSet<>();
+    private volatile boolean loaded = false;
+    private final AtomicLong localDecisions = new AtomicLong();
+    private final AtomicLong deferrals = new AtomicLong();
+
+    static class Node {
+        final String id;
+        final String text;
+        final boolean editable;
+        final boolean scrollable;
+        final Set<String> idTokens;
+        final Set<String> textTokens;
+
+        Node(String id, String text, boolean editable, boolean scrollable) {
+            this.id = id;
+            this.text = text;
+            this.editable = editable;
+            this.scrollable = scrollable;
+            // Only the entry name of "com.app:id/btn_confirm" says anything about the node
+            String entry = id.substring(id.lastIndexOf('/') + 1);
+            this.idTokens = tokenize(entry);
+            this.idTokens.removeAll(ID_NOISE);
+            this.textTokens = tokenize(text);
+        }
+
+        // idShared: several nodes on this screen carry this id (list rows), so the id alone
+        // doesn't pick one and the text has to match
+        double similarity(Node other, boolean idShared) {
+            double textScore = jaccard(textTokens, other.textTokens);
+            if (id.equals(other.id) && !id.isEmpty()) {
+                if (idShared) return textScore;
+                // Same id but different text (another row alone on screen) is only half a match
+                return other.textTokens.isEmpty() || textTokens.isEmpty() || textScore > 0 ? 1.0 : 0.5;
+            }
+            if (idShared) return textScore;
+            return Math.max(jaccard(idTokens, other.idTokens), textScore);
+        }
+    }
+
+    static class Example {
+        final String goal;
+        final Set<String> goalTokens;
+        final boolean goalHasLiteral;
+        final String tool;
+        final JSONObject args;
+        final Node target;
+
+        Example(String goal, String tool, JSONObject args, Node target) {
+            this.goal = goal;
+            this.goalTokens = goalTokens(goal);
+            this.goalHasLiteral = extractLiteral(goal) != null;
+            this.tool = tool;
+            this.args = args;
+            this.target = target;
+        }
+    }
+
+    public static class Decision {
+        public final String tool;
+        public final JSONObject args;
+        public final double confidence;
+        public final String matchedGoal;
+
+        Decision(String tool, JSONObject args, double confidence, String matchedGoal) {
+            this.tool = tool;
+            this.args = args;
+            this.confidence = confidence;
+            this.matchedGoal = matchedGoal;
+        }
+
+        // Same shape as the steps GUIAgent plans: {"action","target","value"}
+        public JSONObject toStep() throws org.json.JSONException {
+            JSONObject step = new JSONObject();
+            switch (tool) {
+                case "gui_click":
+                    step.put("action", "click").put("target", args.optString("node_id"));
+                    break;
+                case "gui_type":
+                    step.put("action", "type").put("target", args.optString("node_id"))
+                        .put("value", args.optString("text"));
+                    break;
+                default:
+                    step.put("action", "scroll").put("target", "").put("value", args.optString("direction", "DOWN"));
+                    break;
+            }
+            return step;
+        }
+    }
+
+    private LocalPolicy(Context context) {
+        this.context = context != null ? context.getApplicationContext() : null;
+    }
+
+    public static LocalPolicy getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (LocalPolicy.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LocalPolicy(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Loads the bundled training examples and recorded successes (once, on first use)
+    private synchronized void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        if (context == null) return;
+        long start = System.currentTimeMillis();
+        try (InputStream in = context.getAssets().open(TRAINING_ASSET)) {
+            load(in);
+        } catch (Exception e) {
+            Log.w(TAG, "No bundled training examples: " + e.getMessage());
+        }
+        File successes = new File(context.getFilesDir(), SUCCESSES_FILE);
+        if (successes.exists()) {
+            try (InputStream in = new FileInputStream(successes)) {
+                load(in);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading recorded successes", e);
+            }
+        }
+        Log.d(TAG, "Indexed " + examples.size() + " examples in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void load(InputStream in) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            try {
+                JSONArray contents = new JSONObject(line).getJSONArray("contents");
+                String prompt = contents.getJSONObject(0).getJSONArray("parts").getJSONObject(0).getString("text");
+                JSONObject answer = new JSONObject(
+                    contents.getJSONObject(1).getJSONArray("parts").getJSONObject(0).getString("text"));
+                addExample(prompt, answer.getString("tool"), answer.optJSONObject("args"));
+            } catch (Exception e) {
+                Log.w(TAG, "Skipping malformed example: " + e.getMessage());
+            }
+        }
+    }
+
+    // False if the example is unusable or already known
+    private boolean addExample(String prompt, String tool, JSONObject args) {
+        // Only decisions the plan executor can carry out are useful locally
+        if (args == null || !(tool.equals("gui_click") || tool.equals("gui_type") || tool.equals("gui_scroll"))) {
+            return false;
+        }
+        Matcher m = PROMPT.matcher(prompt);
+        if (!m.matches()) return false;
+        String goal = m.group(1).replaceAll("\\.$", "");
+        if (!exampleKeys.add(goal.trim().toLowerCase(Locale.ROOT) + "|" + tool + "|" + args)) return false;
+        List<Node> screen = parseScreen(m.group(2));
+
+        Node target = null;
+        if (!tool.equals("gui_scroll")) {
+            String nodeId = args.optString("node_id", "");
+            // A node without an id can't be targeted again
+            if (nodeId.isEmpty()) return false;
+            // Steps target a resource id or, failing that, the node's text
+            int matches = 0;
+            for (Node node : screen) {
+                if (node.id.equals(nodeId)) {
+                    target = node;
+                    matches++;
+                }
+            }
+            if (matches == 0) {
+                for (Node node : screen) {
+                    if (node.text.equals(nodeId) && !node.id.isEmpty()) {
+                        target = node;
+                        matches++;
+                    }
+                }
+            }
+            // No node, or a shared id (list rows) that doesn't say which one was meant
+            if (matches != 1) return false;
+        }
+
+        Example example = new Example(goal, tool, args, target);
+        int index = examples.size();
+        examples.add(example);
+        for (String token : example.goalTokens) {
+            Set<Integer> ids = byGoalToken.get(token);
+            if (ids == null) {
+                ids = new HashSet<>();
+                byGoalToken.put(token, ids);
+            }
+            ids.add(index);
+        }
+        return true;
+    }
+
+    // Best local decision for the goal on this screen, or null if no example matches
+    public synchronized Decision decide(String goal, String screenStateJson) {
+        ensureLoaded();
+        Set<String> tokens = goalTokens(goal);
+        Set<Integer> candidates = new HashSet<>();
+        for (String token : tokens) {
+            Set<Integer> ids = byGoalToken.get(token);
+            if (ids != null) candidates.addAll(ids);
+        }
+        if (candidates.isEmpty()) return null;
+
+        List<Node> screen = parseScreen(screenStateJson);
+        String literal = extractLiteral(goal);
+        Decision best = null;
+        for (int index : candidates) {
+            Example example = examples.get(index);
+            double goalScore = jaccard(tokens, example.goalTokens);
+            if (best != null && goalScore <= best.confidence) continue;
+            Decision decision = adapt(example, goalScore, screen, literal);
+            if (decision != null && (best == null || decision.confidence > best.confidence)) {
+                best = decision;
+            }
+        }
+        return best;
+    }
+
+    // Map the example's answer onto the live screen; confidence = goal match * node match
+    private Decision adapt(Example example, double goalScore, List<Node> screen, String literal) {
+        try {
+            if (example.tool.equals("gui_scroll")) {
+                for (Node node : screen) {
+                    if (node.scrollable) {
+                        return new Decision(example.tool, new JSONObject(example.args.toString()), goalScore, example.goal);
+                    }
+                }
+                return null;
+            }
+
+            Map<String, Integer> idCounts = new HashMap<>();
+            for (Node node : screen) {
+                Integer count = idCounts.get(node.id);
+                idCounts.put(node.id, count == null ? 1 : count + 1);
+            }
+            Node bestNode = null;
+            double bestScore = 0;
+            for (Node node : screen) {
+                // toStep() targets the node by id
+                if (node.id.isEmpty()) continue;
+                // Training screens don't always flag inputs, so editable is only enforced
+                // when the example's target was flagged
+                if (example.tool.equals("gui_type") && example.target.editable && !node.editable) continue;
+                double score = node.similarity(example.target, idCounts.get(node.id) > 1);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestNode = node;
+                }
+            }
+            if (bestNode == null) return null;
+
+            // The executor clicks the first node with an id, so a row whose id is shared is
+            // targeted by its text instead
+            boolean shared = idCounts.get(bestNode.id) > 1;
+            JSONObject args = new JSONObject().put("node_id", shared ? bestNode.text : bestNode.id);
+            if (example.tool.equals("gui_type")) {
+                if (example.goalHasLiteral) {
+                    // "Type 'X' into ..." - the text comes from the live goal
+                    if (literal == null) return null;
+                    args.put("text", literal);
+                } else if (goalScore >= 1.0) {
+                    args.put("text", example.args.optString("text"));
+                } else {
+                    return null;
+                }
+            }
+            return new Decision(example.tool, args, goalScore * bestScore, example.goal);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not adapt example: " + example.goal, e);
+            return null;
+        }
+    }
+
+    public void recordDecision(boolean local) {
+        (local ? localDecisions : deferrals).incrementAndGet();
+    }
+
+    // Remember a goal that a single GUI step achieved, in the same format as the training file
+    public synchronized void recordSuccess(String goal, String screenStateJson, String tool, JSONObject args) {
+        ensureLoaded();
+        try {
+            String prompt = "Goal: " + goal + ". Screen: " + screenStateJson;
+            String answer = new JSONObject().put("tool", tool).put("args", args).toString();
+            // Repeats of a known success (e.g. a plan the local policy made) aren't stored again
+            if (!addExample(prompt, tool, args) || context == null) return;
+            JSONObject line = new JSONObject().put("contents", new JSONArray()
+                .put(new JSONObject().put("role", "user")
+                    .put("parts", new JSONArray().put(new JSONObject().put("text", prompt))))
+                .put(new JSONObject().put("role", "model")
+                    .put("parts", new JSONArray().put(new JSONObject().put("text", answer)))));
+            try (FileWriter writer = new FileWriter(new File(context.getFilesDir(), SUCCESSES_FILE), true)) {
+                writer.write(line.toString() + "\n");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error recording success", e);
+        }
+    }
+
+    public long getLocalDecisions() {
+        return localDecisions.get();
+    }
+
+    public long getDeferrals() {
+        return deferrals.get();
+    }
+
+    public String getStats() {
+        return "examples=" + examples.size() + ", local=" + localDecisions.get() + ", deferred=" + deferrals.get();
+    }
+
+    // Accepts the accessibility service's JSON screen state and the training files' repr format
+    static List<Node> parseScreen(String screen) {
+        List<Node> nodes = new ArrayList<>();
+        if (screen == null) return nodes;
+        try {
+            JSONArray array = new JSONArray(screen);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject node = array.optJSONObject(i);
+                if (node == null) continue;
+                String text = node.optString("text", "");
+                if (text.isEmpty()) text = node.optString("desc", "");
+                nodes.add(new Node(node.optString("id", ""), text,
+                    node.optBoolean("editable"), node.optBoolean("scrollable")));
+            }
+            return nodes;
+        } catch (Exception ignored) {
+            // Not JSON, try the repr format below
+        }
+        Matcher nodeMatcher = REPR_NODE.matcher(screen);
+        while (nodeMatcher.find()) {
+            Map<String, String> fields = new HashMap<>();
+            Matcher field = REPR_FIELD.matcher(nodeMatcher.group(1));
+            while (field.find()) {
+                String value = field.group(2) != null ? field.group(2)
+                    : field.group(3) != null ? field.group(3) : field.group(4);
+                fields.put(field.group(1), value);
+            }
+            String text = fields.containsKey("text") ? fields.get("text") : "";
+            if (text.isEmpty() && fields.containsKey("desc")) text = fields.get("desc");
+            nodes.add(new Node(fields.containsKey("id") ? fields.get("id") : "", text,
+                "true".equalsIgnoreCase(fields.get("editable")),
+                "true".equalsIgnoreCase(fields.get("scrollable"))));
+        }
+        return nodes;
+    }
+
+    static String extractLiteral(String goal) {
+        Matcher m = LITERAL.matcher(goal);
+        if (!m.find()) return null;
+        return m.group(1) != null ? m.group(1) : m.group(2);
+    }
+
+    // Goal tokens with any quoted literal replaced by a placeholder, so "Type 'Pizza'"
+    // matches an example that typed 'Bakery'
+    static Set<String> goalTokens(String goal) {
+        Set<String> tokens = tokenize(LITERAL.matcher(goal).replaceAll(" "));
+        if (extractLiteral(goal) != null) {
+            tokens.add(LITERAL_TOKEN);
+        }
+        return tokens;
+    }
+
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new HashSet<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+            if (!token.isEmpty() && !STOPWORDS.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        int common = 0;
+        for (String token : a) {
+            if (b.contains(token)) common++;
+        }
+        return (double) common / (a.size() + b.size() - common);
+    }
+}
@@ -2,7 +2,6 @@ package com.nexhacks.tapmate.agents;
 
 import com.nexhacks.tapmate.memory.AppDatabase;
 import com.nexhacks.tapmate.memory.MemoryItem;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import android.os.Handler;
 import android.util.Log;
@@ -20,41 +19,6 @@ public class MemoryAgent extends BaseAgent {
         this.executorService = executorService;
     }
     
-    @Override
-    public JSONArray getFunctionDeclarations() {
-        try {
-            JSONArray funcs = new JSONArray();
-            
-            // memory_save
-            JSONObject saveParams = new JSONObject();
-            saveParams.put("key", new JSONObject().put("type", "STRING"));
-            saveParams.put("value", new JSONObject().put("type", "STRING"));
-            saveParams.put("type", new JSONObject()
-                .put("type", "STRING")
-                .put("description", "Type of memory: UBER_RIDE, LOCATION, REMINDER, etc."));
-            saveParams.put("trigger_time", new JSONObject()
-                .put("type", "NUMBER")
-                .put("description", "Unix timestamp when to recall this memory (optional)"));
-            funcs.put(createFunctionDeclarationWithTypes("memory_save",
-                "Save important details like car info or ETA to memory.",
-                saveParams, new String[]{"key", "value"}));
-            
-            // memory_recall
-            JSONObject recallParams = new JSONObject();
-            recallParams.put("type", new JSONObject()
-                .put("type", "STRING")
-                .put("description", "Type of memory to recall: UBER_RIDE, LOCATION, REMINDER, etc."));
-            funcs.put(createFunctionDeclarationWithTypes("memory_recall",
-                "Recall saved information from memory by type.",
-                recallParams, new String[]{"type"}));
-            
-            return funcs;
-        } catch (org.json.JSONException e) {
-            Log.e(TAG, "Error creating function declarations", e);
-            return new JSONArray();
-        }
-    }
-    
     @Override
     public boolean handleFunction(String functionName, JSONObject args, String callId) {
         switch (functionName) {
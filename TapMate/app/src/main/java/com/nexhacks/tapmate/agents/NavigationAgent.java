@@ -1,8 +1,8 @@
 package com.nexhacks.tapmate.agents;
 
+import com.nexhacks.tapmate.utils.JsonCodec;
 import com.nexhacks.tapmate.utils.MapsIntegration;
 import com.nexhacks.tapmate.utils.LocationService;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import android.os.Handler;
 import android.util.Log;
@@ -25,23 +25,6 @@ public class NavigationAgent extends BaseAgent {
         this.executorService = executorService;
     }
     
-    @Override
-    public JSONArray getFunctionDeclarations() {
-        JSONArray funcs = new JSONArray();
-        
-        // maps_navigation
-        funcs.put(createFunctionDeclaration("maps_navigation",
-            "Get walking directions to a destination using Google Maps.",
-            new String[]{"destination"}, new String[]{"destination"}));
-        
-        // get_location
-        funcs.put(createFunctionDeclaration("get_location",
-            "Get the user's current GPS location coordinates.",
-            new String[]{}, new String[]{}));
-        
-        return funcs;
-    }
-    
     @Override
     public boolean handleFunction(String functionName, JSONObject args, String callId) {
         switch (functionName) {
@@ -76,7 +59,7 @@ public class NavigationAgent extends BaseAgent {
                     origin = "37.7749,-122.4194"; // Fallback
                 }
                 
-                JSONObject directions = mapsIntegration.getWalkingDirections(destination, origin);
+                JsonCodec.Directions directions = mapsIntegration.getWalkingDirections(destination, origin);
                 mainHandler.post(() -> {
                     try {
                         if (directions != null) {
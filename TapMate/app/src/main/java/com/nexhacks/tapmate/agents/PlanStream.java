@@ -0,0 +1,186 @@
+package com.nexhacks.tapmate.agents;
+
+import android.util.Log;
+import com.nexhacks.tapmate.gemini.GeminiClient;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+
+// A GUI plan that is still arriving. Step objects are pulled out of the streamed text as
+// soon as their closing brace arrives, so the executor can start on step 1 while the
+// model is still writing the rest of the plan.
+public class PlanStream implements GeminiClient.StreamCallback {
+    private static final String TAG = "PlanStream";
+
+    private final List<JSONObject> steps = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private boolean complete = false;
+    private boolean failed = false;
+    private volatile Call call;
+    private boolean local = false;
+    // Plan for the rest of the task once this one runs out; cancelled along with this one
+    private volatile PlanStream continuation;
+    private long firstStepAt = 0;
+    private final long startedAt = System.currentTimeMillis();
+
+    // Extractor state: position in text, brace depth, and whether we're inside a string
+    private int scanned = 0;
+    private int depth = 0;
+    private int objectStart = -1;
+    private boolean inString = false;
+    private boolean escaped = false;
+
+    // A plan that is already known (e.g. from the local policy); no stream behind it
+    public static PlanStream of(String planText) {
+        PlanStream plan = new PlanStream();
+        plan.local = true;
+        plan.onTextDelta(planText);
+        plan.onComplete();
+        return plan;
+    }
+
+    void attach(Call call) {
+        this.call = call;
+    }
+
+    void continueWith(PlanStream next) {
+        this.continuation = next;
+    }
+
+    @Override
+    public synchronized void onTextDelta(String delta) {
+        text.append(delta);
+        for (; scanned < text.length(); scanned++) {
+            char c = text.charAt(scanned);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                if (depth == 0) objectStart = scanned;
+                depth++;
+            } else if (c == '}' && depth > 0) {
+                depth--;
+                if (depth == 0 && objectStart >= 0) {
+                    emit(text.substring(objectStart, scanned + 1));
+                    objectStart = -1;
+                }
+            }
+        }
+    }
+
+    private void emit(String objectText) {
+        try {
+            JSONObject object = new JSONObject(objectText);
+            JSONArray wrapped = object.optJSONArray("steps");
+            if (wrapped != null) {
+                // {"steps": [...]} form: the steps only become available when the wrapper closes
+                for (int i = 0; i < wrapped.length(); i++) {
+                    steps.add(wrapped.getJSONObject(i));
+                }
+            } else {
+                steps.add(object);
+            }
+            if (firstStepAt == 0 && !steps.isEmpty()) {
+                firstStepAt = System.currentTimeMillis();
+            }
+            notifyAll();
+        } catch (Exception e) {
+            Log.w(TAG, "Skipping unparseable step: " + objectText);
+        }
+    }
+
+    @Override
+    public void onFunctionCall(String name, JSONObject args) {
+        // Plans come back as text; a tool call means the model didn't produce one
+        Log.w(TAG, "Unexpected function call while planning: " + name);
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        finish();
+    }
+
+    @Override
+    public synchronized void onError(Exception e) {
+        if (!complete) {
+            Log.e(TAG, "Plan stream failed", e);
+            failed = true;
+        }
+        finish();
+    }
+
+    private void finish() {
+        if (complete) return;
+        complete = true;
+        notifyAll();
+        onFinished();
+    }
+
+    // Called once when the plan stops growing (completed, failed or cancelled)
+    protected void onFinished() {
+    }
+
+    // Step at index, waiting for it to stream in; null once the plan is complete without it
+    public synchronized JSONObject awaitStep(int index, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (index >= steps.size() && !complete) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return null;
+            TimeUnit.MILLISECONDS.timedWait(this, remaining);
+        }
+        return index < steps.size() ? steps.get(index) : null;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    // Made with of(): only as long as what was already known, the rest still has to be planned
+    public synchronized boolean isLocal() {
+        return local;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    public synchronized int getStepCount() {
+        return steps.size();
+    }
+
+    public synchronized String getText() {
+        return text.toString();
+    }
+
+    // Time until the first step was usable (or until the stream ended without one)
+    public synchronized long getFirstStepLatencyMs() {
+        return (firstStepAt != 0 ? firstStepAt : System.currentTimeMillis()) - startedAt;
+    }
+
+    // Stop streaming (plan replaced after a failure, or task finished early)
+    public void cancel() {
+        Call current = call;
+        if (current != null) {
+            current.cancel();
+        }
+        PlanStream next = continuation;
+        if (next != null) {
+            next.cancel();
+        }
+        synchronized (this) {
+            finish();
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.nexhacks.tapmate.agents;
 
+import com.nexhacks.tapmate.gemini.GeminiClient;
+import com.nexhacks.tapmate.gemini.ResponseCache;
 import com.nexhacks.tapmate.utils.Config;
-import org.json.JSONArray;
+import com.nexhacks.tapmate.utils.HttpStack;
+import com.nexhacks.tapmate.utils.JsonCodec;
 import org.json.JSONObject;
 import android.os.Handler;
 import android.util.Log;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -14,24 +20,21 @@ public class SearchAgent extends BaseAgent {
     private static final String TAG = "SearchAgent";
     private ExecutorService executorService;
     private OkHttpClient httpClient;
+    private GeminiClient geminiClient;
+    // useGeminiForSearch asks for 2-3 sentences; stop reading once that many have arrived
+    private static final int MAX_ANSWER_SENTENCES = 3;
     
     public SearchAgent(Handler mainHandler, AgentCallback callback,
                       ExecutorService executorService) {
         super(mainHandler, callback);
         this.executorService = executorService;
-        this.httpClient = new OkHttpClient();
+        this.httpClient = HttpStack.client(HttpStack.Profile.SEARCH);
+        this.geminiClient = new GeminiClient();
     }
-    
+
     @Override
-    public JSONArray getFunctionDeclarations() {
-        JSONArray funcs = new JSONArray();
-        
-        // google_search
-        funcs.put(createFunctionDeclaration("google_search",
-            "Search Google for information. Use this for weather, general searches, or any web queries.",
-            new String[]{"query"}, new String[]{"query"}));
-        
-        return funcs;
+    public void release() {
+        geminiClient.release();
     }
     
     @Override
@@ -125,32 +128,27 @@ public class SearchAgent extends BaseAgent {
             
             try (Response response = httpClient.newCall(request).execute()) {
                 if (response.isSuccessful() && response.body() != null) {
-                    String body = response.body().string();
-                    JSONObject json = new JSONObject(body);
+                    JsonCodec.SearchResults json = JsonCodec.readSerpApi(JsonCodec.reader(response.body().source()), 3);
                     
                     // Check for answer box first (for quick answers)
-                    if (json.has("answer_box")) {
-                        JSONObject answerBox = json.getJSONObject("answer_box");
-                        if (answerBox.has("answer")) {
-                            return answerBox.getString("answer");
-                        }
-                        if (answerBox.has("snippet")) {
-                            return answerBox.getString("snippet");
-                        }
+                    if (json.answer != null) {
+                        return json.answer;
+                    }
+                    if (json.answerSnippet != null) {
+                        return json.answerSnippet;
                     }
                     
                     // Get organic results
-                    JSONArray results = json.optJSONArray("organic_results");
-                    if (results != null && results.length() > 0) {
+                    if (!json.organic.isEmpty()) {
                         StringBuilder output = new StringBuilder();
                         output.append("Search results for '").append(query).append("':\n\n");
                         
-                        for (int i = 0; i < Math.min(3, results.length()); i++) {
-                            JSONObject result = results.getJSONObject(i);
+                        for (int i = 0; i < json.organic.size(); i++) {
+                            String[] result = json.organic.get(i);
                             output.append(i + 1).append(". ");
-                            output.append(result.getString("title")).append("\n");
-                            if (result.has("snippet")) {
-                                output.append(result.getString("snippet")).append("\n");
+                            output.append(result[0]).append("\n");
+                            if (result[1] != null) {
+                                output.append(result[1]).append("\n");
                             }
                             output.append("\n");
                         }
@@ -198,14 +196,12 @@ public class SearchAgent extends BaseAgent {
             
             try (Response response = httpClient.newCall(request).execute()) {
                 if (response.isSuccessful() && response.body() != null) {
-                    String body = response.body().string();
-                    JSONObject json = new JSONObject(body);
-                    
-                    JSONObject current = json.getJSONArray("current_condition").getJSONObject(0);
-                    String temp = current.getString("temp_F") + "°F (" + current.getString("temp_C") + "°C)";
-                    String condition = current.getJSONArray("weatherDesc").getJSONObject(0).getString("value");
-                    String humidity = current.getString("humidity") + "%";
-                    String windSpeed = current.getString("windspeedMiles") + " mph";
+                    // Only current_condition; the multi-day forecast is skipped unparsed
+                    JsonCodec.Weather current = JsonCodec.readWttrCurrent(JsonCodec.reader(response.body().source()));
+                    String temp = current.tempF + "°F (" + current.tempC + "°C)";
+                    String condition = current.condition;
+                    String humidity = current.humidity + "%";
+                    String windSpeed = current.windMph + " mph";
                     
                     return String.format("Weather in %s:\nTemperature: %s\nCondition: %s\nHumidity: %s\nWind: %s",
                         location, temp, condition, humidity, windSpeed);
@@ -223,41 +219,77 @@ public class SearchAgent extends BaseAgent {
     
     private String useGeminiForSearch(String query) {
         try {
-            // Use Gemini API to answer the question
+            // Use Gemini API to answer the question, streamed so we can answer as soon as
+            // the requested 2-3 sentences are in instead of waiting for the whole response
             String apiKey = Config.getGeminiApiKey();
-            String url = "https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:generateContent?key=" + apiKey;
+            String url = "https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:streamGenerateContent?alt=sse&key=" + apiKey;
             
-            JSONObject requestBody = new JSONObject();
-            JSONArray contents = new JSONArray();
-            JSONObject content = new JSONObject();
-            JSONArray parts = new JSONArray();
-            JSONObject part = new JSONObject();
-            part.put("text", "Answer this question concisely in 2-3 sentences: " + query);
-            parts.put(part);
-            content.put("parts", parts);
-            contents.put(content);
-            requestBody.put("contents", contents);
-            
-            Request request = new Request.Builder()
-                .url(url)
-                .post(okhttp3.RequestBody.create(
-                    requestBody.toString(),
-                    okhttp3.MediaType.parse("application/json")))
-                .build();
+            String prompt = "Answer this question concisely in 2-3 sentences: " + query;
+
+            ResponseCache responseCache = geminiClient.getResponseCache();
+            String cacheKey = ResponseCache.key("gemini-pro", prompt);
+            ResponseCache.Entry cached = responseCache.get(ResponseCache.CallType.SEARCH, cacheKey);
+            if (cached != null) {
+                return new JSONObject(cached.argsJson).getString("text");
+            }
             
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (response.isSuccessful() && response.body() != null) {
-                    String body = response.body().string();
-                    JSONObject json = new JSONObject(body);
-                    JSONArray candidates = json.getJSONArray("candidates");
-                    if (candidates.length() > 0) {
-                        JSONObject candidate = candidates.getJSONObject(0);
-                        JSONObject contentObj = candidate.getJSONObject("content");
-                        JSONArray partsArray = contentObj.getJSONArray("parts");
-                        if (partsArray.length() > 0) {
-                            return partsArray.getJSONObject(0).getString("text");
+            final StringBuilder answer = new StringBuilder();
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AtomicBoolean failed = new AtomicBoolean(false);
+            // Only an answer streamed to the end is cached; one cut at enough sentences may be short
+            final AtomicBoolean completed = new AtomicBoolean(false);
+            final long start = System.currentTimeMillis();
+            okhttp3.Call call = geminiClient.stream(url, JsonCodec.writeTextRequest(prompt), "search",
+                new GeminiClient.StreamCallback() {
+                    @Override
+                    public void onTextDelta(String text) {
+                        synchronized (answer) {
+                            if (answer.length() == 0) {
+                                Log.d(TAG, "First search answer tokens after " + (System.currentTimeMillis() - start) + "ms");
+                            }
+                            answer.append(text);
+                            if (countSentences(answer) >= MAX_ANSWER_SENTENCES) {
+                                latch.countDown();
+                            }
                         }
                     }
+                    
+                    @Override
+                    public void onFunctionCall(String name, JSONObject args) {
+                    }
+                    
+                    @Override
+                    public void onComplete() {
+                        completed.set(true);
+                        latch.countDown();
+                    }
+                    
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Error streaming Gemini answer", e);
+                        failed.set(true);
+                        latch.countDown();
+                    }
+                });
+            
+            // False on timeout: whatever arrived is still returned, but it may be cut short
+            boolean released = latch.await(30, TimeUnit.SECONDS);
+            // Read before cancelling: the cancel itself is reported as an error
+            boolean streamFailed = failed.get();
+            boolean streamCompleted = completed.get();
+            // Enough sentences (or done): stop the stream, we won't read the rest
+            call.cancel();
+            if (!released) {
+                Log.w(TAG, "Search answer timed out after " + (System.currentTimeMillis() - start) + "ms, not caching it");
+            }
+            synchronized (answer) {
+                if (answer.length() > 0) {
+                    String text = answer.toString().trim();
+                    if (released && streamCompleted && !streamFailed) {
+                        responseCache.put(ResponseCache.CallType.SEARCH, cacheKey, "text_response",
+                            new JSONObject().put("text", text).toString());
+                    }
+                    return text;
                 }
             }
             
@@ -268,4 +300,36 @@ public class SearchAgent extends BaseAgent {
             return "Search error: " + e.getMessage();
         }
     }
+    
+    // Abbreviations whose '.' doesn't end a sentence (single letters, as in "U.S." or initials, also don't)
+    private static final java.util.Set<String> ABBREVIATIONS = new java.util.HashSet<>(java.util.Arrays.asList(
+        "mr", "mrs", "ms", "dr", "st", "jr", "sr", "vs", "etc", "approx", "no", "mt", "ft"));
+
+    // Terminators followed by whitespace; one at the end of the text so far may still be
+    // part of a number ("3." of "3.5") or an abbreviation, so it isn't counted yet
+    private static int countSentences(CharSequence text) {
+        int sentences = 0;
+        for (int i = 0; i + 1 < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c == '.' || c == '!' || c == '?') && Character.isWhitespace(text.charAt(i + 1))
+                && !(c == '.' && isAbbreviation(text, i))) {
+                sentences++;
+            }
+        }
+        return sentences;
+    }
+
+    // Whether the word ending at the '.' at dot is an abbreviation
+    private static boolean isAbbreviation(CharSequence text, int dot) {
+        int start = dot;
+        while (start > 0 && (Character.isLetter(text.charAt(start - 1)) || text.charAt(start - 1) == '.')) {
+            start--;
+        }
+        String word = text.subSequence(start, dot).toString();
+        // "U.S", "e.g", "A": dotted or single-letter words
+        if (word.length() == 1 || word.indexOf('.') >= 0) {
+            return true;
+        }
+        return ABBREVIATIONS.contains(word.toLowerCase(java.util.Locale.ROOT));
+    }
 }
@@ -0,0 +1,126 @@
+package com.nexhacks.tapmate.agents;
+
+import com.nexhacks.tapmate.accessibility.ScreenFingerprint;
+import com.nexhacks.tapmate.gemini.GeminiClient;
+import com.nexhacks.tapmate.gemini.ResponseCache;
+import com.nexhacks.tapmate.gemini.SingleFlight;
+import com.nexhacks.tapmate.gemini.PromptBuilder;
+import org.json.JSONObject;
+import android.util.Log;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs the post-action analysis call against a predicted screen while the UI is still
+// settling. The answer is only committed if the real snapshot has the same fingerprint.
+public class SpeculativeAnalyzer {
+    private static final String TAG = "SpeculativeAnalyzer";
+    private final GeminiClient geminiClient;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedMs = new AtomicLong();
+
+    public SpeculativeAnalyzer(GeminiClient geminiClient) {
+        this.geminiClient = geminiClient;
+    }
+
+    public static class Speculation {
+        final long fingerprint;
+        final long startedAt;
+        volatile long finishedAt;
+        final AtomicReference<String> resultRef = new AtomicReference<>(null);
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile SingleFlight.Waiter waiter;
+
+        Speculation(long fingerprint) {
+            this.fingerprint = fingerprint;
+            this.startedAt = System.currentTimeMillis();
+        }
+    }
+
+    // Fire the analysis call for the predicted screen; returns immediately
+    public Speculation launch(PromptBuilder.Prompt analysisPrompt, String predictedScreenJson) {
+        Speculation spec = new Speculation(ScreenFingerprint.of(predictedScreenJson));
+        spec.waiter = geminiClient.queryAgent(analysisPrompt, ResponseCache.CallType.ANALYSIS, new GeminiClient.GeminiCallback() {
+            @Override
+            public void onResponse(String toolName, JSONObject toolArgs) {
+                spec.resultRef.set(toolArgs.optString("text", "CONTINUE"));
+                spec.finishedAt = System.currentTimeMillis();
+                spec.latch.countDown();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.w(TAG, "Speculative analysis failed", e);
+                spec.finishedAt = System.currentTimeMillis();
+                spec.latch.countDown();
+            }
+        });
+        return spec;
+    }
+
+    // Returns the speculative answer if it was computed for the same screen the real
+    // snapshot shows, or null if the caller has to run a fresh analysis
+    public String resolve(Speculation spec, String realScreenJson) {
+        if (spec == null) {
+            return null;
+        }
+        long snapshotAt = System.currentTimeMillis();
+        if (spec.fingerprint != ScreenFingerprint.of(realScreenJson)) {
+            misses.incrementAndGet();
+            Log.d(TAG, "Speculation discarded: screen changed after prediction");
+            // Drops the HTTP call too unless the real analysis joined it
+            SingleFlight.Waiter waiter = spec.waiter;
+            if (waiter != null) {
+                waiter.cancel();
+            }
+            return null;
+        }
+
+        try {
+            spec.latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        String result = spec.resultRef.get();
+        if (result == null) {
+            // Speculative call errored out, fall back to a fresh call
+            misses.incrementAndGet();
+            return null;
+        }
+
+        // Without speculation the call would have run from snapshotAt for the same duration
+        long duration = spec.finishedAt - spec.startedAt;
+        long saved = (snapshotAt + duration) - Math.max(snapshotAt, spec.finishedAt);
+        hits.incrementAndGet();
+        savedMs.addAndGet(Math.max(0, saved));
+        Log.d(TAG, "Speculation committed, saved " + saved + "ms");
+        return result;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    public long getLatencySavedMs() {
+        return savedMs.get();
+    }
+
+    public String getStats() {
+        return "hits=" + hits.get() + ", misses=" + misses.get() +
+            ", hitRate=" + String.format(java.util.Locale.US, "%.2f", getHitRate()) +
+            ", latencySavedMs=" + savedMs.get();
+    }
+}
@@ -0,0 +1,101 @@
+package com.nexhacks.tapmate.audio;
+
+// Sits between AudioRecord and the Live client and turns whatever the device hands back from
+// read() into fixed-size frames, so the message rate is a setting instead of a side effect of
+// getMinBufferSize. Short frames mean lower latency, long frames fewer messages (and less
+// per-message JSON/WebSocket overhead). A partial frame is sent anyway once its oldest sample
+// has waited maxHoldMs. Used from the capture thread only.
+public class AudioFramePacer {
+
+    public interface FrameSink {
+        // pcm is the pacer's own buffer and is reused once this returns
+        void onFrame(byte[] pcm, int offset, int length);
+    }
+
+    private final FrameSink sink;
+    private final byte[] frame;
+    private final long maxHoldNanos;
+    private final int bytesPerMs;
+    private int filled;
+    // When the oldest pending byte was captured
+    private long pendingSince;
+
+    private long firstFrameAt;
+    private long lastFrameAt;
+    private long frames;
+    private long partialFrames;
+    private long sendNanos;
+    private long maxSendNanos;
+
+    public AudioFramePacer(int sampleRate, int bytesPerSample, int frameMs, int maxHoldMs, FrameSink sink) {
+        this.sink = sink;
+        this.bytesPerMs = sampleRate * bytesPerSample / 1000;
+        // Whole samples only, so a frame never splits one
+        int frameBytes = Math.max(1, frameMs) * bytesPerMs;
+        this.frame = new byte[frameBytes - frameBytes % bytesPerSample];
+        this.maxHoldNanos = Math.max(frameMs, maxHoldMs) * 1_000_000L;
+    }
+
+    public void write(byte[] pcm, int offset, int length) {
+        long now = System.nanoTime();
+        while (length > 0) {
+            if (filled == 0) {
+                // Back-date to when the first of these bytes was recorded
+                pendingSince = now - (long) length * 1_000_000L / bytesPerMs;
+            }
+            int n = Math.min(length, frame.length - filled);
+            System.arraycopy(pcm, offset, frame, filled, n);
+            filled += n;
+            offset += n;
+            length -= n;
+            if (filled == frame.length) {
+                emit(false);
+                // The rest of this read came in after the frame we just sent
+                now = System.nanoTime();
+            }
+        }
+        if (filled > 0 && now - pendingSince >= maxHoldNanos) {
+            emit(true);
+        }
+    }
+
+    // Sends whatever is pending, e.g. before stopping
+    public void flush() {
+        if (filled > 0) {
+            emit(true);
+        }
+    }
+
+    // Drops pending audio that should not be sent any more (paused, disconnected)
+    public void reset() {
+        filled = 0;
+    }
+
+    public int getFrameBytes() {
+        return frame.length;
+    }
+
+    private void emit(boolean partial) {
+        long start = System.nanoTime();
+        sink.onFrame(frame, 0, filled);
+        long end = System.nanoTime();
+        filled = 0;
+
+        long spent = end - start;
+        sendNanos += spent;
+        if (spent > maxSendNanos) maxSendNanos = spent;
+        if (frames == 0) firstFrameAt = start;
+        lastFrameAt = start;
+        frames++;
+        if (partial) partialFrames++;
+    }
+
+    public String getStats() {
+        if (frames == 0) return "frames=0";
+        double seconds = (lastFrameAt - firstFrameAt) / 1e9;
+        String rate = seconds > 0 ? String.format("%.1f", (frames - 1) / seconds) : "-";
+        return "frameBytes=" + frame.length + ", frames=" + frames + " (" + partialFrames + " partial)" +
+            ", msgs/s=" + rate +
+            ", send avg=" + (sendNanos / frames / 1000) + "us max=" + (maxSendNanos / 1000) + "us";
+    }
+}
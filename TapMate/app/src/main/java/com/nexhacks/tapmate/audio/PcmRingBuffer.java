@@ -0,0 +1,93 @@
+package com.nexhacks.tapmate.audio;
+
+// Single-producer / single-consumer byte ring for PCM. The producer (WebSocket thread) only
+// moves the write position and the consumer (playback thread) only the read position, so
+// neither side locks. Positions are running byte counts; the index into the array is the
+// position masked by the power-of-two capacity. Both sides can work on the array in place.
+public class PcmRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private volatile long writePos;
+    private volatile long readPos;
+
+    public PcmRingBuffer(int capacityPowerOfTwo) {
+        if (Integer.bitCount(capacityPowerOfTwo) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacityPowerOfTwo);
+        }
+        this.buffer = new byte[capacityPowerOfTwo];
+        this.mask = capacityPowerOfTwo - 1;
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    // ---- Producer side
+
+    public int free() {
+        return buffer.length - (int) (writePos - readPos);
+    }
+
+    public int writeIndex() {
+        return (int) (writePos & mask);
+    }
+
+    // Free bytes from writeIndex() up to the end of the array (or the reader)
+    public int contiguousFree() {
+        return Math.min(free(), buffer.length - writeIndex());
+    }
+
+    // Publishes n bytes written at writeIndex() (wrapping past the end is the caller's job)
+    public void commit(int n) {
+        writePos += n;
+    }
+
+    // Copies as much of src as fits; returns the bytes taken
+    public int write(byte[] src, int offset, int length) {
+        int n = Math.min(length, free());
+        int index = writeIndex();
+        int first = Math.min(n, buffer.length - index);
+        System.arraycopy(src, offset, buffer, index, first);
+        System.arraycopy(src, offset + first, buffer, 0, n - first);
+        writePos += n;
+        return n;
+    }
+
+    public long writePosition() {
+        return writePos;
+    }
+
+    // ---- Consumer side
+
+    public int available() {
+        return (int) (writePos - readPos);
+    }
+
+    public int readIndex() {
+        return (int) (readPos & mask);
+    }
+
+    // Readable bytes from readIndex() up to the end of the array (or the writer)
+    public int contiguousAvailable() {
+        return Math.min(available(), buffer.length - readIndex());
+    }
+
+    public void advance(int n) {
+        readPos += n;
+    }
+
+    // Drops everything before position (a producer-side writePosition()), never newer data
+    public void discardTo(long position) {
+        if (position > readPos) {
+            readPos = Math.min(position, writePos);
+        }
+    }
+
+    public long readPosition() {
+        return readPos;
+    }
+}
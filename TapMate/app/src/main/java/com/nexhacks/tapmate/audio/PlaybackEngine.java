@@ -0,0 +1,307 @@
+package com.nexhacks.tapmate.audio;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays the model's 16-bit mono PCM. The WebSocket thread only copies audio into a lock-free
+// ring and returns; one URGENT_AUDIO thread owns the AudioTrack and feeds it from the ring.
+// Each turn starts after a small jitter buffer has filled; when the ring runs dry mid-turn
+// (an underrun) playback re-buffers and the target grows, and it shrinks again after clean
+// turns. Speech is over when the turn has ended and the track's playback head has reached the
+// last frame written, not after an estimated duration.
+public class PlaybackEngine {
+    private static final String TAG = "PlaybackEngine";
+
+    public interface Listener {
+        // Called on the playback thread
+        void onSpeechStart();
+        void onSpeechEnd();
+    }
+
+    // ~21 s at 24 kHz; the model sends faster than real time
+    private static final int RING_BYTES = 1 << 20;
+    private static final int WRITE_CHUNK_MS = 20;
+    private static final int MIN_JITTER_MS = 40;
+    private static final int MAX_JITTER_MS = 300;
+    private static final int START_JITTER_MS = 80;
+    private static final int JITTER_STEP_UP_MS = 40;
+    private static final int JITTER_STEP_DOWN_MS = 10;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long POLL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long HEAD_STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+
+    private final PcmRingBuffer ring = new PcmRingBuffer(RING_BYTES);
+    private final int sampleRate;
+    private final int bytesPerMs;
+    private final Listener listener;
+    private AudioTrack audioTrack;
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean muted;
+
+    // Producer-side markers, as ring write positions
+    private volatile long turnEndAt = -1;
+    private final AtomicLong flushTo = new AtomicLong(-1);
+
+    // Playback thread state
+    private boolean speaking;
+    private boolean playing;
+    private long bufferingSince;
+    private long framesWritten;
+    private boolean underrunThisTurn;
+    private long lastHead;
+    private long lastHeadMoved;
+    private volatile int jitterMs = START_JITTER_MS;
+
+    private volatile long turns;
+    private volatile long underruns;
+    private volatile long droppedBytes;
+    private volatile int maxBufferedMs;
+
+    public PlaybackEngine(int sampleRate, Listener listener) {
+        this.sampleRate = sampleRate;
+        this.bytesPerMs = sampleRate * 2 / 1000;
+        this.listener = listener;
+    }
+
+    // Creates the track and starts the playback thread; false if the track can't be created
+    public boolean start() {
+        int minBuffer = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer == AudioTrack.ERROR_BAD_VALUE || minBuffer == AudioTrack.ERROR) {
+            Log.e(TAG, "Invalid buffer size for AudioTrack");
+            return false;
+        }
+        // The jitter buffer lives in the ring; the track only needs enough to ride out scheduling
+        audioTrack = new AudioTrack.Builder()
+            .setAudioAttributes(new AudioAttributes.Builder()
+                // Voice-communication usage so the echo canceller uses this track as its reference
+                .setUsage(AudioAttributes.USAGE_VOICE_COMMUNICATION)
+                .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                .build())
+            .setAudioFormat(new AudioFormat.Builder()
+                .setSampleRate(sampleRate)
+                .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                .build())
+            .setBufferSizeInBytes(minBuffer * 2)
+            .setTransferMode(AudioTrack.MODE_STREAM)
+            .build();
+        if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+            Log.e(TAG, "AudioTrack initialization failed, state: " + audioTrack.getState());
+            audioTrack.release();
+            audioTrack = null;
+            return false;
+        }
+        audioTrack.play();
+        running = true;
+        thread = new Thread(this::run, "TapMate-playback");
+        thread.start();
+        return true;
+    }
+
+    // ---- WebSocket thread
+
+    // Queues PCM for playback; never blocks
+    public void enqueue(byte[] pcm, int offset, int length) {
+        if (muted) return;
+        // Keep samples aligned if a chunk ever comes with an odd length
+        length -= length & 1;
+        int written = ring.write(pcm, offset, length);
+        if (written < length) {
+            droppedBytes += length - written;
+            Log.w(TAG, "Playback ring full, dropped " + (length - written) + " bytes");
+        }
+        wake();
+    }
+
+    // While muted incoming audio is discarded (flush() drops what is already queued)
+    public void setMuted(boolean muted) {
+        this.muted = muted;
+    }
+    
+    public boolean isMuted() {
+        return muted;
+    }
+    
+    // The ring, for writers that decode straight into its free space; call wake() after commit
+    public PcmRingBuffer ring() {
+        return ring;
+    }
+
+    // The model finished its turn: play out what is queued, then report the end of speech
+    public void endOfTurn() {
+        turnEndAt = ring.writePosition();
+        wake();
+    }
+
+    // Drops everything queued so far (the user interrupted); audio enqueued later still plays
+    public void flush() {
+        long position = ring.writePosition();
+        turnEndAt = position;
+        flushTo.set(position);
+        wake();
+    }
+
+    public void wake() {
+        Thread playbackThread = thread;
+        if (playbackThread != null) {
+            LockSupport.unpark(playbackThread);
+        }
+    }
+
+    public void release() {
+        running = false;
+        Thread playbackThread = thread;
+        if (playbackThread != null) {
+            if (audioTrack != null) {
+                // Returns a blocked write() right away
+                audioTrack.pause();
+            }
+            LockSupport.unpark(playbackThread);
+            try {
+                playbackThread.join(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        if (audioTrack != null) {
+            try {
+                audioTrack.stop();
+            } catch (IllegalStateException e) {
+                // never started
+            }
+            audioTrack.release();
+            audioTrack = null;
+        }
+    }
+
+    // ---- Playback thread
+
+    private void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+        int chunkBytes = WRITE_CHUNK_MS * bytesPerMs;
+        while (running) {
+            applyFlush();
+            int available = ring.available();
+            boolean turnEnded = turnEndAt >= ring.writePosition();
+
+            if (available == 0) {
+                if (!speaking) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                // The ring is empty but the track may still be playing what it holds
+                if (trackDrained()) {
+                    if (turnEnded) {
+                        endSpeech();
+                    } else if (playing) {
+                        // Audible gap mid-turn: wait for a bigger cushion before resuming
+                        underruns++;
+                        underrunThisTurn = true;
+                        jitterMs = Math.min(MAX_JITTER_MS, jitterMs + JITTER_STEP_UP_MS);
+                        playing = false;
+                        bufferingSince = System.nanoTime();
+                    }
+                }
+                LockSupport.parkNanos(POLL_PARK_NANOS);
+                continue;
+            }
+
+            if (!playing) {
+                long now = System.nanoTime();
+                if (bufferingSince == 0) {
+                    bufferingSince = now;
+                }
+                int target = jitterMs;
+                long waitedMs = (now - bufferingSince) / 1_000_000L;
+                if (available < target * bytesPerMs && !turnEnded && waitedMs < target) {
+                    LockSupport.parkNanos(POLL_PARK_NANOS);
+                    continue;
+                }
+                playing = true;
+                bufferingSince = 0;
+                if (!speaking) {
+                    speaking = true;
+                    turns++;
+                    underrunThisTurn = false;
+                    if (listener != null) listener.onSpeechStart();
+                }
+            }
+
+            int bufferedMs = available / bytesPerMs;
+            if (bufferedMs > maxBufferedMs) maxBufferedMs = bufferedMs;
+            int n = Math.min(chunkBytes, ring.contiguousAvailable());
+            int written = audioTrack.write(ring.array(), ring.readIndex(), n, AudioTrack.WRITE_BLOCKING);
+            if (written < 0) {
+                Log.e(TAG, "Error writing audio data, code: " + written);
+                LockSupport.parkNanos(POLL_PARK_NANOS);
+                continue;
+            }
+            ring.advance(written);
+            framesWritten += written / 2;
+            lastHeadMoved = System.nanoTime();
+        }
+    }
+
+    private void applyFlush() {
+        long target = flushTo.getAndSet(-1);
+        if (target < 0 || target <= ring.readPosition() && !speaking) return;
+        ring.discardTo(target);
+        audioTrack.pause();
+        audioTrack.flush();
+        audioTrack.play();
+        // Whatever was in the track is gone; count from where its head is now
+        framesWritten = playbackHead();
+        if (speaking) {
+            endSpeech();
+        }
+        playing = false;
+        bufferingSince = 0;
+    }
+
+    private void endSpeech() {
+        speaking = false;
+        playing = false;
+        bufferingSince = 0;
+        if (!underrunThisTurn) {
+            jitterMs = Math.max(MIN_JITTER_MS, jitterMs - JITTER_STEP_DOWN_MS);
+        }
+        if (listener != null) listener.onSpeechEnd();
+    }
+
+    // Everything written has been played. A head that stops short of the last frame for
+    // HEAD_STALL_NANOS (some devices never report the final few frames) counts as drained too.
+    private boolean trackDrained() {
+        long head = playbackHead();
+        long now = System.nanoTime();
+        if (head != lastHead) {
+            lastHead = head;
+            lastHeadMoved = now;
+        }
+        return head >= framesWritten || now - lastHeadMoved > HEAD_STALL_NANOS;
+    }
+
+    // Frames played so far; the head position is an unsigned 32-bit counter
+    private long playbackHead() {
+        long head = audioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+        // Wrapped (after ~50 h at 24 kHz): keep it comparable with framesWritten
+        while (head + (1L << 32) <= framesWritten) {
+            head += 1L << 32;
+        }
+        return head;
+    }
+
+    public String getStats() {
+        AudioTrack track = audioTrack;
+        int trackUnderruns = track != null ? track.getUnderrunCount() : 0;
+        return "turns=" + turns + ", underruns=" + underruns + " (track " + trackUnderruns + ")" +
+            ", jitterBuffer=" + jitterMs + "ms, maxBuffered=" + maxBufferedMs + "ms, dropped=" + droppedBytes + "B";
+    }
+}
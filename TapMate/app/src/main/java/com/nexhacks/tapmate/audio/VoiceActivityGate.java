@@ -0,0 +1,167 @@
+package com.nexhacks.tapmate.audio;
+
+// Energy + zero-crossing voice activity detection on paced mic frames (16-bit LE mono PCM).
+// Only speech reaches the uplink: a frame counts as speech when it is well above the tracked
+// noise floor and doesn't look like hiss, activity starts after onsetMs of speech and ends
+// after hangoverMs without it. The last preRollMs of audio is kept while idle and sent right
+// after activityStart so the first syllable isn't clipped. Used from the capture thread only.
+public class VoiceActivityGate implements AudioFramePacer.FrameSink {
+
+    public interface Uplink {
+        void onActivityStart();
+        void onAudio(byte[] pcm, int offset, int length);
+        void onActivityEnd();
+    }
+
+    // Speech must be this far above the noise floor...
+    private static final double SPEECH_MARGIN_DB = 12;
+    // ...and above this in absolute terms (quiet room noise on phone mics is around -60 dBFS)
+    private static final double MIN_SPEECH_DBFS = -50;
+    // Loud frames are speech whatever their zero-crossing rate
+    private static final double LOUD_MARGIN_DB = 24;
+    // Hiss and fans cross zero far more often than voiced speech
+    private static final double MAX_SPEECH_ZCR = 0.35;
+    // Floor follows quieter frames quickly and louder ones slowly
+    private static final double FLOOR_FALL = 0.3;
+    private static final double FLOOR_RISE = 0.02;
+    // and creeps up under "speech" too, so a lasting jump in background noise can't hold
+    // the gate open; the gaps between words pull it back down
+    private static final double FLOOR_CREEP = 0.005;
+    private static final double SILENCE_DBFS = -96;
+
+    private final Uplink uplink;
+    private final int bytesPerMs;
+    private final int onsetMs;
+    private final int hangoverMs;
+
+    // Pre-roll ring of the most recent idle audio (plus the onset frames)
+    private final byte[] ring;
+    private int ringStart;
+    private int ringLength;
+
+    private double noiseFloorDb = Double.NaN;
+    private boolean active;
+    private int speechMs;
+    private int silenceMs;
+
+    private long frames;
+    private long capturedBytes;
+    private long sentBytes;
+    private long utterances;
+
+    public VoiceActivityGate(int sampleRate, int preRollMs, int onsetMs, int hangoverMs, Uplink uplink) {
+        this.uplink = uplink;
+        this.bytesPerMs = sampleRate * 2 / 1000;
+        this.onsetMs = onsetMs;
+        this.hangoverMs = hangoverMs;
+        this.ring = new byte[(preRollMs + onsetMs) * bytesPerMs];
+    }
+
+    @Override
+    public void onFrame(byte[] pcm, int offset, int length) {
+        frames++;
+        capturedBytes += length;
+        int frameMs = Math.max(1, length / bytesPerMs);
+        boolean speech = isSpeech(pcm, offset, length);
+
+        if (active) {
+            uplink.onAudio(pcm, offset, length);
+            sentBytes += length;
+            silenceMs = speech ? 0 : silenceMs + frameMs;
+            if (silenceMs >= hangoverMs) {
+                active = false;
+                speechMs = 0;
+                uplink.onActivityEnd();
+            }
+            return;
+        }
+
+        remember(pcm, offset, length);
+        speechMs = speech ? speechMs + frameMs : 0;
+        if (speechMs >= onsetMs) {
+            active = true;
+            silenceMs = 0;
+            utterances++;
+            uplink.onActivityStart();
+            // Pre-roll and onset frames, oldest first; the ring wraps at most once
+            int first = Math.min(ringLength, ring.length - ringStart);
+            uplink.onAudio(ring, ringStart, first);
+            if (ringLength > first) {
+                uplink.onAudio(ring, 0, ringLength - first);
+            }
+            sentBytes += ringLength;
+            ringStart = 0;
+            ringLength = 0;
+        }
+    }
+
+    // Ends an utterance in progress and forgets held audio (capture paused or stopping)
+    public void reset() {
+        if (active) {
+            active = false;
+            uplink.onActivityEnd();
+        }
+        speechMs = 0;
+        silenceMs = 0;
+        ringStart = 0;
+        ringLength = 0;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    private boolean isSpeech(byte[] pcm, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) return false;
+        double sumSquares = 0;
+        int crossings = 0;
+        int previous = 0;
+        for (int i = 0; i < samples; i++) {
+            int p = offset + i * 2;
+            int sample = (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8));
+            sumSquares += (double) sample * sample;
+            if (i > 0 && (sample >= 0) != (previous >= 0)) crossings++;
+            previous = sample;
+        }
+        double rms = Math.sqrt(sumSquares / samples);
+        double db = rms > 0 ? 20 * Math.log10(rms / 32768.0) : SILENCE_DBFS;
+        double zcr = (double) crossings / samples;
+
+        if (Double.isNaN(noiseFloorDb)) {
+            noiseFloorDb = db;
+        }
+        boolean speech = db > MIN_SPEECH_DBFS && db > noiseFloorDb + SPEECH_MARGIN_DB
+            && (zcr < MAX_SPEECH_ZCR || db > noiseFloorDb + LOUD_MARGIN_DB);
+        double rate = speech ? FLOOR_CREEP : db < noiseFloorDb ? FLOOR_FALL : FLOOR_RISE;
+        noiseFloorDb += (db - noiseFloorDb) * rate;
+        return speech;
+    }
+
+    private void remember(byte[] pcm, int offset, int length) {
+        if (length >= ring.length) {
+            System.arraycopy(pcm, offset + length - ring.length, ring, 0, ring.length);
+            ringStart = 0;
+            ringLength = ring.length;
+            return;
+        }
+        // Drop the oldest bytes to make room
+        int overflow = ringLength + length - ring.length;
+        if (overflow > 0) {
+            ringStart = (ringStart + overflow) % ring.length;
+            ringLength -= overflow;
+        }
+        int end = (ringStart + ringLength) % ring.length;
+        int first = Math.min(length, ring.length - end);
+        System.arraycopy(pcm, offset, ring, end, first);
+        System.arraycopy(pcm, offset + first, ring, 0, length - first);
+        ringLength += length;
+    }
+
+    public String getStats() {
+        return "frames=" + frames + ", audio sent=" + (sentBytes / bytesPerMs) + "ms of " + (capturedBytes / bytesPerMs) + "ms" +
+            (capturedBytes > 0 ? " (" + ((capturedBytes - sentBytes) * 100 / capturedBytes) + "% suppressed)" : "") +
+            ", utterances=" + utterances +
+            ", noiseFloor=" + (Double.isNaN(noiseFloorDb) ? "-" : String.format("%.0fdBFS", noiseFloorDb));
+    }
+}
@@ -0,0 +1,97 @@
+package com.nexhacks.tapmate.gemini;
+
+import com.nexhacks.tapmate.audio.PcmRingBuffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Downlink counterpart of AudioFrameEncoder. Base64-decodes the audio "data" strings that
+// ServerMessageDecoder finds in a raw server frame straight into the playback ring's free
+// space, without a String or byte[] per chunk. Used on the WebSocket thread only.
+public class AudioFrameDecoder {
+    // Base64 value per ASCII byte; SKIP for JSON escapes and whitespace, INVALID otherwise
+    private static final int INVALID = -1;
+    private static final int SKIP = -2;
+    private static final int[] DECODE = new int[128];
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = i;
+        }
+        DECODE['\\'] = SKIP;
+        DECODE[' '] = SKIP;
+        DECODE['\n'] = SKIP;
+        DECODE['\r'] = SKIP;
+    }
+
+    private long droppedBytes;
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    // Decodes the Base64 text at [start, end) of frame into the ring; returns the PCM bytes
+    // published, or -1 when the chunk didn't fit and was dropped (counted), never partially
+    // wrapped.
+    public int decodeInto(ByteBuffer frame, int start, int end, PcmRingBuffer ring) {
+        // Only whole chunks go in
+        int needed = maxDecodedLength(start, end);
+        if (needed > ring.free()) {
+            droppedBytes += needed;
+            return -1;
+        }
+        int out = decode(frame, start, end, ring.array(), ring.writeIndex(), ring.capacity() - 1);
+        ring.commit(out);
+        return out;
+    }
+
+    // The decoded chunk as a new array, for callers without a playback ring
+    public byte[] decode(ByteBuffer frame, int start, int end) {
+        byte[] pcm = new byte[maxDecodedLength(start, end)];
+        int n = decode(frame, start, end, pcm, 0, -1);
+        return n == pcm.length ? pcm : Arrays.copyOf(pcm, n);
+    }
+
+    // Upper bound of the decoded size (unpadded text included)
+    private static int maxDecodedLength(int start, int end) {
+        return (end - start + 3) / 4 * 3;
+    }
+
+    // Decodes into dst from writeIndex on, wrapping with mask (-1 for a flat array); returns
+    // the bytes written, whole 16-bit samples only
+    private static int decode(ByteBuffer frame, int start, int end, byte[] dst, int writeIndex, int mask) {
+        int out = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            int c = frame.get(i);
+            if (c < 0) continue;
+            int value = DECODE[c];
+            if (value < 0) {
+                // '=' padding ends the data; escapes and whitespace are skipped
+                if (c == '=') break;
+                continue;
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                dst[(writeIndex + out) & mask] = (byte) (bits >> 16);
+                dst[(writeIndex + out + 1) & mask] = (byte) (bits >> 8);
+                dst[(writeIndex + out + 2) & mask] = (byte) bits;
+                out += 3;
+                bits = 0;
+                count = 0;
+            }
+        }
+        // Trailing group before padding: 2 chars -> 1 byte, 3 chars -> 2 bytes
+        if (count == 2) {
+            dst[(writeIndex + out) & mask] = (byte) (bits >> 4);
+            out += 1;
+        } else if (count == 3) {
+            dst[(writeIndex + out) & mask] = (byte) (bits >> 10);
+            dst[(writeIndex + out + 1) & mask] = (byte) (bits >> 2);
+            out += 2;
+        }
+        return out - (out & 1);
+    }
+}
@@ -0,0 +1,85 @@
+package com.nexhacks.tapmate.gemini;
+
+import java.nio.charset.StandardCharsets;
+import okio.ByteString;
+
+// Builds the realtimeInput audio message for a PCM chunk without going through JSONObject,
+// Base64 Strings or String serialization: a fixed JSON prefix, the Base64 text written
+// straight into a reused byte buffer, then the suffix. Owned by the capture thread; the
+// only per-frame allocation is the ByteString handed to the WebSocket, which it keeps
+// queued until it is written.
+public class AudioFrameEncoder {
+    private static final byte[] PREFIX =
+        "{\"realtimeInput\":{\"audio\":{\"mimeType\":\"audio/pcm;rate=16000\",\"data\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUFFIX = "\"}}}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buffer = new byte[0];
+    private int length;
+
+    // Encodes pcm[offset, offset + count) into the frame buffer; returns the frame length
+    public int encode(byte[] pcm, int offset, int count) {
+        int size = PREFIX.length + base64Length(count) + SUFFIX.length;
+        if (buffer.length < size) {
+            // Grows to the largest chunk seen, then stays
+            byte[] grown = new byte[size];
+            System.arraycopy(PREFIX, 0, grown, 0, PREFIX.length);
+            buffer = grown;
+        }
+        int pos = base64(pcm, offset, count, buffer, PREFIX.length);
+        System.arraycopy(SUFFIX, 0, buffer, pos, SUFFIX.length);
+        length = pos + SUFFIX.length;
+        return length;
+    }
+
+    // The last encoded frame, copied once into the payload the WebSocket queues
+    public ByteString frame() {
+        return ByteString.of(buffer, 0, length);
+    }
+
+    // Valid until the next encode()
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    static int base64Length(int count) {
+        return (count + 2) / 3 * 4;
+    }
+
+    // Standard Base64 with padding, no line breaks; returns the position after the output
+    static int base64(byte[] src, int offset, int count, byte[] dst, int pos) {
+        int end = offset + count - count % 3;
+        int i = offset;
+        while (i < end) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[pos] = ALPHABET[bits >>> 18];
+            dst[pos + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[pos + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+            dst[pos + 3] = ALPHABET[bits & 0x3f];
+            i += 3;
+            pos += 4;
+        }
+        int remaining = count % 3;
+        if (remaining == 1) {
+            int bits = (src[i] & 0xff) << 16;
+            dst[pos] = ALPHABET[bits >>> 18];
+            dst[pos + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[pos + 2] = '=';
+            dst[pos + 3] = '=';
+            pos += 4;
+        } else if (remaining == 2) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8;
+            dst[pos] = ALPHABET[bits >>> 18];
+            dst[pos + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+            dst[pos + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+            dst[pos + 3] = '=';
+            pos += 4;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,98 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.Log;
+
+// Fails requests fast while an endpoint is unhealthy. After failureThreshold consecutive
+// failures the breaker opens for openMs; then a single probe request is let through and
+// its outcome closes the breaker again or re-opens it.
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // What allow() granted: PROBE is the single half-open trial request, which must end in
+    // onSuccess(), onFailure() or releaseProbe()
+    public enum Permit { REJECTED, ALLOWED, PROBE }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    private boolean probeInFlight = false;
+    private int rejected = 0;
+    private int trips = 0;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    // False if the request should fail fast without touching the network
+    public boolean allowRequest() {
+        return allow() != Permit.REJECTED;
+    }
+
+    public synchronized Permit allow() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMs) {
+                rejected++;
+                return Permit.REJECTED;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                rejected++;
+                return Permit.REJECTED;
+            }
+            probeInFlight = true;
+            return Permit.PROBE;
+        }
+        return Permit.ALLOWED;
+    }
+
+    // The probe was cancelled before it had an outcome: let the next request probe instead
+    public synchronized void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            Log.i(TAG, name + ": endpoint recovered, closing");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            Log.w(TAG, name + ": " + consecutiveFailures + " consecutive failures, failing fast for " + openMs + "ms");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            probeInFlight = false;
+            trips++;
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized String getStats() {
+        return "state=" + state + ", consecutiveFailures=" + consecutiveFailures +
+            ", trips=" + trips + ", rejected=" + rejected;
+    }
+}
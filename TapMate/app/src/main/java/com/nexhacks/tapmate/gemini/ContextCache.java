@@ -0,0 +1,244 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.Log;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+// Server-side cache of the static part of every agent request (system instruction + tool
+// declarations). Once created, requests reference it by name and carry only the prompt.
+// Creation and TTL renewal happen in the background; until a handle is ready (or if the
+// model/prefix can't be cached) callers get null and send the full inline payload.
+public class ContextCache {
+    private static final String TAG = "ContextCache";
+
+    static final long TTL_SECONDS = 3600;
+    // Renew this long before the server would drop the cache
+    static final long RENEW_MARGIN_MS = 5 * 60 * 1000;
+    // After a failed create (e.g. prefix below the model's minimum cacheable size) don't retry for a while
+    static final long CREATE_BACKOFF_MS = 10 * 60 * 1000;
+
+    private static final MediaType JSON = MediaType.get("application/json");
+
+    public static class Handle {
+        final String name;
+        // {"cachedContent":"<name>","contents":[{"role":"user","parts":[{"text":"
+        final byte[] payloadPrefix;
+        volatile long expiresAt;
+
+        Handle(String name, long expiresAt) {
+            this.name = name;
+            this.expiresAt = expiresAt;
+            this.payloadPrefix = ("{\"cachedContent\":" + JSONObject.quote(name) +
+                ",\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"").getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final OkHttpClient client;
+    private final String apiBase;
+    private final String apiKey;
+    private final String model;
+    // "systemInstruction":{...},"tools":[...] - shared with the inline payload
+    private final String staticFields;
+
+    private volatile Handle handle;
+    private volatile long createBlockedUntil = 0;
+    // Set by release(): nothing is created after the session has stopped
+    private volatile boolean released = false;
+    private final AtomicBoolean creating = new AtomicBoolean(false);
+    private final AtomicBoolean renewing = new AtomicBoolean(false);
+
+    private final AtomicInteger cachedRequests = new AtomicInteger();
+    private final AtomicInteger inlineRequests = new AtomicInteger();
+    private final AtomicInteger creates = new AtomicInteger();
+    private final AtomicInteger renewals = new AtomicInteger();
+    private final AtomicInteger expiries = new AtomicInteger();
+
+    ContextCache(OkHttpClient client, String apiBase, String apiKey, String model, String staticFields) {
+        this.client = client;
+        this.apiBase = apiBase;
+        this.apiKey = apiKey;
+        this.model = model;
+        this.staticFields = staticFields;
+    }
+
+    // Handle to reference in the next request, or null to send inline. Never blocks.
+    public Handle acquire() {
+        Handle current = handle;
+        long now = System.currentTimeMillis();
+        if (current != null && now >= current.expiresAt) {
+            // Renewal didn't land in time; the server has (or is about to have) dropped it
+            Log.d(TAG, "Cached content " + current.name + " expired, re-creating");
+            expiries.incrementAndGet();
+            handle = null;
+            current = null;
+        }
+        if (current == null) {
+            createAsync();
+            inlineRequests.incrementAndGet();
+            return null;
+        }
+        if (now >= current.expiresAt - RENEW_MARGIN_MS) {
+            renewAsync(current);
+        }
+        cachedRequests.incrementAndGet();
+        return current;
+    }
+
+    // The server rejected a request that referenced this handle (cache gone); drop it so the
+    // next acquire() creates a fresh one
+    public void invalidate(Handle stale) {
+        if (stale != null && handle == stale) {
+            Log.w(TAG, "Cached content " + stale.name + " no longer valid, re-creating");
+            expiries.incrementAndGet();
+            handle = null;
+            createAsync();
+        }
+    }
+
+    // Delete the cached content so it doesn't live out its TTL (and storage cost) after the
+    // session stops; later requests are sent inline
+    public void release() {
+        released = true;
+        Handle current = handle;
+        handle = null;
+        if (current != null) {
+            deleteAsync(current.name);
+        }
+    }
+
+    // A non-2xx generateContent response caused by the referenced cache being gone
+    static boolean isCacheMiss(int code, String errorBody) {
+        if (code == 404) return true;
+        return (code == 400 || code == 403) && errorBody != null
+            && errorBody.toLowerCase(java.util.Locale.ROOT).contains("cachedcontent");
+    }
+
+    private void createAsync() {
+        if (released || System.currentTimeMillis() < createBlockedUntil || !creating.compareAndSet(false, true)) {
+            return;
+        }
+        String body = "{\"model\":" + JSONObject.quote(model) + "," + staticFields +
+            ",\"ttl\":\"" + TTL_SECONDS + "s\"}";
+        Request request = new Request.Builder()
+                .url(apiBase + "/cachedContents?key=" + apiKey)
+                .post(RequestBody.create(body.getBytes(StandardCharsets.UTF_8), JSON))
+                .build();
+        final long start = System.currentTimeMillis();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "Cached content create failed: " + e.getMessage());
+                createBlockedUntil = System.currentTimeMillis() + CREATE_BACKOFF_MS;
+                creating.set(false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    String responseBody = r.body() != null ? r.body().string() : "";
+                    if (!r.isSuccessful()) {
+                        Log.w(TAG, "Cached content create rejected (" + r.code() + "), sending inline: " + responseBody);
+                        createBlockedUntil = System.currentTimeMillis() + CREATE_BACKOFF_MS;
+                        return;
+                    }
+                    String name = new JSONObject(responseBody).getString("name");
+                    if (released) {
+                        // Released while the create was in flight
+                        deleteAsync(name);
+                        return;
+                    }
+                    handle = new Handle(name, start + TTL_SECONDS * 1000);
+                    creates.incrementAndGet();
+                    Log.d(TAG, "Created cached content " + name + " in " + (System.currentTimeMillis() - start) + "ms");
+                } catch (Exception e) {
+                    Log.e(TAG, "Error reading cached content create response", e);
+                    createBlockedUntil = System.currentTimeMillis() + CREATE_BACKOFF_MS;
+                } finally {
+                    creating.set(false);
+                }
+            }
+        });
+    }
+
+    private void renewAsync(Handle current) {
+        if (!renewing.compareAndSet(false, true)) {
+            return;
+        }
+        String body = "{\"ttl\":\"" + TTL_SECONDS + "s\"}";
+        Request request = new Request.Builder()
+                .url(apiBase + "/" + current.name + "?updateMask=ttl&key=" + apiKey)
+                .patch(RequestBody.create(body.getBytes(StandardCharsets.UTF_8), JSON))
+                .build();
+        final long start = System.currentTimeMillis();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // Try again on the next acquire(); if it expires first we re-create
+                Log.w(TAG, "Cached content renewal failed: " + e.getMessage());
+                renewing.set(false);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.isSuccessful()) {
+                        current.expiresAt = start + TTL_SECONDS * 1000;
+                        renewals.incrementAndGet();
+                    } else if (r.code() == 404) {
+                        invalidate(current);
+                    } else {
+                        Log.w(TAG, "Cached content renewal rejected: " + r.code());
+                    }
+                } finally {
+                    renewing.set(false);
+                }
+            }
+        });
+    }
+
+    private void deleteAsync(String name) {
+        Request request = new Request.Builder()
+                .url(apiBase + "/" + name + "?key=" + apiKey)
+                .delete()
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                // The server drops it when the TTL runs out
+                Log.w(TAG, "Cached content delete failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.isSuccessful() || r.code() == 404) {
+                        Log.d(TAG, "Deleted cached content " + name);
+                    } else {
+                        Log.w(TAG, "Cached content delete rejected: " + r.code());
+                    }
+                }
+            }
+        });
+    }
+
+    public String getStats() {
+        Handle current = handle;
+        return "cached=" + cachedRequests.get() + ", inline=" + inlineRequests.get() +
+            ", creates=" + creates.get() + ", renewals=" + renewals.get() + ", expiries=" + expiries.get() +
+            ", handle=" + (current != null ? current.name : "none");
+    }
+}
@@ -0,0 +1,168 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.JsonWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Typed declaration of one function the model can call. SchemaRegistry serializes it once per
+// wire dialect; validate() checks a call's arguments against it before an agent runs it.
+public class FunctionSchema {
+
+    public enum Type {
+        STRING, NUMBER, INTEGER, BOOLEAN
+    }
+
+    static final class Param {
+        final String name;
+        final Type type;
+        final String description;
+        final String[] enumValues;
+        final boolean required;
+
+        Param(String name, Type type, String description, String[] enumValues, boolean required) {
+            this.name = name;
+            this.type = type;
+            this.description = description;
+            this.enumValues = enumValues;
+            this.required = required;
+        }
+    }
+
+    final String name;
+    final String description;
+    final List<Param> params = new ArrayList<>();
+    // Non-null for low-level functions the voice model should leave to a higher-level one
+    String internalHint;
+
+    public FunctionSchema(String name, String description) {
+        this.name = name;
+        this.description = description;
+    }
+
+    public FunctionSchema param(String name, Type type, String description, boolean required) {
+        params.add(new Param(name, type, description, null, required));
+        return this;
+    }
+
+    public FunctionSchema enumParam(String name, String description, boolean required, String... values) {
+        params.add(new Param(name, Type.STRING, description, values, required));
+        return this;
+    }
+
+    public FunctionSchema internal(String hint) {
+        this.internalHint = hint;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isInternal() {
+        return internalHint != null;
+    }
+
+    // null if args satisfy the schema, otherwise what is wrong with them. Lenient where the
+    // agents are (optString() reads a number as a string), strict on missing and malformed values.
+    public String validate(JSONObject args) {
+        for (Param param : params) {
+            Object value = args != null ? args.opt(param.name) : null;
+            if (value == null || value == JSONObject.NULL) {
+                if (param.required) {
+                    return "missing required argument '" + param.name + "'";
+                }
+                continue;
+            }
+            if (value instanceof JSONObject || value instanceof JSONArray) {
+                return "argument '" + param.name + "' must be a " + param.type.name().toLowerCase();
+            }
+            switch (param.type) {
+                case NUMBER:
+                case INTEGER:
+                    if (!isNumber(value, param.type == Type.INTEGER)) {
+                        return "argument '" + param.name + "' must be a " + param.type.name().toLowerCase() + ", got " + value;
+                    }
+                    break;
+                case BOOLEAN:
+                    if (!(value instanceof Boolean) && !"true".equalsIgnoreCase(value.toString())
+                        && !"false".equalsIgnoreCase(value.toString())) {
+                        return "argument '" + param.name + "' must be true or false, got " + value;
+                    }
+                    break;
+                default:
+                    if (param.enumValues != null && !isOneOf(value.toString(), param.enumValues)) {
+                        return "argument '" + param.name + "' must be one of " + java.util.Arrays.toString(param.enumValues) + ", got " + value;
+                    }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumber(Object value, boolean integer) {
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            return !integer || d == Math.rint(d);
+        }
+        try {
+            double d = Double.parseDouble(value.toString().trim());
+            return !Double.isNaN(d) && (!integer || d == Math.rint(d));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isOneOf(String value, String[] values) {
+        for (String candidate : values) {
+            if (candidate.equalsIgnoreCase(value)) return true;
+        }
+        return false;
+    }
+
+    // {"name":..,"description":..,"parameters":{..}} in the dialect's spelling of type names
+    void write(JsonWriter writer, SchemaRegistry.Dialect dialect) throws IOException {
+        writer.beginObject();
+        writer.name("name").value(name);
+        String text = description;
+        if (internalHint != null && dialect == SchemaRegistry.Dialect.LIVE) {
+            text = "INTERNAL: " + description + " " + internalHint;
+        }
+        writer.name("description").value(text);
+        writer.name("parameters").beginObject();
+        writer.name("type").value(dialect.typeName("OBJECT"));
+        writer.name("properties").beginObject();
+        for (Param param : params) {
+            writer.name(param.name).beginObject();
+            writer.name("type").value(dialect.typeName(param.type.name()));
+            if (param.description != null) {
+                writer.name("description").value(param.description);
+            }
+            if (param.enumValues != null) {
+                writer.name("enum").beginArray();
+                for (String value : param.enumValues) {
+                    writer.value(value);
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+        boolean anyRequired = false;
+        for (Param param : params) {
+            if (param.required) {
+                if (!anyRequired) {
+                    writer.name("required").beginArray();
+                    anyRequired = true;
+                }
+                writer.value(param.name);
+            }
+        }
+        if (anyRequired) {
+            writer.endArray();
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+}
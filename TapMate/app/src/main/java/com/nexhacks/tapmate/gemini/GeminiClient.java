@@ -1,10 +1,13 @@
 package com.nexhacks.tapmate.gemini;
 
 import android.util.Log;
-import org.json.JSONArray;
 import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.MediaType;
@@ -12,6 +15,9 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSource;
+import com.nexhacks.tapmate.utils.HttpStack;
+import com.nexhacks.tapmate.utils.JsonCodec;
 
 public class GeminiClient {
     private static final String TAG = "GeminiClient";
@@ -19,15 +25,52 @@ public class GeminiClient {
     private static final String API_KEY = com.nexhacks.tapmate.utils.Config.GEMINI_API_KEY; 
     // Using Gemini 2.0 Flash Experimental
     // Use trained model endpoint
-    private static final String BASE_URL = "https://us-central1-generativelanguage.googleapis.com/v1beta/projects/225746718246/locations/us-central1/models/5066328578954625024/versions/1:generateContent?key=" + API_KEY;
+    private static final String API_BASE = "https://us-central1-generativelanguage.googleapis.com/v1beta";
+    private static final String MODEL = "projects/225746718246/locations/us-central1/models/5066328578954625024/versions/1";
 
     private final OkHttpClient client;
+    private final String generateUrl;
+    // Same model over server-sent events: one GenerateContentResponse chunk per "data:" line
+    private final String streamUrl;
+    private final ContextCache contextCache;
+    private final String model;
+    private final ResponseCache responseCache = new ResponseCache();
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ResilientCaller resilience;
 
     public GeminiClient() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this(API_BASE, MODEL, API_KEY, HttpStack.client(HttpStack.Profile.GEMINI));
+    }
+
+    // apiBase is everything before the model path (e.g. a local stand-in server's URL + "/v1beta")
+    public GeminiClient(String apiBase, String model, String apiKey, OkHttpClient client) {
+        this.client = client;
+        this.model = model;
+        this.generateUrl = apiBase + "/" + model + ":generateContent?key=" + apiKey;
+        this.streamUrl = apiBase + "/" + model + ":streamGenerateContent?alt=sse&key=" + apiKey;
+        this.resilience = new ResilientCaller(client, "gemini");
+        this.contextCache = new ContextCache(client, apiBase, apiKey, model, STATIC_FIELDS);
+    }
+
+    public ContextCache getContextCache() {
+        return contextCache;
+    }
+
+    // Call when the session stops: deletes the server-side context cache
+    public void release() {
+        contextCache.release();
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    public ResilientCaller getResilience() {
+        return resilience;
     }
 
     public interface GeminiCallback {
@@ -35,17 +78,106 @@ public class GeminiClient {
         void onError(Exception e);
     }
 
+    // Incremental results from streamGenerateContent, delivered on the OkHttp thread
+    public interface StreamCallback {
+        void onTextDelta(String text);
+        void onFunctionCall(String name, JSONObject args);
+        void onComplete();
+        void onError(Exception e);
+    }
+
+    // Static part of every request: sent inline, or once into the context cache
+    private static final String SYSTEM_INSTRUCTION =
+        "You are TapMate, an Android Accessibility Agent that helps users control their phone through voice commands.\n\n" +
+        "Instructions:\n" +
+        "- Analyze the screen state to understand what's currently visible\n" +
+        "- If the user wants to interact with the screen (click, type, scroll), use the appropriate GUI function\n" +
+        "- If the user is asking a question or needs information, respond with text_response\n" +
+        "- When clicking, use the 'id' field from screen state nodes. If no ID, try using text or description\n" +
+        "- Always provide helpful feedback in your responses\n" +
+        "- Use memory_recall to retrieve saved information when needed\n" +
+        "- If the user asks to open an app that's NOT on the current screen, use gui_open_app to launch it\n\n" +
+        "Now analyze the request and call the appropriate function.";
+    // The planner only gets the UI actions its steps are made of, not search/maps/memory_save
+    private static final String[] TOOLS = ToolSelector.getInstance().select(
+        ToolSelector.Mode.GUI_TASK, SchemaRegistry.Dialect.REST, SchemaRegistry.getInstance().getAllNames());
+    private static final int TOOLS_TOKENS = ToolSelector.estimateTokens(SchemaRegistry.Dialect.REST, TOOLS);
+    // What every request carried before tools were selected by mode
+    private static final int ALL_TOOLS_TOKENS = ToolSelector.estimateTokens(SchemaRegistry.Dialect.REST, SchemaRegistry.DEFAULT_FUNCTIONS);
+    private static final String STATIC_FIELDS = buildStaticFields();
+
+    // Constant parts of every generateContent request body, encoded once. The prompt text is
+    // written between them as JSON string content.
+    private static final byte[] PAYLOAD_PREFIX =
+        "{\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAYLOAD_SUFFIX = ("\"}]}]," + STATIC_FIELDS + "}").getBytes(StandardCharsets.UTF_8);
+    // With a cached-content handle the body ends after the prompt; the handle carries the rest
+    private static final byte[] CACHED_PAYLOAD_SUFFIX = "\"}]}]}".getBytes(StandardCharsets.UTF_8);
+
+    private static final PromptBuilder.Fragment REQUEST_HEADER = new PromptBuilder.Fragment("User Request: ");
+
     // Main Agent Entry Point
     public void queryAgent(String userGoal, String screenStateJson, GeminiCallback callback) {
+        PromptBuilder.Prompt prompt = new PromptBuilder()
+            .add(REQUEST_HEADER)
+            .add(userGoal + "\n\n")
+            .screen(screenStateJson)
+            .build();
+        queryAgent(prompt, callback);
+    }
+
+    // Send a prompt assembled by PromptBuilder as-is (it already carries the screen state)
+    public SingleFlight.Waiter queryAgent(PromptBuilder.Prompt prompt, GeminiCallback callback) {
+        return queryAgent(prompt, ResponseCache.CallType.AGENT, false, callback);
+    }
+
+    public SingleFlight.Waiter queryAgent(PromptBuilder.Prompt prompt, ResponseCache.CallType callType,
+                                          GeminiCallback callback) {
+        return queryAgent(prompt, callType, true, callback);
+    }
+
+    // useCache=false for calls that must reach the model even if an identical one was just answered.
+    // Identical calls already in flight are joined rather than sent again; cancel the returned
+    // waiter to stop waiting without affecting anyone else waiting on the same call.
+    public SingleFlight.Waiter queryAgent(PromptBuilder.Prompt prompt, ResponseCache.CallType callType,
+                                          boolean useCache, GeminiCallback callback) {
+        String key = ResponseCache.key(model, prompt);
+        boolean cacheable = useCache && ResponseCache.isCacheable(callType);
+        if (cacheable) {
+            ResponseCache.Entry cached = responseCache.get(callType, key);
+            if (cached != null) {
+                try {
+                    callback.onResponse(cached.toolName, new JSONObject(cached.argsJson));
+                    return SingleFlight.completed();
+                } catch (org.json.JSONException e) {
+                    Log.w(TAG, "Dropping unreadable cached response", e);
+                }
+            }
+        }
+        String function = callType.name().toLowerCase(Locale.ROOT);
+        return singleFlight.join(key, callback, flight -> {
+            if (!cacheable) {
+                return send(prompt, function, contextCache.acquire(), flight);
+            }
+            return send(prompt, function, contextCache.acquire(), new GeminiCallback() {
+                @Override
+                public void onResponse(String toolName, JSONObject toolArgs) {
+                    responseCache.put(callType, key, toolName, toolArgs.toString());
+                    flight.onResponse(toolName, toolArgs);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    flight.onError(e);
+                }
+            });
+        });
+    }
+
+    private ResilientCaller.Handle send(PromptBuilder.Prompt prompt, String function, ContextCache.Handle handle,
+                                        GeminiCallback callback) {
         try {
-            JSONObject payload = constructPayload(userGoal, screenStateJson);
-            
-            Request request = new Request.Builder()
-                    .url(BASE_URL)
-                    .post(RequestBody.create(payload.toString(), MediaType.get("application/json")))
-                    .build();
-
-            client.newCall(request).enqueue(new Callback() {
+            return resilience.enqueue(generateRequest(prompt, handle), new Callback() {
                 @Override
                 public void onFailure(Call call, IOException e) {
                     callback.onError(e);
@@ -54,46 +186,42 @@ public class GeminiClient {
                 @Override
                 public void onResponse(Call call, Response response) throws IOException {
                     if (!response.isSuccessful()) {
+                        String errorBody = response.body() != null ? response.body().string() : "";
+                        if (handle != null && !call.isCanceled() && ContextCache.isCacheMiss(response.code(), errorBody)) {
+                            // Cache expired server-side: resend this one inline while a new one is
+                            // created, under the same handle so cancel() and the breaker still apply
+                            contextCache.invalidate(handle);
+                            ResilientCaller.Handle self = ResilientCaller.handleOf(call);
+                            if (self != null) {
+                                resilience.resend(self, generateRequest(prompt, null));
+                            } else {
+                                callback.onError(new IOException("Unexpected code " + response));
+                            }
+                            return;
+                        }
                         callback.onError(new IOException("Unexpected code " + response));
                         return;
                     }
 
                     try {
-                        String responseBody = response.body().string();
-                        JSONObject json = new JSONObject(responseBody);
-                        
-                        // Parse Gemini Response
-                        // Structure: candidates[0].content.parts[0].functionCall or .text
-                        JSONObject candidate = json.getJSONArray("candidates").getJSONObject(0);
-                        JSONObject content = candidate.getJSONObject("content");
-                        JSONArray parts = content.getJSONArray("parts");
-                        
+                        // Pulls candidates[0].content.parts and usageMetadata straight off the body
+                        JsonCodec.GenerateContent result;
+                        try (Reader body = JsonCodec.reader(response.body().source())) {
+                            result = JsonCodec.readGenerateContent(body, true);
+                        }
+                        TokenMeter.getInstance().record(function, result.usageMetadata, true);
+
                         // Look for function call first
-                        for (int i = 0; i < parts.length(); i++) {
-                            JSONObject part = parts.getJSONObject(i);
-                            if (part.has("functionCall")) {
-                                JSONObject fn = part.getJSONObject("functionCall");
-                                String name = fn.getString("name");
-                                JSONObject args = fn.optJSONObject("args");
-                                if (args == null) {
-                                    args = new JSONObject();
-                                }
-                                callback.onResponse(name, args);
-                                return;
-                            }
+                        JsonCodec.Part functionCall = result.firstFunctionCall();
+                        if (functionCall != null) {
+                            callback.onResponse(functionCall.functionName, functionCall.functionArgs);
+                            return;
                         }
-                        
+
                         // If no function call, look for text response
-                        StringBuilder textResponse = new StringBuilder();
-                        for (int i = 0; i < parts.length(); i++) {
-                            JSONObject part = parts.getJSONObject(i);
-                            if (part.has("text")) {
-                                textResponse.append(part.getString("text"));
-                            }
-                        }
-                        
+                        String textResponse = result.text();
                         if (textResponse.length() > 0) {
-                            callback.onResponse("text_response", new JSONObject().put("text", textResponse.toString()));
+                            callback.onResponse("text_response", new JSONObject().put("text", textResponse));
                         } else {
                             callback.onResponse("text_response", new JSONObject().put("text", "I understand."));
                         }
@@ -102,172 +230,198 @@ public class GeminiClient {
                         callback.onError(e);
                     }
                 }
-            });
+            }, true);
 
         } catch (Exception e) {
             callback.onError(e);
+            return null;
         }
     }
 
-    // Construct the JSON payload with Tools
-    private JSONObject constructPayload(String userGoal, String screenState) throws Exception {
-        JSONObject payload = new JSONObject();
-        
-        // 1. System Instruction & User Prompt
-        JSONObject userPart = new JSONObject().put("text", 
-            "You are TapMate, an Android Accessibility Agent that helps users control their phone through voice commands.\n\n" +
-            "User Request: " + userGoal + "\n\n" +
-            "Current Screen State (JSON): " + screenState + "\n\n" +
-            "Instructions:\n" +
-            "- Analyze the screen state to understand what's currently visible\n" +
-            "- If the user wants to interact with the screen (click, type, scroll), use the appropriate GUI function\n" +
-            "- If the user is asking a question or needs information, respond with text_response\n" +
-            "- When clicking, use the 'id' field from screen state nodes. If no ID, try using text or description\n" +
-            "- Always provide helpful feedback in your responses\n" +
-            "- If you need to save important information (like car details, ETAs), use memory_save\n" +
-            "- Use memory_recall to retrieve saved information when needed\n" +
-            "- Use google_search to find information on the web\n" +
-            "- Use maps_navigation to get directions to a location\n" +
-            "- Use get_location to find out where the user is\n" +
-            "- Use weather to get weather information for any location (it uses Google Search internally)\n" +
-            "- Alternatively, you can use google_search directly for weather queries\n" +
-            "- If the user asks to open an app that's NOT on the current screen, use gui_open_app to launch it\n\n" +
-            "Now analyze the request and call the appropriate function:");
-            
-        JSONArray contents = new JSONArray().put(new JSONObject()
-            .put("role", "user")
-            .put("parts", new JSONArray().put(userPart)));
-
-        payload.put("contents", contents);
-
-        // 2. Tool Definitions (The "Brain" Configuration)
-        JSONArray tools = new JSONArray();
-        JSONObject functionDeclarations = new JSONObject();
-        JSONArray funcs = new JSONArray();
-
-        // Tool: Click
-        funcs.put(new JSONObject()
-            .put("name", "gui_click")
-            .put("description", "Click an element on the screen given its ID.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("node_id", new JSONObject().put("type", "STRING").put("description", "The resource ID of the node to click."))
-                )
-                .put("required", new JSONArray().put("node_id"))
-            ));
-
-        // Tool: Type
-        funcs.put(new JSONObject()
-            .put("name", "gui_type")
-            .put("description", "Type text into an editable field.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("node_id", new JSONObject().put("type", "STRING"))
-                    .put("text", new JSONObject().put("type", "STRING"))
-                )
-                .put("required", new JSONArray().put("node_id").put("text"))
-            ));
-
-        // Tool: Scroll
-        funcs.put(new JSONObject()
-            .put("name", "gui_scroll")
-            .put("description", "Scroll the screen.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("direction", new JSONObject().put("type", "STRING").put("enum", new JSONArray().put("UP").put("DOWN")))
-                )
-                .put("required", new JSONArray().put("direction"))
-            ));
-            
-        // Tool: Memory Save
-        funcs.put(new JSONObject()
-            .put("name", "memory_save")
-            .put("description", "Save important details like car info or ETA to memory.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("key", new JSONObject().put("type", "STRING"))
-                    .put("value", new JSONObject().put("type", "STRING"))
-                    .put("type", new JSONObject().put("type", "STRING").put("description", "Type of memory: UBER_RIDE, LOCATION, REMINDER, etc."))
-                    .put("trigger_time", new JSONObject().put("type", "NUMBER").put("description", "Unix timestamp when to recall this memory (optional)"))
-                )
-                .put("required", new JSONArray().put("key").put("value"))
-            ));
-            
-        // Tool: Memory Recall
-        funcs.put(new JSONObject()
-            .put("name", "memory_recall")
-            .put("description", "Recall saved information from memory by type.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("type", new JSONObject().put("type", "STRING").put("description", "Type of memory to recall: UBER_RIDE, LOCATION, REMINDER, etc."))
-                )
-                .put("required", new JSONArray().put("type"))
-            ));
-            
-        // Tool: Google Search
-        funcs.put(new JSONObject()
-            .put("name", "google_search")
-            .put("description", "Search Google for information.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("query", new JSONObject().put("type", "STRING").put("description", "The search query"))
-                )
-                .put("required", new JSONArray().put("query"))
-            ));
-            
-        // Tool: Maps Navigation
-        funcs.put(new JSONObject()
-            .put("name", "maps_navigation")
-            .put("description", "Get walking directions to a destination using Google Maps.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("destination", new JSONObject().put("type", "STRING").put("description", "Destination address or place name"))
-                )
-                .put("required", new JSONArray().put("destination"))
-            ));
-            
-        // Tool: Get Location
-        funcs.put(new JSONObject()
-            .put("name", "get_location")
-            .put("description", "Get the user's current GPS location coordinates.")
-            .put("parameters", new JSONObject().put("type", "OBJECT").put("properties", new JSONObject()))
-        );
-            
-        // Tool: Weather (uses google_search internally)
-        funcs.put(new JSONObject()
-            .put("name", "weather")
-            .put("description", "Get weather information for a specific location. This uses Google Search to find current weather data.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("location", new JSONObject().put("type", "STRING").put("description", "City name or location (e.g., 'Atlanta, GA' or 'New York')"))
-                )
-                .put("required", new JSONArray().put("location"))
-            ));
-            
-        // Tool: Open App
-        funcs.put(new JSONObject()
-            .put("name", "gui_open_app")
-            .put("description", "Open an app on the phone by name. Use this when the user asks to open an app that's not currently visible on screen.")
-            .put("parameters", new JSONObject()
-                .put("type", "OBJECT")
-                .put("properties", new JSONObject()
-                    .put("app_name", new JSONObject().put("type", "STRING").put("description", "Name of the app to open (e.g., 'Messenger', 'Settings', 'Chrome')"))
-                )
-                .put("required", new JSONArray().put("app_name"))
-            ));
-
-        functionDeclarations.put("function_declarations", funcs);
-        tools.put(functionDeclarations);
-        payload.put("tools", tools);
-
-        return payload;
+    private Request generateRequest(PromptBuilder.Prompt prompt, ContextCache.Handle handle) {
+        return new Request.Builder()
+                .url(generateUrl)
+                .post(RequestBody.create(buildRequestBody(prompt, handle), MediaType.get("application/json")))
+                .build();
+    }
+
+    // Streaming variant of queryAgent; cancel the returned call to stop early
+    public Call streamAgent(PromptBuilder.Prompt prompt, StreamCallback callback) {
+        return streamAgent(prompt, ResponseCache.CallType.AGENT, callback);
+    }
+
+    // Cached answers are replayed as a single text delta and the returned call is null
+    public Call streamAgent(PromptBuilder.Prompt prompt, ResponseCache.CallType callType, StreamCallback callback) {
+        if (!ResponseCache.isCacheable(callType)) {
+            return streamUncached(prompt, callType, callback);
+        }
+        String key = ResponseCache.key(model, prompt);
+        ResponseCache.Entry cached = responseCache.get(callType, key);
+        if (cached != null && "text_response".equals(cached.toolName)) {
+            try {
+                callback.onTextDelta(new JSONObject(cached.argsJson).optString("text", ""));
+                callback.onComplete();
+                return null;
+            } catch (org.json.JSONException e) {
+                Log.w(TAG, "Dropping unreadable cached response", e);
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        return streamUncached(prompt, callType, new StreamCallback() {
+            private boolean calledFunction = false;
+
+            @Override
+            public void onTextDelta(String delta) {
+                text.append(delta);
+                callback.onTextDelta(delta);
+            }
+
+            @Override
+            public void onFunctionCall(String name, JSONObject args) {
+                calledFunction = true;
+                callback.onFunctionCall(name, args);
+            }
+
+            @Override
+            public void onComplete() {
+                // Only whole, text-only answers are worth replaying
+                if (!calledFunction && text.length() > 0) {
+                    try {
+                        responseCache.put(callType, key, "text_response",
+                            new JSONObject().put("text", text.toString()).toString());
+                    } catch (org.json.JSONException e) {
+                        Log.w(TAG, "Could not cache streamed response", e);
+                    }
+                }
+                callback.onComplete();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                callback.onError(e);
+            }
+        });
+    }
+
+    private Call streamUncached(PromptBuilder.Prompt prompt, ResponseCache.CallType callType, StreamCallback callback) {
+        String function = callType.name().toLowerCase(Locale.ROOT);
+        ContextCache.Handle handle = contextCache.acquire();
+        return stream(streamUrl, buildRequestBody(prompt, handle), function, callback, handle,
+            () -> stream(streamUrl, buildRequestBody(prompt, null), function, callback), resilience.getBreaker());
+    }
+
+    // POST a generateContent body to a streamGenerateContent?alt=sse URL and hand each
+    // text delta / function call to the callback as its chunk arrives. function labels the
+    // call's token usage in TokenMeter (only reported if the stream is read to the end).
+    public Call stream(String streamUrl, byte[] body, String function, StreamCallback callback) {
+        return stream(streamUrl, body, function, callback, null, null, null);
+    }
+
+    // Streams aren't hedged or retried (output may already have been consumed), but they
+    // share the endpoint's circuit breaker: returns null when it is open
+    private Call stream(String streamUrl, byte[] body, String function, StreamCallback callback,
+                        ContextCache.Handle handle, Runnable resendInline, CircuitBreaker breaker) {
+        CircuitBreaker.Permit permit = breaker != null ? breaker.allow() : CircuitBreaker.Permit.ALLOWED;
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            callback.onError(new IOException("Circuit open: model endpoint is failing"));
+            return null;
+        }
+        Request request = new Request.Builder()
+                .url(streamUrl)
+                .post(RequestBody.create(body, MediaType.get("application/json")))
+                .build();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (breaker != null) {
+                    if (!call.isCanceled()) {
+                        breaker.onFailure();
+                    } else if (permit == CircuitBreaker.Permit.PROBE) {
+                        // A cancelled probe has no outcome; it must not hold the breaker half-open
+                        breaker.releaseProbe();
+                    }
+                }
+                callback.onError(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (breaker != null) {
+                        if (r.code() == 429 || r.code() >= 500) {
+                            breaker.onFailure();
+                        } else {
+                            breaker.onSuccess();
+                        }
+                    }
+                    if (!r.isSuccessful() && handle != null && !call.isCanceled()
+                        && ContextCache.isCacheMiss(r.code(), r.body() != null ? r.body().string() : "")) {
+                        contextCache.invalidate(handle);
+                        resendInline.run();
+                        return;
+                    }
+                    if (!r.isSuccessful() || r.body() == null) {
+                        callback.onError(new IOException("Unexpected code " + r));
+                        return;
+                    }
+                    BufferedSource source = r.body().source();
+                    StringBuilder data = new StringBuilder();
+                    // Each chunk carries the running totals; the last one is the call's usage
+                    JSONObject usage = null;
+                    String line;
+                    while ((line = source.readUtf8Line()) != null) {
+                        if (line.startsWith("data:")) {
+                            data.append(line.substring(5).trim());
+                        } else if (line.isEmpty() && data.length() > 0) {
+                            JSONObject chunkUsage = dispatchChunk(data.toString(), callback);
+                            if (chunkUsage != null) usage = chunkUsage;
+                            data.setLength(0);
+                        }
+                    }
+                    if (data.length() > 0) {
+                        JSONObject chunkUsage = dispatchChunk(data.toString(), callback);
+                        if (chunkUsage != null) usage = chunkUsage;
+                    }
+                    TokenMeter.getInstance().record(function, usage, true);
+                    callback.onComplete();
+                } catch (Exception e) {
+                    callback.onError(e);
+                }
+            }
+        });
+        return call;
+    }
+
+    // Returns the chunk's usageMetadata, if any
+    private static JSONObject dispatchChunk(String chunk, StreamCallback callback) throws IOException {
+        JsonCodec.GenerateContent result = JsonCodec.readGenerateContent(new StringReader(chunk), false);
+        for (JsonCodec.Part part : result.parts) {
+            if (part.isFunctionCall()) {
+                callback.onFunctionCall(part.functionName, part.functionArgs);
+            } else {
+                callback.onTextDelta(part.text);
+            }
+        }
+        return result.usageMetadata;
+    }
+
+    // Body for a prompt; with a handle the system instruction and tools come from the cache
+    static byte[] buildRequestBody(PromptBuilder.Prompt prompt, ContextCache.Handle handle) {
+        byte[] prefix = handle != null ? handle.payloadPrefix : PAYLOAD_PREFIX;
+        byte[] suffix = handle != null ? CACHED_PAYLOAD_SUFFIX : PAYLOAD_SUFFIX;
+        ToolSelector.getInstance().record(TOOLS_TOKENS, ALL_TOOLS_TOKENS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+            prefix.length + prompt.estimatedTokens() * PromptBuilder.CHARS_PER_TOKEN + suffix.length + 256);
+        out.write(prefix, 0, prefix.length);
+        prompt.writeEscaped(out);
+        out.write(suffix, 0, suffix.length);
+        return out.toByteArray();
+    }
+
+    // "systemInstruction":{...},"tools":[...] as JSON object members
+    private static String buildStaticFields() {
+        return "\"systemInstruction\":{\"parts\":[{\"text\":" + JSONObject.quote(SYSTEM_INSTRUCTION) + "}]}"
+            + ",\"tools\":" + SchemaRegistry.getInstance().getToolsJson(SchemaRegistry.Dialect.REST, TOOLS);
     }
 }
@@ -5,14 +5,14 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.TimeUnit;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
 import okio.ByteString;
+import com.nexhacks.tapmate.audio.PlaybackEngine;
+import com.nexhacks.tapmate.utils.HttpStack;
 
 public class GeminiLiveClient extends WebSocketListener {
     private static final String TAG = "GeminiLiveClient";
@@ -59,6 +59,10 @@ public class GeminiLiveClient extends WebSocketListener {
     
     public interface GeminiLiveCallback {
         void onAudioChunk(byte[] audioData);
+        // The user spoke over the model; audio already delivered for that turn should not play
+        void onInterrupted();
+        // The model's turn is over; no more audio follows until the next one
+        void onTurnComplete();
         void onTextResponse(String text);
         void onFunctionCall(String functionName, JSONObject args, String callId);
         void onError(Exception e);
@@ -72,11 +76,8 @@ public class GeminiLiveClient extends WebSocketListener {
     
     public GeminiLiveClient(com.nexhacks.tapmate.agents.AgentRegistry agentRegistry) {
         this.agentRegistry = agentRegistry;
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(0, TimeUnit.SECONDS) // No timeout for streaming
-                .writeTimeout(0, TimeUnit.SECONDS)
-                .build();
+        // Shared pool, no read/write timeout for streaming
+        this.client = HttpStack.client(HttpStack.Profile.LIVE);
     }
     
     public void startSession(GeminiLiveCallback callback, String screenStateJson) {
@@ -118,7 +119,10 @@ public class GeminiLiveClient extends WebSocketListener {
         } catch (Exception e) {}
         // #endregion
         
-        webSocket = client.newWebSocket(request, this);
+        synchronized (this) {
+            // Listener callbacks check the socket against this field, so set it before any can run
+            webSocket = client.newWebSocket(request, this);
+        }
         
         // #region agent log
         try {
@@ -137,6 +141,102 @@ public class GeminiLiveClient extends WebSocketListener {
     
     private String currentScreenState = "[]";
     private boolean setupSent = false;
+    private final AudioFrameEncoder frameEncoder = new AudioFrameEncoder();
+    private final ServerMessageDecoder serverDecoder = new ServerMessageDecoder();
+    private final AudioFrameDecoder audioDecoder = new AudioFrameDecoder();
+    // Where server audio is decoded to; without one it goes through onAudioChunk
+    private volatile PlaybackEngine playbackEngine;
+    
+    public void setPlaybackEngine(PlaybackEngine engine) {
+        this.playbackEngine = engine;
+    }
+    // Set before connecting when the app runs its own voice activity detection
+    private boolean manualActivityDetection = false;
+    private static final ByteString ACTIVITY_START = ByteString.encodeUtf8("{\"realtimeInput\":{\"activityStart\":{}}}");
+    private static final ByteString ACTIVITY_END = ByteString.encodeUtf8("{\"realtimeInput\":{\"activityEnd\":{}}}");
+    
+    public void setManualActivityDetection(boolean manual) {
+        this.manualActivityDetection = manual;
+    }
+    
+    // Live only accepts tools in the setup message, so a mode change after setup is applied
+    // by resuming the session on a new connection with the new tools, between turns
+    private volatile ToolSelector.Mode toolMode = ToolSelector.Mode.CONVERSATION;
+    private ToolSelector.Mode appliedToolMode;
+    private volatile String resumptionHandle;
+    // Ids of tool calls still waiting for a response (null for calls the server sent without one)
+    private final java.util.List<String> pendingToolCalls = new java.util.ArrayList<>();
+    // Calls the server cancelled; their late responses are not sent
+    private final java.util.Set<String> cancelledToolCalls = new java.util.HashSet<>();
+    private boolean modelTurnActive = false;
+    private boolean swappingTools = false;
+    
+    public synchronized void setToolMode(ToolSelector.Mode mode) {
+        if (mode == toolMode) return;
+        Log.d(TAG, "Tool mode " + toolMode + " -> " + mode);
+        toolMode = mode;
+        maybeSwapTools();
+    }
+    
+    private synchronized void maybeSwapTools() {
+        if (!setupSent || swappingTools || toolMode == appliedToolMode) return;
+        // Retried when the turn completes or the last tool call is answered
+        if (!pendingToolCalls.isEmpty() || modelTurnActive) return;
+        if (resumptionHandle == null) {
+            Log.d(TAG, "No resumption handle yet, " + toolMode + " tools wait for the next session");
+            return;
+        }
+        swappingTools = true;
+        WebSocket retired = webSocket;
+        setupSent = false;
+        isConnected = false;
+        webSocket = client.newWebSocket(new Request.Builder().url(buildWebSocketUrl()).build(), this);
+        // No longer this.webSocket, so its remaining events are ignored
+        retired.close(1000, "Switching tools");
+    }
+    
+    private void deliverFunctionCall(String name, JSONObject args, String callId) {
+        synchronized (this) {
+            pendingToolCalls.add(callId);
+        }
+        callback.onFunctionCall(name, args, callId);
+    }
+    
+    // The server cancelled this call, so its response should not go out
+    private synchronized boolean wasCancelled(String callId) {
+        return callId != null && cancelledToolCalls.remove(callId);
+    }
+    
+    // The call's response went out (or couldn't); a tool swap no longer waits for it
+    private synchronized void toolCallAnswered(String callId, boolean sent) {
+        pendingToolCalls.remove(callId);
+        if (sent) {
+            // The model answers the function response in a new turn
+            modelTurnActive = true;
+        } else {
+            maybeSwapTools();
+        }
+    }
+    
+    private synchronized void toolCallCancelled(String callId) {
+        if (pendingToolCalls.remove(callId)) {
+            cancelledToolCalls.add(callId);
+            maybeSwapTools();
+        }
+    }
+    
+    // this.webSocket failed or closed: nothing will answer on it, so a swap in progress is over
+    // and its outstanding calls won't be answered
+    private synchronized void connectionLost(WebSocket socket) {
+        if (socket != webSocket) return;
+        if (swappingTools) {
+            Log.w(TAG, "Connection for " + toolMode + " tools lost during the swap");
+            swappingTools = false;
+        }
+        pendingToolCalls.clear();
+        cancelledToolCalls.clear();
+        modelTurnActive = false;
+    }
     
     public void sendFunctionResponse(String functionName, JSONObject response, String callId) {
         // #region agent log
@@ -150,11 +250,17 @@ public class GeminiLiveClient extends WebSocketListener {
             android.util.Log.e(TAG, "Error logging", e);
         }
         // #endregion
+        if (wasCancelled(callId)) {
+            Log.d(TAG, "Not sending response for cancelled call: " + functionName + " (id: " + callId + ")");
+            return;
+        }
         if (webSocket == null || !isConnected) {
             Log.w(TAG, "WebSocket not connected, cannot send function response");
+            toolCallAnswered(callId, false);
             return;
         }
         
+        boolean sent = false;
         try {
             // CRITICAL FIX: Match TARS format exactly
             // The structure should be: clientContent -> turns -> parts -> functionResponse
@@ -186,6 +292,8 @@ public class GeminiLiveClient extends WebSocketListener {
             
             String messageJson = clientContentWrapper.toString();
             webSocket.send(messageJson);
+            sent = true;
+            toolCallAnswered(callId, true);
             Log.d(TAG, "Sent function response for: " + functionName + (callId != null ? " (id: " + callId + ")" : ""));
             Log.d(TAG, "Function response JSON: " + messageJson);
             // #region agent log
@@ -199,6 +307,7 @@ public class GeminiLiveClient extends WebSocketListener {
             // #endregion
         } catch (Exception e) {
             Log.e(TAG, "Error sending function response", e);
+            if (!sent) toolCallAnswered(callId, false);
             // #region agent log
             try {
                 java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
@@ -212,16 +321,33 @@ public class GeminiLiveClient extends WebSocketListener {
     }
     
     public void sendAudioChunk(byte[] audioData) {
+        sendAudioChunk(audioData, 0, audioData.length);
+    }
+    
+    // User started / stopped speaking (manual activity detection); capture thread only
+    public void sendActivityStart() {
+        sendRealtimeSignal(ACTIVITY_START);
+    }
+    
+    public void sendActivityEnd() {
+        sendRealtimeSignal(ACTIVITY_END);
+    }
+    
+    private void sendRealtimeSignal(ByteString message) {
+        if (webSocket == null || !isConnected) return;
+        try {
+            if (!setupSent) {
+                sendSetup();
+            }
+            webSocket.send(message);
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending activity signal", e);
+        }
+    }
+    
+    // Called on the capture thread only; audioData can be reused as soon as this returns
+    public void sendAudioChunk(byte[] audioData, int offset, int length) {
         if (webSocket == null || !isConnected) {
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.sendAudioChunk:WS_NOT_READY " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run6\",\"hypothesisId\":\"Q\",\"location\":\"GeminiLiveClient.java:sendAudioChunk\",\"message\":\"WebSocket not ready\",\"data\":{\"webSocketNull\":" + 
-                    (webSocket == null) + ",\"isConnected\":" + isConnected + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception e) {}
-            // #endregion
             Log.w(TAG, "WebSocket not connected, cannot send audio");
             return;
         }
@@ -229,140 +355,14 @@ public class GeminiLiveClient extends WebSocketListener {
         try {
             // Send setup message on first audio chunk
             if (!setupSent) {
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.sendAudioChunk:SENDING_SETUP " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run6\",\"hypothesisId\":\"R\",\"location\":\"GeminiLiveClient.java:sendAudioChunk\",\"message\":\"Sending setup message\",\"data\":{},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
-                JSONObject setup = new JSONObject();
-                JSONObject setupContent = new JSONObject();
-                // Use Live-enabled model name (Live API doesn't support trained models, use base model)
-                setupContent.put("model", "models/gemini-2.0-flash-exp");
-                
-                JSONObject genConfig = new JSONObject();
-                // Use response_modalities (plural) as array
-                genConfig.put("response_modalities", new JSONArray().put("AUDIO"));
-                
-                // Note: code_execution_config is NOT supported in Gemini Live API
-                // Function calling is controlled via tool_config instead
-                
-                JSONObject speechConfig = new JSONObject();
-                JSONObject voiceConfig = new JSONObject();
-                JSONObject prebuiltVoice = new JSONObject();
-                prebuiltVoice.put("voice_name", "Aoede");
-                voiceConfig.put("prebuilt_voice_config", prebuiltVoice);
-                speechConfig.put("voice_config", voiceConfig);
-                genConfig.put("speech_config", speechConfig);
-                setupContent.put("generation_config", genConfig);
-                
-                // Note: Gemini Live API doesn't support tool_config at setup level
-                // Function calling is enabled by simply providing tools array
-                
-                JSONArray tools = createTools();
-                JSONObject systemInstruction = createSystemInstruction(currentScreenState);
-                setupContent.put("tools", tools);
-                setupContent.put("system_instruction", systemInstruction);
-                setup.put("setup", setupContent);
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    // Log tool names
-                    java.util.ArrayList<String> toolNames = new java.util.ArrayList<>();
-                    for (int i = 0; i < tools.length(); i++) {
-                        try {
-                            JSONObject tool = tools.getJSONObject(i);
-                            if (tool.has("function_declarations")) {
-                                JSONArray funcs = tool.getJSONArray("function_declarations");
-                                for (int j = 0; j < funcs.length(); j++) {
-                                    JSONObject func = funcs.getJSONObject(j);
-                                    if (func.has("name")) {
-                                        toolNames.add(func.getString("name"));
-                                    }
-                                }
-                            }
-                        } catch (Exception e) {}
-                    }
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.sendAudioChunk:SETUP_WITH_TOOLS " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H6\",\"location\":\"GeminiLiveClient.java:sendAudioChunk\",\"message\":\"Setup message with tools\",\"data\":{\"toolsLength\":" + 
-                        tools.length() + ",\"hasSystemInstruction\":" + (systemInstruction != null) + ",\"toolNames\":\"" + java.util.Arrays.toString(toolNames.toArray(new String[0])) + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {
-                    android.util.Log.e(TAG, "Error logging tools", e);
-                }
-                // #endregion
-                
-                String setupJson = setup.toString();
-                
-                // #region agent log
-                Log.d(TAG, "===== HYPOTHESIS B: Setup message being sent =====");
-                Log.d(TAG, "Tools count: " + tools.length());
-                Log.d(TAG, "Setup JSON length: " + setupJson.length());
-                Log.d(TAG, "Setup JSON preview: " + setupJson.substring(0, Math.min(300, setupJson.length())));
-                Log.d(TAG, "Has system instruction: " + (systemInstruction != null));
-                // #endregion
-                
-                webSocket.send(setupJson);
-                setupSent = true;
-                Log.d(TAG, "Setup message sent");
-                
-                // #region agent log
-                Log.d(TAG, "setupSent flag now: " + setupSent);
-                Log.d(TAG, "===== END HYPOTHESIS B =====");
-                // #endregion
-                
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.sendAudioChunk:SETUP_SENT " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"B\",\"location\":\"GeminiLiveClient.java:sendAudioChunk\",\"message\":\"Setup message sent\",\"data\":{\"toolsCount\":" + 
-                        tools.length() + ",\"hasSystemInstruction\":" + (systemInstruction != null) + ",\"setupPreview\":\"" + setupJson.substring(0, Math.min(500, setupJson.length())).replace("\"", "\\\"") + "...\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
+                sendSetup();
             }
             
-            // Send audio data using realtimeInput format (correct format for Gemini Live API)
-            String base64Audio = android.util.Base64.encodeToString(audioData, android.util.Base64.NO_WRAP);
-            JSONObject realtimeInputWrapper = new JSONObject();
-            JSONObject realtimeInput = new JSONObject();
-            JSONObject audioObj = new JSONObject();
-            audioObj.put("data", base64Audio);
-            audioObj.put("mimeType", "audio/pcm;rate=16000");
-            realtimeInput.put("audio", audioObj);
-            realtimeInputWrapper.put("realtimeInput", realtimeInput);
-            
-            String messageJson = realtimeInputWrapper.toString();
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                // Check if audio data has non-zero bytes
-                boolean hasNonZero = false;
-                for (int i = 0; i < Math.min(audioData.length, 100); i++) {
-                    if (audioData[i] != 0) {
-                        hasNonZero = true;
-                        break;
-                    }
-                }
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.sendAudioChunk:AUDIO_PREP " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run9\",\"hypothesisId\":\"H2\",\"location\":\"GeminiLiveClient.java:sendAudioChunk\",\"message\":\"Audio chunk prepared\",\"data\":{\"audioSize\":" + 
-                    audioData.length + ",\"hasNonZeroBytes\":" + hasNonZero + ",\"messageStructure\":\"" + messageJson.substring(0, Math.min(200, messageJson.length())).replace("\"", "\\\"") + "...\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception e) {}
-            // #endregion
-            
-            webSocket.send(messageJson);
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.sendAudioChunk:AUDIO_SENT " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run9\",\"hypothesisId\":\"H4\",\"location\":\"GeminiLiveClient.java:sendAudioChunk\",\"message\":\"Audio chunk sent via WebSocket\",\"data\":{\"audioSize\":" + 
-                    audioData.length + ",\"base64Size\":" + base64Audio.length() + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception e) {}
-            // #endregion
+            // Send audio data using realtimeInput format (correct format for Gemini Live API).
+            // The server takes JSON in binary frames as well (it answers that way), which
+            // saves building a String just for OkHttp to encode it back to bytes.
+            frameEncoder.encode(audioData, offset, length);
+            webSocket.send(frameEncoder.frame());
             
         } catch (Exception e) {
             Log.e(TAG, "Error sending audio chunk", e);
@@ -372,221 +372,73 @@ public class GeminiLiveClient extends WebSocketListener {
         }
     }
     
-    private JSONArray createTools() {
-        try {
-            JSONArray tools = new JSONArray();
-            JSONObject functionDeclarations = new JSONObject();
-            JSONArray funcs;
-            
-            // Use AgentRegistry if available, otherwise fall back to manual definitions
-            if (agentRegistry != null) {
-                funcs = agentRegistry.getAllFunctionDeclarations();
-                Log.d(TAG, "Using AgentRegistry: " + funcs.length() + " functions");
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.createTools:AGENT_REGISTRY " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H6\",\"location\":\"GeminiLiveClient.java:createTools\",\"message\":\"Using AgentRegistry for tools\",\"data\":{\"functionCount\":" + 
-                        funcs.length() + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
-            } else {
-                funcs = createToolsManually();
-                Log.d(TAG, "Using manual tool definitions: " + funcs.length() + " functions");
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.createTools:MANUAL " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H6\",\"location\":\"GeminiLiveClient.java:createTools\",\"message\":\"Using manual tool definitions\",\"data\":{\"functionCount\":" + 
-                        funcs.length() + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
-            }
-            
-            functionDeclarations.put("function_declarations", funcs);
-            tools.put(functionDeclarations);
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.createTools:COMPLETE " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H6\",\"location\":\"GeminiLiveClient.java:createTools\",\"message\":\"Tools created\",\"data\":{\"functionCount\":" + 
-                    funcs.length() + ",\"toolsJson\":\"" + tools.toString().substring(0, Math.min(500, tools.toString().length())).replace("\"", "\\\"") + "...\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception e) {}
-            // #endregion
-            return tools;
-        } catch (org.json.JSONException e) {
-            Log.e(TAG, "Error creating tools", e);
-            return new JSONArray();
+    // The first message on every connection; tools and activity handling can only be set here
+    private void sendSetup() throws Exception {
+        JSONObject setupContent = new JSONObject();
+        // Use Live-enabled model name (Live API doesn't support trained models, use base model)
+        setupContent.put("model", "models/gemini-2.0-flash-exp");
+        
+        JSONObject genConfig = new JSONObject();
+        // Use response_modalities (plural) as array
+        genConfig.put("response_modalities", new JSONArray().put("AUDIO"));
+        
+        // Note: code_execution_config is NOT supported in Gemini Live API
+        // Function calling is controlled via tool_config instead
+        
+        JSONObject speechConfig = new JSONObject();
+        JSONObject voiceConfig = new JSONObject();
+        JSONObject prebuiltVoice = new JSONObject();
+        prebuiltVoice.put("voice_name", "Aoede");
+        voiceConfig.put("prebuilt_voice_config", prebuiltVoice);
+        speechConfig.put("voice_config", voiceConfig);
+        genConfig.put("speech_config", speechConfig);
+        setupContent.put("generation_config", genConfig);
+        
+        // Note: Gemini Live API doesn't support tool_config at setup level
+        // Function calling is enabled by simply providing tools array
+        
+        String[] available = availableFunctions();
+        ToolSelector.Mode mode = toolMode;
+        String[] toolNames = ToolSelector.getInstance().select(mode, SchemaRegistry.Dialect.LIVE, available);
+        String tools = SchemaRegistry.getInstance().getToolsJson(SchemaRegistry.Dialect.LIVE, toolNames);
+        ToolSelector.getInstance().record(ToolSelector.estimateTokens(SchemaRegistry.Dialect.LIVE, toolNames),
+            ToolSelector.estimateTokens(SchemaRegistry.Dialect.LIVE, available));
+        appliedToolMode = mode;
+        // Ask for resumption handles so tools can be swapped later without losing the conversation
+        String handle = resumptionHandle;
+        setupContent.put("session_resumption", handle != null ? new JSONObject().put("handle", handle) : new JSONObject());
+        if (manualActivityDetection) {
+            // Turns are delimited by our own activityStart/activityEnd; silence isn't sent
+            setupContent.put("realtime_input_config", new JSONObject()
+                .put("automatic_activity_detection", new JSONObject().put("disabled", true)));
         }
+        JSONObject systemInstruction = createSystemInstruction(currentScreenState, toolNames);
+        setupContent.put("system_instruction", systemInstruction);
+        // Splice the pre-serialized tools in rather than rebuilding them as a JSONObject tree
+        String setupJson = "{\"setup\":{\"tools\":" + tools + "," + setupContent.toString().substring(1) + "}";
+        
+        webSocket.send(setupJson);
+        setupSent = true;
+        Log.d(TAG, "Setup message sent (" + mode + ", " + toolNames.length + " tools, " + setupJson.length() + " chars)");
     }
     
-    private JSONArray createToolsManually() {
-        try {
-            JSONArray funcs = new JSONArray();
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.createTools:START " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:createTools\",\"message\":\"Creating tools array\",\"data\":{},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception e) {}
-            // #endregion
-            
-            // Tool: Click
-            // CRITICAL FIX: Use lowercase "type" and "string" to match TARS format
-            JSONObject clickTool = new JSONObject();
-            clickTool.put("name", "gui_click");
-            clickTool.put("description", "Click an element on the screen given its ID or text.");
-            JSONObject clickParams = new JSONObject();
-            clickParams.put("type", "object");  // lowercase "object"
-            JSONObject clickProps = new JSONObject();
-            JSONObject nodeIdProp = new JSONObject();
-            nodeIdProp.put("type", "string");  // lowercase "string"
-            nodeIdProp.put("description", "The resource ID or text of the node to click.");
-            clickProps.put("node_id", nodeIdProp);
-            clickParams.put("properties", clickProps);
-            clickParams.put("required", new JSONArray().put("node_id"));
-            clickTool.put("parameters", clickParams);
-            funcs.put(clickTool);
-            
-            // Tool: Type
-            JSONObject typeTool = new JSONObject();
-            typeTool.put("name", "gui_type");
-            typeTool.put("description", "Type text into an editable field.");
-            JSONObject typeParams = new JSONObject();
-            typeParams.put("type", "object");  // lowercase
-            JSONObject typeProps = new JSONObject();
-            typeProps.put("node_id", new JSONObject().put("type", "string"));  // lowercase
-            typeProps.put("text", new JSONObject().put("type", "string"));  // lowercase
-            typeParams.put("properties", typeProps);
-            typeParams.put("required", new JSONArray().put("node_id").put("text"));
-            typeTool.put("parameters", typeParams);
-            funcs.put(typeTool);
-            
-            // Tool: Scroll
-            JSONObject scrollTool = new JSONObject();
-            scrollTool.put("name", "gui_scroll");
-            scrollTool.put("description", "Scroll the screen up or down.");
-            JSONObject scrollParams = new JSONObject();
-            scrollParams.put("type", "object");  // lowercase
-            JSONObject scrollProps = new JSONObject();
-            JSONObject directionProp = new JSONObject();
-            directionProp.put("type", "string");  // lowercase
-            directionProp.put("enum", new JSONArray().put("UP").put("DOWN"));
-            scrollProps.put("direction", directionProp);
-            scrollParams.put("properties", scrollProps);
-            scrollParams.put("required", new JSONArray().put("direction"));
-            scrollTool.put("parameters", scrollParams);
-            funcs.put(scrollTool);
-            
-            // Tool: Memory Save
-            JSONObject memoryTool = new JSONObject();
-            memoryTool.put("name", "memory_save");
-            memoryTool.put("description", "Save important details like car info or ETA to memory.");
-            JSONObject memoryParams = new JSONObject();
-            memoryParams.put("type", "object");  // lowercase
-            JSONObject memoryProps = new JSONObject();
-            memoryProps.put("key", new JSONObject().put("type", "string"));  // lowercase
-            memoryProps.put("value", new JSONObject().put("type", "string"));  // lowercase
-            memoryProps.put("type", new JSONObject().put("type", "string").put("description", "Type of memory: UBER_RIDE, LOCATION, REMINDER, etc."));  // lowercase
-            memoryProps.put("trigger_time", new JSONObject().put("type", "number").put("description", "Unix timestamp when to recall this memory (optional)"));  // lowercase
-            memoryParams.put("properties", memoryProps);
-            memoryParams.put("required", new JSONArray().put("key").put("value"));
-            memoryTool.put("parameters", memoryParams);
-            funcs.put(memoryTool);
-            
-            // Tool: Memory Recall
-            JSONObject recallTool = new JSONObject();
-            recallTool.put("name", "memory_recall");
-            recallTool.put("description", "Recall saved information from memory by type.");
-            JSONObject recallParams = new JSONObject();
-            recallParams.put("type", "object");  // lowercase
-            JSONObject recallProps = new JSONObject();
-            recallProps.put("type", new JSONObject().put("type", "string").put("description", "Type of memory to recall: UBER_RIDE, LOCATION, REMINDER, etc."));  // lowercase
-            recallParams.put("properties", recallProps);
-            recallParams.put("required", new JSONArray().put("type"));
-            recallTool.put("parameters", recallParams);
-            funcs.put(recallTool);
-            
-            // Tool: Google Search
-            JSONObject searchTool = new JSONObject();
-            searchTool.put("name", "google_search");
-            searchTool.put("description", "Search Google for information.");
-            JSONObject searchParams = new JSONObject();
-            searchParams.put("type", "object");  // lowercase
-            JSONObject searchProps = new JSONObject();
-            searchProps.put("query", new JSONObject().put("type", "string").put("description", "The search query"));  // lowercase
-            searchParams.put("properties", searchProps);
-            searchParams.put("required", new JSONArray().put("query"));
-            searchTool.put("parameters", searchParams);
-            funcs.put(searchTool);
-            
-            // Tool: Maps Navigation
-            JSONObject mapsTool = new JSONObject();
-            mapsTool.put("name", "maps_navigation");
-            mapsTool.put("description", "Get walking directions to a destination using Google Maps.");
-            JSONObject mapsParams = new JSONObject();
-            mapsParams.put("type", "object");  // lowercase
-            JSONObject mapsProps = new JSONObject();
-            mapsProps.put("destination", new JSONObject().put("type", "string").put("description", "Destination address or place name"));  // lowercase
-            mapsParams.put("properties", mapsProps);
-            mapsParams.put("required", new JSONArray().put("destination"));
-            mapsTool.put("parameters", mapsParams);
-            funcs.put(mapsTool);
-            
-            // Tool: Get Location
-            JSONObject locationTool = new JSONObject();
-            locationTool.put("name", "get_location");
-            locationTool.put("description", "Get the user's current GPS location coordinates.");
-            locationTool.put("parameters", new JSONObject().put("type", "object").put("properties", new JSONObject()));  // lowercase
-            funcs.put(locationTool);
-            
-            // Tool: Weather (uses google_search internally)
-            JSONObject weatherTool = new JSONObject();
-            weatherTool.put("name", "weather");
-            weatherTool.put("description", "Get weather information for a specific location. This uses Google Search to find current weather data.");
-            JSONObject weatherParams = new JSONObject();
-            weatherParams.put("type", "object");  // lowercase
-            JSONObject weatherProps = new JSONObject();
-            weatherProps.put("location", new JSONObject().put("type", "string").put("description", "City name or location (e.g., 'Atlanta, GA' or 'New York')"));  // lowercase
-            weatherParams.put("properties", weatherProps);
-            weatherParams.put("required", new JSONArray().put("location"));
-            weatherTool.put("parameters", weatherParams);
-            funcs.put(weatherTool);
-            
-            // Tool: Open App
-            JSONObject openAppTool = new JSONObject();
-            openAppTool.put("name", "gui_open_app");
-            openAppTool.put("description", "Open an app on the phone by name. Use this when the user asks to open an app that's not currently visible on screen.");
-            JSONObject openAppParams = new JSONObject();
-            openAppParams.put("type", "object");  // lowercase
-            JSONObject openAppProps = new JSONObject();
-            openAppProps.put("app_name", new JSONObject().put("type", "string").put("description", "Name of the app to open (e.g., 'Messenger', 'Settings', 'Chrome')"));  // lowercase
-            openAppParams.put("properties", openAppProps);
-            openAppParams.put("required", new JSONArray().put("app_name"));
-            openAppTool.put("parameters", openAppParams);
-            funcs.put(openAppTool);
-            
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.createTools:COMPLETE " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:createTools\",\"message\":\"Tools created\",\"data\":{\"functionsCount\":" + 
-                    funcs.length() + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception e) {}
-            // #endregion
-            return funcs;
-        } catch (org.json.JSONException e) {
-            Log.e(TAG, "Error creating tools manually", e);
-            return new JSONArray();
-        }
+    // Functions something can execute in this session; the mode picks which of them to declare
+    private String[] availableFunctions() {
+        return agentRegistry != null ? agentRegistry.getAllFunctionNames() : SchemaRegistry.DEFAULT_FUNCTIONS;
     }
     
-    private JSONObject createSystemInstruction(String screenStateJson) {
+    // How to use each function, in instruction order; only the declared ones are mentioned
+    private static final String[][] TOOL_INSTRUCTIONS = {
+        {"gui_execute_plan", "- For anything done on the phone's screen (tapping, typing, scrolling, multi-step tasks), call gui_execute_plan with the user's goal; it works out and performs the steps itself"},
+        {"gui_open_app", "- If the user just wants an app opened, use gui_open_app to launch it"},
+        {"memory_save", "- If you need to save important information (like car details, ETAs), use memory_save"},
+        {"memory_recall", "- Use memory_recall to retrieve saved information when needed"},
+        {"google_search", "- Use google_search to find information on the web (including weather queries)"},
+        {"maps_navigation", "- Use maps_navigation to get directions to a location"},
+        {"get_location", "- Use get_location to find out where the user is"},
+    };
+
+    private JSONObject createSystemInstruction(String screenStateJson, String[] toolNames) {
         try {
             JSONObject instruction = new JSONObject();
             JSONArray parts = new JSONArray();
@@ -599,15 +451,9 @@ public class GeminiLiveClient extends WebSocketListener {
                 "- You're helpful: always focus on solving the user's problem, even while being entertaining\n\n" +
                 "Current Screen State (JSON): " + screenStateJson + "\n\n" +
                 "Instructions:\n" +
-                "- For GUI tasks (clicking, typing, scrolling), use the gui_click, gui_type, or gui_scroll functions as needed\n" +
-                "- Analyze the current screen state JSON to find the right elements by their IDs or text\n" +
-                "- If the user asks to open an app that's NOT on the current screen, use gui_open_app to launch it first\n" +
+                "- Use the current screen state JSON to understand what the user is looking at\n" +
+                toolInstructions(toolNames) +
                 "- Always provide helpful feedback in your responses with your American joker personality\n" +
-                "- If you need to save important information (like car details, ETAs), use memory_save\n" +
-                "- Use memory_recall to retrieve saved information when needed\n" +
-                "- Use google_search to find information on the web (including weather queries)\n" +
-                "- Use maps_navigation to get directions to a location\n" +
-                "- Use get_location to find out where the user is\n" +
                 "- Remember: be witty and fun, but always respectful and helpful");
             parts.put(textPart);
             instruction.put("parts", parts);
@@ -618,6 +464,18 @@ public class GeminiLiveClient extends WebSocketListener {
         }
     }
     
+    // Instruction lines for the functions this setup declares
+    private static String toolInstructions(String[] toolNames) {
+        java.util.List<String> declared = java.util.Arrays.asList(toolNames);
+        StringBuilder lines = new StringBuilder();
+        for (String[] entry : TOOL_INSTRUCTIONS) {
+            if (declared.contains(entry[0])) {
+                lines.append(entry[1]).append('\n');
+            }
+        }
+        return lines.toString();
+    }
+
     public void stopSession() {
         if (webSocket != null) {
             webSocket.close(1000, "Session ended");
@@ -626,10 +484,34 @@ public class GeminiLiveClient extends WebSocketListener {
         isConnected = false;
         sessionId = null;
         setupSent = false;
+        synchronized (this) {
+            // A new session starts clean, in whatever mode is current
+            resumptionHandle = null;
+            pendingToolCalls.clear();
+            cancelledToolCalls.clear();
+            modelTurnActive = false;
+            swappingTools = false;
+        }
+    }
+    
+    // Events from any socket other than the current one (replaced by a tool swap, or closed by
+    // stopSession) are stale and must not touch the session
+    private synchronized boolean isCurrent(WebSocket socket) {
+        return socket == webSocket;
     }
     
     @Override
     public void onOpen(WebSocket webSocket, Response response) {
+        synchronized (this) {
+            if (webSocket != this.webSocket) return;
+            if (swappingTools) {
+                // Resumed with new tools; the session carries on, no need to tell the UI
+                swappingTools = false;
+                isConnected = true;
+                Log.d(TAG, "Reconnected for " + toolMode + " tools");
+                return;
+            }
+        }
         // #region agent log
         Log.d(TAG, "===== HYPOTHESIS A: WebSocket onOpen called =====");
         Log.d(TAG, "Response code: " + (response != null ? response.code() : "null"));
@@ -694,161 +576,35 @@ public class GeminiLiveClient extends WebSocketListener {
     
     @Override
     public void onMessage(WebSocket webSocket, String text) {
-        // #region agent log
-        Log.d(TAG, "===== HYPOTHESIS C: Message received from Gemini =====");
-        Log.d(TAG, "Message length: " + (text != null ? text.length() : 0));
-        Log.d(TAG, "Message preview (first 500 chars): " + (text != null ? text.substring(0, Math.min(500, text.length())) : "null"));
-        Log.d(TAG, "Contains 'functionCall': " + (text != null && text.contains("functionCall")));
-        Log.d(TAG, "Contains 'functionCalls': " + (text != null && text.contains("functionCalls")));
-        // #endregion
-        
-        // #region agent log
-        try {
-            java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-            String preview = text != null && text.length() > 0 ? text.substring(0, Math.min(500, text.length())).replace("\"", "\\\"") : "null";
-            boolean hasAudio = text != null && (text.contains("audio") || text.contains("data") || text.contains("base64"));
-            fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.onMessage:TEXT_RECEIVED " + 
-                "{\"sessionId\":\"debug-session\",\"runId\":\"run12\",\"hypothesisId\":\"C\",\"location\":\"GeminiLiveClient.java:onMessage\",\"message\":\"Text message from Gemini\",\"data\":{\"messageLength\":" + 
-                (text != null ? text.length() : 0) + ",\"hasAudioFields\":" + hasAudio + ",\"preview\":\"" + preview + "...\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-            fw.close();
-        } catch (Exception ex) {}
-        // #endregion
-        try {
-            JSONObject message = new JSONObject(text);
-            // Check if message contains audio data in JSON format
-            if (message.has("serverContent") || message.has("modelTurn")) {
-                JSONObject serverContent = message.optJSONObject("serverContent");
-                if (serverContent == null && message.has("modelTurn")) {
-                    JSONObject modelTurn = message.getJSONObject("modelTurn");
-                    if (modelTurn.has("parts")) {
-                        JSONArray parts = modelTurn.getJSONArray("parts");
-                        for (int i = 0; i < parts.length(); i++) {
-                            JSONObject part = parts.getJSONObject(i);
-                            if (part.has("inlineData")) {
-                                JSONObject inlineData = part.getJSONObject("inlineData");
-                                if (inlineData.has("data") && inlineData.optString("mimeType", "").startsWith("audio/")) {
-                                    // Audio data in base64 format
-                                    String base64Audio = inlineData.getString("data");
-                                    byte[] audioBytes = android.util.Base64.decode(base64Audio, android.util.Base64.NO_WRAP);
-                                    // #region agent log
-                                    try {
-                                        java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                        fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.onMessage:AUDIO_IN_JSON " + 
-                                            "{\"sessionId\":\"debug-session\",\"runId\":\"run12\",\"hypothesisId\":\"AUDIO_FORMAT\",\"location\":\"GeminiLiveClient.java:onMessage\",\"message\":\"Found audio in JSON message\",\"data\":{\"audioSize\":" + 
-                                            audioBytes.length + ",\"mimeType\":\"" + inlineData.optString("mimeType", "unknown") + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                        fw.close();
-                                    } catch (Exception ex) {}
-                                    // #endregion
-                                    if (callback != null) {
-                                        callback.onAudioChunk(audioBytes);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            // Log full message structure to see function calls
-            boolean hasFunctionCalls = message.toString().contains("functionCalls") || message.toString().contains("functionCall");
-            if (hasFunctionCalls) {
-                Log.d(TAG, "=== MESSAGE WITH FUNCTION CALLS ===");
-                Log.d(TAG, "Full message: " + message.toString());
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.onMessage:FUNCTION_CALLS_DETECTED " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"FC1\",\"location\":\"GeminiLiveClient.java:onMessage\",\"message\":\"Function calls detected in message\",\"data\":{\"messageLength\":" + 
-                        (text != null ? text.length() : 0) + ",\"hasFunctionCalls\":true,\"messagePreview\":\"" + (text != null && text.length() > 0 ? text.substring(0, Math.min(1000, text.length())).replace("\"", "\\\"").replace("\n", "\\n") : "null") + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
-            } else {
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.onMessage:NO_FUNCTION_CALLS " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"FC1\",\"location\":\"GeminiLiveClient.java:onMessage\",\"message\":\"No function calls in message\",\"data\":{\"messageLength\":" + 
-                        (text != null ? text.length() : 0) + ",\"hasFunctionCalls\":false},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
-            }
-            handleServerMessage(message);
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing message", e);
-            Log.e(TAG, "Message that failed: " + text);
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.onMessage:PARSE_ERROR " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run12\",\"hypothesisId\":\"AUDIO_FORMAT\",\"location\":\"GeminiLiveClient.java:onMessage\",\"message\":\"Error parsing message\",\"data\":{\"error\":\"" + 
-                    e.getMessage() + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception ex) {}
-            // #endregion
-        }
+        if (!isCurrent(webSocket)) return;
+        dispatch(ByteString.encodeUtf8(text));
     }
     
     @Override
     public void onMessage(WebSocket webSocket, ByteString bytes) {
-        // Handle binary audio data - but check if it's actually JSON text first
-        byte[] dataBytes = bytes != null ? bytes.toByteArray() : new byte[0];
-        Log.d(TAG, "Received binary message: " + dataBytes.length + " bytes");
-        
-        // Check if this is actually JSON text (starts with '{' or '[')
-        if (dataBytes.length > 0 && (dataBytes[0] == '{' || dataBytes[0] == '[')) {
-            // This is JSON text, not binary audio - parse it
-            try {
-                String jsonText = new String(dataBytes, java.nio.charset.StandardCharsets.UTF_8);
-                Log.d(TAG, "Binary message is actually JSON, parsing: " + jsonText.substring(0, Math.min(200, jsonText.length())));
-                // Log if contains function calls
-                if (jsonText.contains("functionCalls") || jsonText.contains("functionCall")) {
-                    Log.d(TAG, "=== BINARY JSON WITH FUNCTION CALLS ===");
-                    Log.d(TAG, "Full JSON: " + jsonText);
-                }
-                JSONObject message = new JSONObject(jsonText);
-                handleServerMessage(message);
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing JSON from binary message", e);
-            }
+        if (!isCurrent(webSocket)) return;
+        if (bytes.size() > 0 && bytes.getByte(0) == '{') {
+            dispatch(bytes);
             return;
         }
-        
-        // This is actual binary audio data
-        byte[] audioBytes = dataBytes;
-        Log.d(TAG, "Received binary audio: " + audioBytes.length + " bytes");
-        // #region agent log
+        // Anything that isn't JSON is raw PCM
+        if (callback != null && bytes.size() > 0) {
+            callback.onAudioChunk(bytes.toByteArray());
+        }
+    }
+    
+    // Every JSON frame, text or binary, is read once by serverDecoder into serverEvents
+    private void dispatch(ByteString frame) {
         try {
-            java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-            // Analyze first few bytes to check if it's valid PCM
-            String firstBytes = "";
-            int minLen = Math.min(audioBytes.length, 20);
-            for (int i = 0; i < minLen; i++) {
-                firstBytes += String.format("%02X ", audioBytes[i] & 0xFF);
-            }
-            // Check if data looks like PCM (should have variation, not all zeros or all same)
-            boolean allZeros = true;
-            boolean allSame = true;
-            if (audioBytes.length > 0) {
-                byte first = audioBytes[0];
-                for (int i = 0; i < Math.min(audioBytes.length, 100); i++) {
-                    if (audioBytes[i] != 0) allZeros = false;
-                    if (audioBytes[i] != first) allSame = false;
-                }
-            }
-            fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.onMessage:BINARY_RECEIVED " + 
-                "{\"sessionId\":\"debug-session\",\"runId\":\"run12\",\"hypothesisId\":\"AUDIO_FORMAT\",\"location\":\"GeminiLiveClient.java:onMessage\",\"message\":\"Binary audio message from Gemini\",\"data\":{\"bytesSize\":" + 
-                audioBytes.length + ",\"firstBytes\":\"" + firstBytes.trim() + "\",\"allZeros\":" + allZeros + ",\"allSame\":" + allSame + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-            fw.close();
-        } catch (Exception ex) {}
-        // #endregion
-        if (callback != null && audioBytes.length > 0) {
-            callback.onAudioChunk(audioBytes);
+            serverDecoder.decode(frame.asByteBuffer(), serverEvents);
+        } catch (IOException e) {
+            Log.e(TAG, "Error parsing server message (" + frame.size() + " bytes)", e);
         }
     }
     
     @Override
     public void onClosing(WebSocket webSocket, int code, String reason) {
+        if (!isCurrent(webSocket)) return;
         Log.d(TAG, "WebSocket closing: " + reason);
         // #region agent log
         try {
@@ -864,6 +620,7 @@ public class GeminiLiveClient extends WebSocketListener {
     
     @Override
     public void onClosed(WebSocket webSocket, int code, String reason) {
+        if (!isCurrent(webSocket)) return;
         Log.d(TAG, "WebSocket closed");
         // #region agent log
         try {
@@ -875,6 +632,7 @@ public class GeminiLiveClient extends WebSocketListener {
         } catch (Exception e) {}
         // #endregion
         isConnected = false;
+        connectionLost(webSocket);
         if (callback != null) {
             callback.onDisconnected();
         }
@@ -882,6 +640,7 @@ public class GeminiLiveClient extends WebSocketListener {
     
     @Override
     public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+        if (!isCurrent(webSocket)) return;
         // #region agent log
         Log.e(TAG, "===== HYPOTHESIS A: WebSocket FAILURE =====");
         Log.e(TAG, "Error: " + (t != null ? t.getMessage() : "null"));
@@ -931,6 +690,7 @@ public class GeminiLiveClient extends WebSocketListener {
         }
         // #endregion
         isConnected = false;
+        connectionLost(webSocket);
         // #region agent log
         try {
             java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
@@ -945,461 +705,94 @@ public class GeminiLiveClient extends WebSocketListener {
         }
     }
     
-    private void handleServerMessage(JSONObject message) {
-        // Log message structure for debugging
-        Log.d(TAG, "Handling server message. Keys: " + message.keys());
-        Log.d(TAG, "Message preview: " + message.toString().substring(0, Math.min(1000, message.toString().length())));
+    private synchronized void modelTurnStarted() {
+        modelTurnActive = true;
+    }
+    
+    private synchronized void modelTurnEnded() {
+        modelTurnActive = false;
+        maybeSwapTools();
+    }
+    
+    private final ServerMessageDecoder.Listener serverEvents = new ServerMessageDecoder.Listener() {
+        @Override
+        public void onSetupComplete() {
+            Log.d(TAG, "Setup complete");
+        }
         
-        // #region agent log
-        try {
-            java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-            java.util.Iterator<String> keysIter = message.keys();
-            java.util.ArrayList<String> keysList = new java.util.ArrayList<>();
-            while (keysIter.hasNext()) {
-                keysList.add(keysIter.next());
-            }
-            String keys = String.join(",", keysList);
-            String fullMessage = message.toString().substring(0, Math.min(500, message.toString().length()));
-            fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:ENTRY " + 
-                "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Handling server message\",\"data\":{\"hasModelTurn\":" + 
-                message.has("model_turn") + ",\"hasSetupComplete\":" + message.has("setupComplete") + ",\"hasServerContent\":" + message.has("serverContent") + ",\"hasFunctionCalls\":" + message.has("functionCalls") + ",\"messageKeys\":\"" + keys + "\",\"messagePreview\":\"" + fullMessage.replace("\"", "\\\"") + "...\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-            fw.close();
-        } catch (Exception ex) {
-            Log.e(TAG, "Error logging message entry", ex);
+        @Override
+        public void onModelTurn() {
+            modelTurnStarted();
         }
-        // #endregion
-        try {
-            // Check for toolCall wrapper (Gemini Live API format)
-            if (message.has("toolCall")) {
-                Log.d(TAG, "===== Found toolCall wrapper =====");
-                JSONObject toolCall = message.getJSONObject("toolCall");
-                if (toolCall.has("functionCalls")) {
-                    JSONArray functionCalls = toolCall.getJSONArray("functionCalls");
-                    Log.d(TAG, "Found " + functionCalls.length() + " function calls in toolCall");
-                    
-                    for (int i = 0; i < functionCalls.length(); i++) {
-                        JSONObject fnCall = functionCalls.getJSONObject(i);
-                        String name = fnCall.getString("name");
-                        JSONObject args = fnCall.optJSONObject("args");
-                        if (args == null) {
-                            args = new JSONObject();
-                        }
-                        String callId = fnCall.optString("id", null);
-                        
-                        Log.d(TAG, "toolCall function: " + name + " id: " + callId);
-                        if (callback != null) {
-                            try {
-                                callback.onFunctionCall(name, args, callId);
-                                Log.d(TAG, "toolCall function executed: " + name);
-                            } catch (Throwable t) {
-                                Log.e(TAG, "Error executing toolCall function: " + name, t);
-                            }
-                        }
-                    }
+        
+        @Override
+        public void onAudioChunk(ByteBuffer frame, int start, int end) {
+            // Model audio goes from the frame straight into the playback ring
+            PlaybackEngine engine = playbackEngine;
+            if (engine != null) {
+                if (engine.isMuted()) return;
+                if (audioDecoder.decodeInto(frame, start, end, engine.ring()) < 0) {
+                    Log.w(TAG, "Playback ring full, dropped audio chunk (" + audioDecoder.getDroppedBytes() + " bytes so far)");
                 }
-                return; // toolCall handled, return early
+                engine.wake();
+                return;
             }
-            
-            // Check for functionCalls array at top level (new format)
-            if (message.has("functionCalls")) {
-                // #region agent log
-                Log.d(TAG, "===== HYPOTHESIS D: Function call DETECTED at top level =====");
-                Log.d(TAG, "Found functionCalls array at top level");
-                // #endregion
-                
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:TOP_LEVEL_FUNCTIONCALLS " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"D\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Found functionCalls at top level\",\"data\":{},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception e) {}
-                // #endregion
-                JSONArray functionCalls = message.getJSONArray("functionCalls");
-                
-                // #region agent log
-                Log.d(TAG, "Number of function calls: " + functionCalls.length());
-                // #endregion
-                
-                for (int i = 0; i < functionCalls.length(); i++) {
-                    JSONObject fnCall = functionCalls.getJSONObject(i);
-                    String name = fnCall.getString("name");
-                    JSONObject args = fnCall.optJSONObject("args");
-                    if (args == null) {
-                        args = new JSONObject();
-                    }
-                    String callId = fnCall.optString("id", null);
-                    if (callId == null || callId.isEmpty()) {
-                        callId = fnCall.optString("callId", null);
-                    }
-                    
-                    // #region agent log
-                    Log.d(TAG, "Function call #" + i + ": " + name);
-                    Log.d(TAG, "Args: " + args.toString());
-                    Log.d(TAG, "Call ID: " + callId);
-                    Log.d(TAG, "Callback null? " + (callback == null));
-                    // #endregion
-                    
-                    Log.d(TAG, "Processing function call: " + name + " with args: " + args + " id: " + callId);
-                    // #region agent log
-                    try {
-                        java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                        fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:PROCESSING_TOP_LEVEL " + 
-                            "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"FC2\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Processing top-level function call\",\"data\":{\"functionName\":\"" + 
-                            name + "\",\"callId\":\"" + (callId != null ? callId : "null") + "\",\"callbackNull\":" + (callback == null) + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                        fw.close();
-                    } catch (Exception e) {}
-                    // #endregion
-                    if (callback != null) {
-                        // #region agent log
-                        Log.d(TAG, "===== HYPOTHESIS D: About to invoke callback =====");
-                        Log.d(TAG, "Invoking callback.onFunctionCall()");
-                        // #endregion
-                        
-                        try {
-                            callback.onFunctionCall(name, args, callId);
-                            
-                            // #region agent log
-                            Log.d(TAG, "Callback invoked successfully for: " + name);
-                            Log.d(TAG, "===== END HYPOTHESIS D SUCCESS =====");
-                            // #endregion
-                            
-                            // #region agent log
-                            try {
-                                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:CALLBACK_INVOKED_TOP " + 
-                                    "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"D\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Callback invoked for top-level function call\",\"data\":{\"functionName\":\"" + 
-                                    name + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                fw.close();
-                            } catch (Exception e) {}
-                            // #endregion
-                        } catch (Throwable t) {
-                            // #region agent log
-                            Log.e(TAG, "===== HYPOTHESIS D: Callback FAILED =====");
-                            Log.e(TAG, "Error: " + t.getMessage(), t);
-                            // #endregion
-                            
-                            Log.e(TAG, "Error invoking onFunctionCall from functionCalls array", t);
-                            // #region agent log
-                            try {
-                                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:CALLBACK_ERROR_TOP " + 
-                                    "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"FC2\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Error invoking callback\",\"data\":{\"functionName\":\"" + 
-                                    name + "\",\"error\":\"" + t.getMessage() + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                fw.close();
-                            } catch (Exception e) {}
-                            // #endregion
-                        }
-                    } else {
-                        // #region agent log
-                        try {
-                            java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                            fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:CALLBACK_NULL_TOP " + 
-                                "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"FC2\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Callback is null, cannot invoke\",\"data\":{\"functionName\":\"" + 
-                                name + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                            fw.close();
-                        } catch (Exception e) {}
-                        // #endregion
-                    }
-                }
+            byte[] audioBytes = audioDecoder.decode(frame, start, end);
+            if (callback != null && audioBytes.length > 0) {
+                callback.onAudioChunk(audioBytes);
             }
-            // Check for setupComplete message
-            if (message.has("setupComplete")) {
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:SETUP_COMPLETE " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run10\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Setup complete received\",\"data\":{},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception ex) {}
-                // #endregion
-                Log.d(TAG, "Setup complete");
+        }
+        
+        @Override
+        public void onText(String text) {
+            if (callback != null) {
+                callback.onTextResponse(text);
             }
-            
-            // Handle serverContent (contains audio data in base64)
-            if (message.has("serverContent")) {
-                JSONObject serverContent = message.getJSONObject("serverContent");
-                if (serverContent.has("modelTurn")) {
-                    JSONObject modelTurn = serverContent.getJSONObject("modelTurn");
-                    if (modelTurn.has("parts")) {
-                        JSONArray parts = modelTurn.getJSONArray("parts");
-                        for (int i = 0; i < parts.length(); i++) {
-                            JSONObject part = parts.getJSONObject(i);
-                            
-                            // Check for inlineData with audio
-                            if (part.has("inlineData")) {
-                                JSONObject inlineData = part.getJSONObject("inlineData");
-                                String mimeType = inlineData.optString("mimeType", "");
-                                if (mimeType.startsWith("audio/") && inlineData.has("data")) {
-                                    // Extract base64 audio data
-                                    String base64Audio = inlineData.getString("data");
-                                    byte[] audioBytes = android.util.Base64.decode(base64Audio, android.util.Base64.NO_WRAP);
-                                    Log.d(TAG, "Extracted audio from serverContent: " + audioBytes.length + " bytes, mimeType: " + mimeType);
-                                    if (callback != null && audioBytes.length > 0) {
-                                        callback.onAudioChunk(audioBytes);
-                                    }
-                                }
-                            }
-                            
-                            // Check for text
-                            if (part.has("text")) {
-                                String text = part.getString("text");
-                                if (callback != null) {
-                                    callback.onTextResponse(text);
-                                }
-                            }
-                            
-                            // Check for function call
-                            if (part.has("functionCall")) {
-                                JSONObject fn = part.getJSONObject("functionCall");
-                                String name = fn.getString("name");
-                                JSONObject args = fn.optJSONObject("args");
-                                if (args == null) {
-                                    args = new JSONObject();
-                                }
-                                // #region agent log
-                                try {
-                                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:FUNCTION_CALL_SERVERCONTENT " + 
-                                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H1\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Function call found in serverContent\",\"data\":{\"functionName\":\"" + 
-                                        name + "\",\"args\":\"" + args.toString().replace("\"", "\\\"") + "\",\"callbackNull\":" + (callback == null) + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                    fw.close();
-                                } catch (Exception ex) {}
-                                // #endregion
-                                if (callback != null) {
-                                    // #region agent log
-                                    try {
-                                        java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                        fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:CALLBACK_INVOKE " + 
-                                            "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H5\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Invoking onFunctionCall callback\",\"data\":{\"functionName\":\"" + 
-                                            name + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                        fw.close();
-                                    } catch (Exception ex) {}
-                                    // #endregion
-                                    try {
-                                        String callId = fn.optString("id", null);
-                                        if (callId == null || callId.isEmpty()) {
-                                            callId = fn.optString("callId", null);
-                                        }
-                                        callback.onFunctionCall(name, args, callId);
-                                    } catch (Throwable t) {
-                                        Log.e(TAG, "Error invoking onFunctionCall callback", t);
-                                        // #region agent log
-                                        try {
-                                            java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                            fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:CALLBACK_ERROR " + 
-                                                "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H5\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Error in callback\",\"data\":{\"functionName\":\"" + 
-                                                name + "\",\"error\":\"" + t.getMessage() + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                            fw.close();
-                                        } catch (Exception ex) {}
-                                        // #endregion
-                                    }
-                                }
-                            } else {
-                                // #region agent log
-                                try {
-                                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                    java.util.Iterator<String> partKeys = part.keys();
-                                    java.util.ArrayList<String> partKeyList = new java.util.ArrayList<>();
-                                    while (partKeys.hasNext()) {
-                                        partKeyList.add(partKeys.next());
-                                    }
-                                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:PART_NO_FUNCTIONCALL " + 
-                                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H1\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Part has no functionCall\",\"data\":{\"partKeys\":\"" + 
-                                        String.join(",", partKeyList) + "\",\"hasText\":" + part.has("text") + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                    fw.close();
-                                } catch (Exception ex) {}
-                                // #endregion
-                            }
-                        }
-                    }
-                }
+        }
+        
+        @Override
+        public void onToolCall(String name, JSONObject args, String callId) {
+            Log.d(TAG, "Function call: " + name + " id: " + callId);
+            if (callback == null) return;
+            try {
+                deliverFunctionCall(name, args, callId);
+            } catch (Throwable t) {
+                Log.e(TAG, "Error invoking onFunctionCall callback: " + name, t);
             }
-            
-            // Handle different message types from Gemini Live
-            // Check both model_turn (snake_case) and modelTurn (camelCase)
-            JSONObject modelTurn = null;
-            if (message.has("model_turn")) {
-                modelTurn = message.getJSONObject("model_turn");
-                Log.d(TAG, "Found model_turn (snake_case)");
-            } else if (message.has("modelTurn")) {
-                modelTurn = message.getJSONObject("modelTurn");
-                Log.d(TAG, "Found modelTurn (camelCase)");
+        }
+        
+        @Override
+        public void onToolCallCancelled(String callId) {
+            Log.d(TAG, "Function call cancelled: " + callId);
+            toolCallCancelled(callId);
+        }
+        
+        @Override
+        public void onInterrupted() {
+            modelTurnEnded();
+            if (callback != null) {
+                callback.onInterrupted();
             }
-            
-            if (modelTurn != null) {
-                Log.d(TAG, "Processing modelTurn, keys: " + modelTurn.keys());
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:MODEL_TURN " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Found model_turn/modelTurn\",\"data\":{\"hasParts\":" + 
-                        modelTurn.has("parts") + ",\"hasFunctionCalls\":" + modelTurn.has("functionCalls") + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception ex) {}
-                // #endregion
-                
-                // Check for functionCalls at modelTurn level
-                if (modelTurn.has("functionCalls")) {
-                    Log.d(TAG, "Found functionCalls array in modelTurn");
-                    JSONArray functionCalls = modelTurn.getJSONArray("functionCalls");
-                    for (int j = 0; j < functionCalls.length(); j++) {
-                        JSONObject fnCall = functionCalls.getJSONObject(j);
-                        String name = fnCall.getString("name");
-                        JSONObject args = fnCall.optJSONObject("args");
-                        if (args == null) {
-                            args = new JSONObject();
-                        }
-                        String callId = fnCall.optString("id", null);
-                        if (callId == null || callId.isEmpty()) {
-                            callId = fnCall.optString("callId", null);
-                        }
-                        Log.d(TAG, "Processing function call from modelTurn.functionCalls: " + name + " with args: " + args + " id: " + callId);
-                        if (callback != null) {
-                            try {
-                                callback.onFunctionCall(name, args, callId);
-                            } catch (Throwable t) {
-                                Log.e(TAG, "Error invoking onFunctionCall from modelTurn.functionCalls", t);
-                            }
-                        }
-                    }
-                }
-                
-                if (modelTurn.has("parts")) {
-                    JSONArray parts = modelTurn.getJSONArray("parts");
-                    // #region agent log
-                    try {
-                        java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                        fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:PARTS_FOUND " + 
-                            "{\"sessionId\":\"debug-session\",\"runId\":\"run8\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Processing parts\",\"data\":{\"partsCount\":" + 
-                            parts.length() + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                        fw.close();
-                    } catch (Exception ex) {}
-                    // #endregion
-                    for (int i = 0; i < parts.length(); i++) {
-                        JSONObject part = parts.getJSONObject(i);
-                        
-                        // Log part structure
-                        Log.d(TAG, "Processing part " + i + ", keys: " + part.keys());
-                        
-                        // Check for functionCalls array in part
-                        if (part.has("functionCalls")) {
-                            Log.d(TAG, "Found functionCalls array in part");
-                            JSONArray functionCalls = part.getJSONArray("functionCalls");
-                            for (int j = 0; j < functionCalls.length(); j++) {
-                                JSONObject fnCall = functionCalls.getJSONObject(j);
-                                String name = fnCall.getString("name");
-                                JSONObject args = fnCall.optJSONObject("args");
-                                if (args == null) {
-                                    args = new JSONObject();
-                                }
-                                String callId = fnCall.optString("id", null);
-                                if (callId == null || callId.isEmpty()) {
-                                    callId = fnCall.optString("callId", null);
-                                }
-                                Log.d(TAG, "Processing function call from array: " + name + " with args: " + args + " id: " + callId);
-                                if (callback != null) {
-                                    try {
-                                        callback.onFunctionCall(name, args, callId);
-                                    } catch (Throwable t) {
-                                        Log.e(TAG, "Error invoking onFunctionCall from functionCalls array in part", t);
-                                    }
-                                }
-                            }
-                        }
-                        
-                        // Check for function call (singular)
-                        if (part.has("functionCall")) {
-                            Log.d(TAG, "Found functionCall (singular) in part");
-                            JSONObject fn = part.getJSONObject("functionCall");
-                            String name = fn.getString("name");
-                            JSONObject args = fn.optJSONObject("args");
-                            if (args == null) {
-                                args = new JSONObject();
-                            }
-                            String callId = fn.optString("id", null);
-                            if (callId == null || callId.isEmpty()) {
-                                callId = fn.optString("callId", null);
-                            }
-                            Log.d(TAG, "Function call in modelTurn part: " + name + " id: " + callId);
-                            // #region agent log
-                            try {
-                                android.util.Log.d("GeminiLiveClient", "FUNCTION_CALL_MODELTURN: " + name + " id:" + callId + " args:" + args.toString());
-                            } catch (Exception ex) {}
-                            // #endregion
-                            if (callback != null) {
-                                // #region agent log
-                                try {
-                                    android.util.Log.d("GeminiLiveClient", "CALLBACK_INVOKE_MODELTURN: " + name);
-                                } catch (Exception ex) {}
-                                // #endregion
-                                try {
-                                    callback.onFunctionCall(name, args, callId);
-                                } catch (Throwable t) {
-                                    Log.e(TAG, "Error invoking onFunctionCall callback from model_turn", t);
-                                    // #region agent log
-                                    try {
-                                        android.util.Log.e("GeminiLiveClient", "CALLBACK_ERROR_MODELTURN: " + name + " error: " + t.getMessage());
-                                    } catch (Exception ex) {}
-                                    // #endregion
-                                }
-                            }
-                        } else {
-                            // #region agent log
-                            try {
-                                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                java.util.Iterator<String> partKeys = part.keys();
-                                java.util.ArrayList<String> partKeyList = new java.util.ArrayList<>();
-                                while (partKeys.hasNext()) {
-                                    partKeyList.add(partKeys.next());
-                                }
-                                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:PART_NO_FUNCTIONCALL_MODELTURN " + 
-                                    "{\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"H2\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Part in model_turn has no functionCall\",\"data\":{\"partKeys\":\"" + 
-                                    String.join(",", partKeyList) + "\",\"hasText\":" + part.has("text") + "},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                fw.close();
-                            } catch (Exception ex) {}
-                            // #endregion
-                        }
-                        
-                        // Check for text response
-                        if (part.has("text")) {
-                            String text = part.getString("text");
-                            // #region agent log
-                            try {
-                                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:TEXT_RESPONSE " + 
-                                    "{\"sessionId\":\"debug-session\",\"runId\":\"run8\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Text response found\",\"data\":{\"textLength\":" + 
-                                    text.length() + ",\"textPreview\":\"" + text.substring(0, Math.min(50, text.length())).replace("\"", "\\\"") + "...\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                                fw.close();
-                            } catch (Exception ex) {}
-                            // #endregion
-                            if (callback != null) {
-                                callback.onTextResponse(text);
-                            }
-                        }
-                    }
-                }
-            } else {
-                // #region agent log
-                try {
-                    java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                    fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:NO_MODEL_TURN " + 
-                        "{\"sessionId\":\"debug-session\",\"runId\":\"run8\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Message has no model_turn\",\"data\":{},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                    fw.close();
-                } catch (Exception ex) {}
-                // #endregion
+        }
+        
+        @Override
+        public void onTurnComplete() {
+            modelTurnEnded();
+            if (callback != null) {
+                callback.onTurnComplete();
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error handling server message", e);
-            // #region agent log
-            try {
-                java.io.FileWriter fw = new java.io.FileWriter("/Users/matedort/NexHacks/.cursor/debug.log", true);
-                fw.write(java.util.UUID.randomUUID().toString() + " " + System.currentTimeMillis() + " GeminiLiveClient.handleServerMessage:ERROR " + 
-                    "{\"sessionId\":\"debug-session\",\"runId\":\"run8\",\"hypothesisId\":\"H3\",\"location\":\"GeminiLiveClient.java:handleServerMessage\",\"message\":\"Error handling message\",\"data\":{\"error\":\"" + 
-                    e.getMessage() + "\"},\"timestamp\":" + System.currentTimeMillis() + "}\n");
-                fw.close();
-            } catch (Exception ex) {}
-            // #endregion
         }
-    }
+        
+        @Override
+        public void onUsage(JSONObject usageMetadata) {
+            // Live sends usageMetadata alongside server content once a response is generated
+            TokenMeter.getInstance().record("live", usageMetadata, false);
+        }
+        
+        @Override
+        public void onResumptionHandle(String handle) {
+            // Newest handle to resume this session from (used when swapping tools)
+            resumptionHandle = handle;
+        }
+    };
 }
@@ -0,0 +1,248 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+// Assembles the text of a generateContent prompt: the screen state goes in exactly once,
+// and goal + instructions + history + screen are kept inside a token budget.
+// Constant text is held as Fragments whose JSON-escaped bytes are built once and reused.
+public class PromptBuilder {
+    private static final String TAG = "PromptBuilder";
+    // Rough estimate used for budgeting; Gemini averages ~4 characters per token for English/JSON
+    public static final int CHARS_PER_TOKEN = 4;
+    public static final int DEFAULT_TOKEN_BUDGET = 6000;
+
+    // Constant prompt text, pre-encoded as JSON string content (no surrounding quotes)
+    public static final class Fragment {
+        final String text;
+        final byte[] escaped;
+
+        public Fragment(String text) {
+            this.text = text;
+            this.escaped = escape(text);
+        }
+    }
+
+    private final int tokenBudget;
+    private final List<Object> head = new ArrayList<>();
+    private final List<Object> tail = new ArrayList<>();
+    private final List<String> history = new ArrayList<>();
+    private String historyLabel = "Previous steps:\n";
+    private String screenLabel = "Current Screen State (JSON): ";
+    private String screenState;
+
+    public PromptBuilder(int tokenBudget) {
+        this.tokenBudget = tokenBudget;
+    }
+
+    public PromptBuilder() {
+        this(DEFAULT_TOKEN_BUDGET);
+    }
+
+    // Text placed before the history and screen (header, goal, task instructions)
+    public PromptBuilder add(Fragment fragment) {
+        head.add(fragment);
+        return this;
+    }
+
+    public PromptBuilder add(String text) {
+        head.add(text);
+        return this;
+    }
+
+    // Text placed after the screen (closing instructions)
+    public PromptBuilder addAfterScreen(Fragment fragment) {
+        tail.add(fragment);
+        return this;
+    }
+
+    public PromptBuilder addAfterScreen(String text) {
+        tail.add(text);
+        return this;
+    }
+
+    public PromptBuilder history(List<String> entries) {
+        history.clear();
+        if (entries != null) {
+            history.addAll(entries);
+        }
+        return this;
+    }
+
+    public PromptBuilder historyLabel(String label) {
+        this.historyLabel = label;
+        return this;
+    }
+
+    public PromptBuilder screen(String screenStateJson) {
+        this.screenState = screenStateJson;
+        return this;
+    }
+
+    public PromptBuilder screenLabel(String label) {
+        this.screenLabel = label;
+        return this;
+    }
+
+    public Prompt build() {
+        int budgetChars = tokenBudget * CHARS_PER_TOKEN;
+        List<Object> parts = new ArrayList<>(head);
+        int used = length(head) + length(tail);
+
+        // History is trimmed oldest-first; the screen gets whatever is left after that,
+        // but history never takes more than half of the remaining budget
+        if (!history.isEmpty()) {
+            int historyBudget = Math.max(0, (budgetChars - used) / 2);
+            List<String> kept = new ArrayList<>();
+            int historyChars = historyLabel.length();
+            for (int i = history.size() - 1; i >= 0; i--) {
+                String entry = history.get(i) + "\n";
+                if (historyChars + entry.length() > historyBudget) break;
+                kept.add(0, entry);
+                historyChars += entry.length();
+            }
+            if (!kept.isEmpty()) {
+                StringBuilder historyText = new StringBuilder(historyLabel);
+                if (kept.size() < history.size()) {
+                    historyText.append("(").append(history.size() - kept.size()).append(" earlier steps omitted)\n");
+                }
+                for (String entry : kept) {
+                    historyText.append(entry);
+                }
+                historyText.append("\n");
+                parts.add(historyText.toString());
+                used += historyText.length();
+            }
+        }
+
+        boolean truncated = false;
+        int screenPart = -1;
+        if (screenState != null) {
+            int screenBudget = Math.max(0, budgetChars - used - screenLabel.length() - 2);
+            String screen = screenState;
+            if (screen.length() > screenBudget) {
+                screen = truncateScreen(screenState, screenBudget);
+                truncated = true;
+            }
+            screenPart = parts.size();
+            parts.add(screenLabel + screen + "\n\n");
+            used += screenLabel.length() + screen.length() + 2;
+        }
+        parts.addAll(tail);
+
+        if (used > budgetChars) {
+            Log.w(TAG, "Prompt over budget even without screen: " + used / CHARS_PER_TOKEN +
+                " > " + tokenBudget + " tokens");
+        }
+        return new Prompt(parts, used, truncated, screenPart, screenLabel, screenState);
+    }
+
+    // Keep whole nodes from the top of the screen until the budget runs out, so the result
+    // is still a valid JSON array the model can read ids from
+    static String truncateScreen(String screenStateJson, int maxChars) {
+        try {
+            JSONArray nodes = new JSONArray(screenStateJson);
+            StringBuilder out = new StringBuilder("[");
+            int kept = 0;
+            // Reserve room for the omission marker
+            int limit = maxChars - 40;
+            for (int i = 0; i < nodes.length(); i++) {
+                String node = nodes.get(i).toString();
+                if (out.length() + node.length() + 2 > limit) break;
+                if (kept > 0) out.append(',');
+                out.append(node);
+                kept++;
+            }
+            int omitted = nodes.length() - kept;
+            if (omitted > 0) {
+                if (kept > 0) out.append(',');
+                out.append(JSONObject.quote("(" + omitted + " more nodes omitted)"));
+            }
+            return out.append(']').toString();
+        } catch (Exception e) {
+            return screenStateJson.substring(0, Math.max(0, Math.min(maxChars, screenStateJson.length())));
+        }
+    }
+
+    private static int length(List<Object> parts) {
+        int total = 0;
+        for (Object part : parts) {
+            total += part instanceof Fragment ? ((Fragment) part).text.length() : ((String) part).length();
+        }
+        return total;
+    }
+
+    // JSON string escaping without the surrounding quotes
+    static byte[] escape(String text) {
+        String quoted = JSONObject.quote(text);
+        return quoted.substring(1, quoted.length() - 1).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static final class Prompt {
+        private final List<Object> parts;
+        private final int chars;
+        private final boolean screenTruncated;
+        // Index of the screen part in parts (-1 if none), its label and the untruncated screen state
+        private final int screenPart;
+        private final String screenLabel;
+        private final String screenState;
+
+        Prompt(List<Object> parts, int chars, boolean screenTruncated, int screenPart,
+               String screenLabel, String screenState) {
+            this.parts = parts;
+            this.chars = chars;
+            this.screenTruncated = screenTruncated;
+            this.screenPart = screenPart;
+            this.screenLabel = screenLabel;
+            this.screenState = screenState;
+        }
+
+        public String screenState() {
+            return screenState;
+        }
+
+        // Everything except the screen, for keying on the prompt + a screen fingerprint
+        void digestWithoutScreen(MessageDigest digest) {
+            for (int i = 0; i < parts.size(); i++) {
+                if (i == screenPart) {
+                    // Keep the label so prompts that differ only in it don't collide
+                    digest.update(screenLabel.getBytes(StandardCharsets.UTF_8));
+                    continue;
+                }
+                Object part = parts.get(i);
+                digest.update(part instanceof Fragment ? ((Fragment) part).escaped
+                    : ((String) part).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        public int estimatedTokens() {
+            return chars / CHARS_PER_TOKEN;
+        }
+
+        public boolean isScreenTruncated() {
+            return screenTruncated;
+        }
+
+        // Writes the prompt as JSON string content; Fragments are copied from their cached bytes
+        public void writeEscaped(ByteArrayOutputStream out) {
+            for (Object part : parts) {
+                byte[] bytes = part instanceof Fragment ? ((Fragment) part).escaped : escape((String) part);
+                out.write(bytes, 0, bytes.length);
+            }
+        }
+
+        public String text() {
+            StringBuilder text = new StringBuilder(chars);
+            for (Object part : parts) {
+                text.append(part instanceof Fragment ? ((Fragment) part).text : (String) part);
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Runs a request with a hedge, retries and a circuit breaker in front of it:
+// - if no answer has arrived after the observed p95 latency, a duplicate is sent and the
+//   first response wins (the other call is cancelled)
+// - 429/5xx and network errors are retried with jittered exponential backoff, up to
+//   MAX_RETRIES_PER_REQUEST, while the retry budget lasts
+// - every retry and every hedge takes one unit of the same budget of RETRY_BUDGET; a unit is
+//   earned back every RETRY_BUDGET_REFILL_MS, so a bad patch can't use up hedging and retries
+//   for the rest of a long session
+// - while the breaker is open requests fail immediately instead of waiting out timeouts
+public class ResilientCaller {
+    private static final String TAG = "ResilientCaller";
+
+    static final int MAX_RETRIES_PER_REQUEST = 2;
+    static final int RETRY_BUDGET = 20;
+    static final long RETRY_BUDGET_REFILL_MS = 15000;
+    static final long BACKOFF_BASE_MS = 500;
+    static final long BACKOFF_CAP_MS = 8000;
+    // Used until enough latencies have been seen to estimate p95
+    static final long DEFAULT_HEDGE_DELAY_MS = 4000;
+    static final long MIN_HEDGE_DELAY_MS = 800;
+    static final long MAX_HEDGE_DELAY_MS = 10000;
+    static final int LATENCY_WINDOW = 64;
+    static final int MIN_LATENCY_SAMPLES = 10;
+    static final int BREAKER_FAILURE_THRESHOLD = 5;
+    static final long BREAKER_OPEN_MS = 20000;
+
+    private static ScheduledExecutorService scheduler;
+
+    private final OkHttpClient client;
+    private final CircuitBreaker breaker;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount = 0;
+    private int latencyNext = 0;
+
+    private final Object budgetLock = new Object();
+    private int retryBudget = RETRY_BUDGET;
+    private long budgetRefilledAt = System.currentTimeMillis();
+    private final AtomicInteger hedgesFired = new AtomicInteger();
+    private final AtomicInteger hedgesWon = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger budgetDenied = new AtomicInteger();
+    private final AtomicInteger failedFast = new AtomicInteger();
+
+    // One logical request and the attempts made for it
+    public final class Handle {
+        private Request request;
+        private final Callback callback;
+        private final boolean hedge;
+        private final List<Call> inFlight = new ArrayList<>();
+        private ScheduledFuture<?> timer;
+        private boolean done = false;
+        private boolean hedged = false;
+        private int attemptRetries = 0;
+        // Holds the breaker's half-open probe until an attempt reports an outcome
+        private boolean probe = false;
+        // Set by cancel(), even after the answer arrived, so a resend won't start
+        private boolean cancelled = false;
+
+        Handle(Request request, Callback callback, boolean hedge) {
+            this.request = tagged(request);
+            this.callback = callback;
+            this.hedge = hedge;
+        }
+
+        // Cancel every attempt; the callback is not called afterwards
+        public void cancel() {
+            List<Call> calls;
+            boolean releaseProbe;
+            synchronized (this) {
+                cancelled = true;
+                if (done) return;
+                done = true;
+                calls = new ArrayList<>(inFlight);
+                inFlight.clear();
+                if (timer != null) timer.cancel(false);
+                releaseProbe = probe;
+                probe = false;
+            }
+            if (releaseProbe) {
+                breaker.releaseProbe();
+            }
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+
+        // Every attempt's request carries its handle, so a callback can find it with handleOf
+        private Request tagged(Request request) {
+            return request.newBuilder().tag(Handle.class, this).build();
+        }
+    }
+
+    public ResilientCaller(OkHttpClient client, String name) {
+        this.client = client;
+        this.breaker = new CircuitBreaker(name, BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS);
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    // Enqueue request; callback gets the winning response, or the last failure once retries
+    // are exhausted. Hedging is only worth it for requests whose answer arrives in one piece.
+    public Handle enqueue(Request request, Callback callback, boolean hedge) {
+        Handle handle = new Handle(request, callback, hedge);
+        CircuitBreaker.Permit permit = breaker.allow();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            failedFast.incrementAndGet();
+            handle.done = true;
+            callback.onFailure(client.newCall(request), new IOException("Circuit open: " + request.url().host() + " is failing"));
+            return handle;
+        }
+        handle.probe = permit == CircuitBreaker.Permit.PROBE;
+        startAttempt(handle, false);
+        return handle;
+    }
+
+    // The handle an attempt of call belongs to, or null if call wasn't made by a ResilientCaller
+    public static Handle handleOf(Call call) {
+        return call.request().tag(Handle.class);
+    }
+
+    // Send request under a handle that has already had its answer, e.g. when the answer asked
+    // for a different request. The handle's callback gets the new outcome and cancel() stops
+    // it; returns false, without calling the callback, if the handle was cancelled.
+    public boolean resend(Handle handle, Request request) {
+        synchronized (handle) {
+            if (handle.cancelled) return false;
+            handle.request = handle.tagged(request);
+            handle.done = false;
+            handle.hedged = false;
+        }
+        CircuitBreaker.Permit permit = breaker.allow();
+        if (permit == CircuitBreaker.Permit.REJECTED) {
+            failedFast.incrementAndGet();
+            synchronized (handle) {
+                if (handle.cancelled) return false;
+                handle.done = true;
+            }
+            handle.callback.onFailure(client.newCall(request), new IOException("Circuit open: " + request.url().host() + " is failing"));
+            return true;
+        }
+        boolean cancelled;
+        synchronized (handle) {
+            cancelled = handle.cancelled;
+            if (!cancelled) handle.probe = permit == CircuitBreaker.Permit.PROBE;
+        }
+        if (cancelled) {
+            // cancel() ran while the permit was being taken
+            if (permit == CircuitBreaker.Permit.PROBE) breaker.releaseProbe();
+            return false;
+        }
+        startAttempt(handle, false);
+        return true;
+    }
+
+    private void startAttempt(Handle handle, boolean isHedge) {
+        Call call;
+        synchronized (handle) {
+            if (handle.done) return;
+            call = client.newCall(handle.request);
+            handle.inFlight.add(call);
+            if (handle.hedge && !handle.hedged && !isHedge) {
+                if (handle.timer != null) handle.timer.cancel(false);
+                handle.timer = scheduler().schedule(() -> fireHedge(handle), hedgeDelayMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+        final long start = System.currentTimeMillis();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                onAttemptFailed(handle, call, e, -1);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                int code = response.code();
+                if (code == 429 || code >= 500) {
+                    long retryAfterMs = parseRetryAfterMs(response.header("Retry-After"));
+                    response.close();
+                    onAttemptFailed(handle, call, new IOException("HTTP " + code), retryAfterMs);
+                    return;
+                }
+                List<Call> losers;
+                synchronized (handle) {
+                    if (handle.done) {
+                        response.close();
+                        return;
+                    }
+                    handle.done = true;
+                    handle.probe = false;
+                    handle.inFlight.remove(call);
+                    losers = new ArrayList<>(handle.inFlight);
+                    handle.inFlight.clear();
+                    if (handle.timer != null) handle.timer.cancel(false);
+                }
+                for (Call loser : losers) {
+                    loser.cancel();
+                }
+                if (isHedge) hedgesWon.incrementAndGet();
+                // 4xx other than 429 is the request's fault, not the endpoint's
+                breaker.onSuccess();
+                if (response.isSuccessful()) {
+                    recordLatency(System.currentTimeMillis() - start);
+                }
+                handle.callback.onResponse(call, response);
+            }
+        });
+    }
+
+    private void fireHedge(Handle handle) {
+        synchronized (handle) {
+            if (handle.done || handle.hedged || handle.inFlight.isEmpty()) return;
+            if (!breaker.isClosed() || !takeBudget()) return;
+            handle.hedged = true;
+        }
+        hedgesFired.incrementAndGet();
+        Log.d(TAG, "No response after " + hedgeDelayMs() + "ms, sending hedge for " + handle.request.url().encodedPath());
+        startAttempt(handle, true);
+    }
+
+    private void onAttemptFailed(Handle handle, Call call, IOException e, long retryAfterMs) {
+        long delay = 0;
+        boolean deliver = false;
+        synchronized (handle) {
+            // Lost the race or cancelled by the caller
+            if (handle.done) return;
+            handle.inFlight.remove(call);
+            breaker.onFailure();
+            handle.probe = false;
+            // The other attempt (hedge or original) may still answer
+            if (!handle.inFlight.isEmpty()) return;
+            CircuitBreaker.Permit permit = handle.attemptRetries < MAX_RETRIES_PER_REQUEST
+                ? breaker.allow() : CircuitBreaker.Permit.REJECTED;
+            if (permit != CircuitBreaker.Permit.REJECTED && !takeBudget()) {
+                // Not retrying after all; hand the probe back
+                if (permit == CircuitBreaker.Permit.PROBE) breaker.releaseProbe();
+                permit = CircuitBreaker.Permit.REJECTED;
+            }
+            if (permit != CircuitBreaker.Permit.REJECTED) {
+                handle.probe = permit == CircuitBreaker.Permit.PROBE;
+                handle.attemptRetries++;
+                delay = retryAfterMs >= 0 ? Math.min(retryAfterMs, BACKOFF_CAP_MS) : backoffMs(handle.attemptRetries);
+                final Handle retry = handle;
+                handle.timer = scheduler().schedule(() -> startAttempt(retry, false), delay, TimeUnit.MILLISECONDS);
+            } else {
+                handle.done = true;
+                deliver = true;
+            }
+        }
+        if (deliver) {
+            handle.callback.onFailure(call, e);
+        } else {
+            retries.incrementAndGet();
+            Log.w(TAG, "Attempt failed (" + e.getMessage() + "), retrying in " + delay + "ms");
+        }
+    }
+
+    private boolean takeBudget() {
+        synchronized (budgetLock) {
+            refillBudget();
+            if (retryBudget > 0) {
+                retryBudget--;
+                return true;
+            }
+        }
+        budgetDenied.incrementAndGet();
+        return false;
+    }
+
+    // Add the units earned since the last refill, up to RETRY_BUDGET (caller holds budgetLock)
+    private void refillBudget() {
+        long now = System.currentTimeMillis();
+        long earned = (now - budgetRefilledAt) / RETRY_BUDGET_REFILL_MS;
+        if (earned <= 0) return;
+        retryBudget = (int) Math.min(RETRY_BUDGET, retryBudget + earned);
+        budgetRefilledAt = retryBudget == RETRY_BUDGET ? now : budgetRefilledAt + earned * RETRY_BUDGET_REFILL_MS;
+    }
+
+    private int budgetLeft() {
+        synchronized (budgetLock) {
+            refillBudget();
+            return retryBudget;
+        }
+    }
+
+    // Exponential backoff with "equal jitter": half fixed, half random
+    static long backoffMs(int retry) {
+        long ceiling = Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << Math.min(retry - 1, 10));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    static long parseRetryAfterMs(String header) {
+        if (header == null) return -1;
+        try {
+            return Long.parseLong(header.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            // HTTP-date form; fall back to our own backoff
+            return -1;
+        }
+    }
+
+    private synchronized void recordLatency(long ms) {
+        latencies[latencyNext] = ms;
+        latencyNext = (latencyNext + 1) % LATENCY_WINDOW;
+        if (latencyCount < LATENCY_WINDOW) latencyCount++;
+    }
+
+    public synchronized long getP95LatencyMs() {
+        if (latencyCount == 0) return 0;
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted[Math.min(latencyCount - 1, (int) Math.ceil(latencyCount * 0.95) - 1)];
+    }
+
+    long hedgeDelayMs() {
+        synchronized (this) {
+            if (latencyCount < MIN_LATENCY_SAMPLES) return DEFAULT_HEDGE_DELAY_MS;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MS, Math.min(MAX_HEDGE_DELAY_MS, getP95LatencyMs()));
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "gemini-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    public String getStats() {
+        return "p95=" + getP95LatencyMs() + "ms, hedges=" + hedgesFired.get() + " (won " + hedgesWon.get() +
+            "), retries=" + retries.get() + ", budgetLeft=" + budgetLeft() + ", budgetDenied=" + budgetDenied.get() +
+            ", failedFast=" + failedFast.get() + ", breaker[" + breaker.getStats() + "]";
+    }
+}
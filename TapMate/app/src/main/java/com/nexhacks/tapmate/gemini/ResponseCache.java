@@ -0,0 +1,143 @@
+package com.nexhacks.tapmate.gemini;
+
+import com.nexhacks.tapmate.accessibility.ScreenFingerprint;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// In-memory cache of model answers keyed by model + prompt + screen fingerprint, so the same
+// question about an unchanged screen (re-analysis after a no-op step, a repeated search
+// fallback) is answered without a round trip. Bounded LRU; each call type has its own TTL.
+public class ResponseCache {
+    static final int MAX_ENTRIES = 64;
+
+    public enum CallType {
+        // ttl in ms; 0 = never cached
+        AGENT(0),              // user command -> tool call: side effects, answer may depend on time
+        PLAN(2 * 60 * 1000),   // step list for a goal on a screen
+        ANALYSIS(30 * 1000),   // GOAL_ACHIEVED / CONTINUE / next action for a screen
+        REPLAN(0),             // asked because the previous answer failed; a repeat must go to the model
+        SEARCH(10 * 60 * 1000); // search fallback answer
+
+        final long ttlMs;
+
+        CallType(long ttlMs) {
+            this.ttlMs = ttlMs;
+        }
+    }
+
+    public static final class Entry {
+        public final String toolName;
+        // Stored as text so each hit hands out its own JSONObject
+        public final String argsJson;
+        final long expiresAt;
+
+        Entry(String toolName, String argsJson, long expiresAt) {
+            this.toolName = toolName;
+            this.argsJson = argsJson;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Map<CallType, int[]> counts = new EnumMap<>(CallType.class);
+    private volatile boolean enabled = true;
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            synchronized (this) {
+                entries.clear();
+            }
+        }
+    }
+
+    public static boolean isCacheable(CallType type) {
+        return type.ttlMs > 0;
+    }
+
+    // Prompt text minus the screen, plus the screen's content fingerprint (bounds ignored)
+    public static String key(String model, PromptBuilder.Prompt prompt) {
+        MessageDigest digest = newDigest();
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        prompt.digestWithoutScreen(digest);
+        digest.update((byte) 0);
+        digest.update(Long.toString(ScreenFingerprint.of(prompt.screenState())).getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    // For callers that build their own request text (e.g. the search fallback)
+    public static String key(String model, String text) {
+        MessageDigest digest = newDigest();
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return hex(digest.digest());
+    }
+
+    public synchronized Entry get(CallType type, String key) {
+        if (!enabled || !isCacheable(type)) return null;
+        int[] typeCounts = countsFor(type);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() >= entry.expiresAt) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            typeCounts[0]++;
+        } else {
+            typeCounts[1]++;
+        }
+        return entry;
+    }
+
+    public synchronized void put(CallType type, String key, String toolName, String argsJson) {
+        if (!enabled || !isCacheable(type)) return;
+        entries.put(key, new Entry(toolName, argsJson, System.currentTimeMillis() + type.ttlMs));
+    }
+
+    private int[] countsFor(CallType type) {
+        int[] typeCounts = counts.get(type);
+        if (typeCounts == null) {
+            typeCounts = new int[2];
+            counts.put(type, typeCounts);
+        }
+        return typeCounts;
+    }
+
+    // Hit rate per call type, e.g. "ANALYSIS 3/10 (30%)"
+    public synchronized String getStats() {
+        StringBuilder stats = new StringBuilder("entries=" + entries.size() + (enabled ? "" : " (disabled)"));
+        for (Map.Entry<CallType, int[]> entry : counts.entrySet()) {
+            int hits = entry.getValue()[0];
+            int total = hits + entry.getValue()[1];
+            stats.append(", ").append(entry.getKey()).append(' ').append(hits).append('/').append(total)
+                .append(" (").append(total > 0 ? hits * 100 / total : 0).append("%)");
+        }
+        return stats.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder out = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            out.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return out.toString();
+    }
+}
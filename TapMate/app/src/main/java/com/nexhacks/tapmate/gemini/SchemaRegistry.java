@@ -0,0 +1,154 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.JsonWriter;
+import android.util.Log;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// The one definition of every function the models can call. Each declaration is serialized
+// once per wire dialect when the registry is created; tool lists are assembled from those
+// fragments and kept, so nothing builds declaration JSON when a request or session starts.
+public class SchemaRegistry {
+    private static final String TAG = "SchemaRegistry";
+    private static final SchemaRegistry INSTANCE = new SchemaRegistry();
+
+    public static SchemaRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public enum Dialect {
+        // generateContent REST API: OpenAPI-style upper-case type names
+        REST,
+        // Live websocket setup: lower-case type names
+        LIVE;
+
+        String typeName(String type) {
+            return this == REST ? type : type.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // The full list every REST request used to carry; also what Live offers when no agents are registered
+    public static final String[] DEFAULT_FUNCTIONS = {
+        "gui_click", "gui_type", "gui_scroll", "memory_save", "memory_recall",
+        "google_search", "maps_navigation", "get_location", "weather", "gui_open_app"
+    };
+
+    private static final String GUI_PLAN_HINT = "Use gui_execute_plan instead.";
+
+    private final Map<String, FunctionSchema> schemas = new LinkedHashMap<>();
+    // Serialized declaration per dialect, by function name
+    private final Map<String, String> restDeclarations = new HashMap<>();
+    private final Map<String, String> liveDeclarations = new HashMap<>();
+    // Assembled tools arrays, by dialect + function list
+    private final Map<String, String> toolsCache = new HashMap<>();
+
+    private SchemaRegistry() {
+        add(new FunctionSchema("gui_execute_plan",
+            "Execute a GUI task by creating a todo list of steps, then executing each step and analyzing the result. " +
+            "After each step, analyze the new screen state to determine if the goal is achieved or if more steps are needed. " +
+            "This is the main GUI agent function - use this instead of individual click/type/scroll functions.")
+            .param("goal", FunctionSchema.Type.STRING, "The user's goal (e.g., 'Open Messenger', 'Order Uber to bakery', 'Send a message to John')", true)
+            .param("current_screen_state", FunctionSchema.Type.STRING, "Current screen state JSON from accessibility service", true));
+        add(new FunctionSchema("gui_click", "Click an element on the screen given its ID or text.")
+            .param("node_id", FunctionSchema.Type.STRING, "The resource ID or text of the node to click.", true)
+            .internal(GUI_PLAN_HINT));
+        add(new FunctionSchema("gui_type", "Type text into an editable field.")
+            .param("node_id", FunctionSchema.Type.STRING, null, true)
+            .param("text", FunctionSchema.Type.STRING, null, true)
+            .internal(GUI_PLAN_HINT));
+        add(new FunctionSchema("gui_scroll", "Scroll the screen up or down.")
+            .enumParam("direction", null, true, "UP", "DOWN")
+            .internal(GUI_PLAN_HINT));
+        add(new FunctionSchema("gui_open_app",
+            "Open an app on the phone by name. Use this when the user asks to open an app that's not currently visible on screen.")
+            .param("app_name", FunctionSchema.Type.STRING, "Name of the app to open (e.g., 'Messenger', 'Settings', 'Chrome')", true));
+        add(new FunctionSchema("memory_save", "Save important details like car info or ETA to memory.")
+            .param("key", FunctionSchema.Type.STRING, null, true)
+            .param("value", FunctionSchema.Type.STRING, null, true)
+            .param("type", FunctionSchema.Type.STRING, "Type of memory: UBER_RIDE, LOCATION, REMINDER, etc.", false)
+            .param("trigger_time", FunctionSchema.Type.NUMBER, "Unix timestamp when to recall this memory (optional)", false));
+        add(new FunctionSchema("memory_recall", "Recall saved information from memory by type.")
+            .param("type", FunctionSchema.Type.STRING, "Type of memory to recall: UBER_RIDE, LOCATION, REMINDER, etc.", true));
+        add(new FunctionSchema("google_search",
+            "Search Google for information. Use this for weather, general searches, or any web queries.")
+            .param("query", FunctionSchema.Type.STRING, "The search query", true));
+        add(new FunctionSchema("maps_navigation", "Get walking directions to a destination using Google Maps.")
+            .param("destination", FunctionSchema.Type.STRING, "Destination address or place name", true));
+        add(new FunctionSchema("get_location", "Get the user's current GPS location coordinates."));
+        add(new FunctionSchema("weather",
+            "Get weather information for a specific location. This uses Google Search to find current weather data.")
+            .param("location", FunctionSchema.Type.STRING, "City name or location (e.g., 'Atlanta, GA' or 'New York')", true));
+
+        for (FunctionSchema schema : schemas.values()) {
+            restDeclarations.put(schema.name, serialize(schema, Dialect.REST));
+            liveDeclarations.put(schema.name, serialize(schema, Dialect.LIVE));
+        }
+    }
+
+    private void add(FunctionSchema schema) {
+        schemas.put(schema.name, schema);
+    }
+
+    private static String serialize(FunctionSchema schema, Dialect dialect) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            schema.write(writer, dialect);
+        } catch (IOException e) {
+            // StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    public FunctionSchema get(String name) {
+        return schemas.get(name);
+    }
+
+    public Collection<FunctionSchema> getAll() {
+        return schemas.values();
+    }
+
+    public String[] getAllNames() {
+        return schemas.keySet().toArray(new String[0]);
+    }
+
+    // [{"function_declarations":[...]}] for the named functions, in order; unknown names are skipped
+    public String getToolsJson(Dialect dialect, String[] names) {
+        String key = dialect.name() + ':' + String.join(",", names);
+        synchronized (toolsCache) {
+            String tools = toolsCache.get(key);
+            if (tools != null) return tools;
+        }
+        Map<String, String> declarations = dialect == Dialect.REST ? restDeclarations : liveDeclarations;
+        StringBuilder tools = new StringBuilder("[{\"function_declarations\":[");
+        boolean first = true;
+        for (String name : names) {
+            String declaration = declarations.get(name);
+            if (declaration == null) {
+                Log.w(TAG, "No schema for function " + name + ", not declaring it");
+                continue;
+            }
+            if (!first) tools.append(',');
+            tools.append(declaration);
+            first = false;
+        }
+        tools.append("]}]");
+        String result = tools.toString();
+        synchronized (toolsCache) {
+            toolsCache.put(key, result);
+        }
+        return result;
+    }
+
+    // null if the call's arguments fit the function's schema (or it has none), otherwise why not
+    public String validate(String functionName, JSONObject args) {
+        FunctionSchema schema = schemas.get(functionName);
+        return schema != null ? schema.validate(args) : null;
+    }
+}
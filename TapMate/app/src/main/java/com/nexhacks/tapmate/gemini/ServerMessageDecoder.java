@@ -0,0 +1,284 @@
+package com.nexhacks.tapmate.gemini;
+
+import com.nexhacks.tapmate.utils.ByteJsonReader;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Reads a Live server frame once, front to back, and reports what it carries as typed events.
+// Audio comes out as the span of its Base64 text inside the frame so it can be decoded straight
+// into the playback ring; tool call args and usage metadata are the only parts built as org.json
+// objects, and everything else is skipped without being copied. Besides toolCall.functionCalls
+// and serverContent.modelTurn.parts it accepts the top-level functionCalls and modelTurn /
+// model_turn shapes the Live handler has always tolerated. Used on the WebSocket thread only.
+public class ServerMessageDecoder {
+
+    public interface Listener {
+        void onSetupComplete();
+        // serverContent carries model output: the model's turn is under way
+        void onModelTurn();
+        // Base64 audio at [start, end) of frame; only valid during the call
+        void onAudioChunk(ByteBuffer frame, int start, int end);
+        void onText(String text);
+        void onToolCall(String name, JSONObject args, String callId);
+        // The server dropped an earlier tool call (e.g. the user interrupted); don't answer it
+        void onToolCallCancelled(String callId);
+        void onInterrupted();
+        void onTurnComplete();
+        void onUsage(JSONObject usageMetadata);
+        void onResumptionHandle(String handle);
+    }
+
+    private final ByteJsonReader reader = new ByteJsonReader(
+        "setupComplete", "serverContent", "toolCall", "functionCalls", "modelTurn", "model_turn",
+        "usageMetadata", "sessionResumptionUpdate", "newHandle", "resumable",
+        "parts", "inlineData", "mimeType", "data", "text", "functionCall",
+        "name", "args", "id", "callId", "turnComplete", "interrupted", "generationComplete",
+        "toolCallCancellation", "ids");
+
+    // Classifies frame and calls listener for each event in it, in frame order except that
+    // interrupted / turnComplete come after the serverContent they arrive with
+    public void decode(ByteBuffer frame, Listener listener) throws IOException {
+        reader.reset(frame);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "setupComplete":
+                    reader.skipValue();
+                    listener.onSetupComplete();
+                    break;
+                case "serverContent":
+                    readServerContent(frame, listener);
+                    break;
+                case "toolCall":
+                    readToolCall(listener);
+                    break;
+                case "toolCallCancellation":
+                    readToolCallCancellation(listener);
+                    break;
+                case "functionCalls":
+                    readFunctionCalls(listener);
+                    break;
+                case "modelTurn":
+                case "model_turn":
+                    readModelTurn(frame, listener);
+                    break;
+                case "usageMetadata":
+                    listener.onUsage(reader.nextJSONObject());
+                    break;
+                case "sessionResumptionUpdate":
+                    readResumptionUpdate(listener);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readServerContent(ByteBuffer frame, Listener listener) throws IOException {
+        boolean interrupted = false;
+        boolean turnComplete = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "modelTurn":
+                    listener.onModelTurn();
+                    readModelTurn(frame, listener);
+                    break;
+                case "interrupted":
+                    interrupted = readFlag();
+                    break;
+                case "turnComplete":
+                    turnComplete = readFlag();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        // After the parts, so the end of the turn falls after its last audio
+        if (interrupted) listener.onInterrupted();
+        if (turnComplete) listener.onTurnComplete();
+    }
+
+    private void readModelTurn(ByteBuffer frame, Listener listener) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "parts":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readPart(frame, listener);
+                    }
+                    reader.endArray();
+                    break;
+                case "functionCalls":
+                    readFunctionCalls(listener);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readPart(ByteBuffer frame, Listener listener) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "inlineData":
+                    readInlineData(frame, listener);
+                    break;
+                case "text":
+                    listener.onText(reader.nextString());
+                    break;
+                case "functionCall":
+                    readFunctionCall(listener);
+                    break;
+                case "functionCalls":
+                    readFunctionCalls(listener);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // mimeType may come after data, so the span is only reported at the end of the object
+    private void readInlineData(ByteBuffer frame, Listener listener) throws IOException {
+        int audioStart = -1;
+        int audioEnd = -1;
+        boolean audioMime = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "mimeType":
+                    audioMime = reader.nextStringStartsWith("audio/");
+                    break;
+                case "data":
+                    reader.nextStringSpan();
+                    audioStart = reader.spanStart();
+                    audioEnd = reader.spanEnd();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (audioMime && audioStart >= 0 && audioEnd > audioStart) {
+            listener.onAudioChunk(frame, audioStart, audioEnd);
+        }
+    }
+
+    private void readToolCall(Listener listener) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("functionCalls")) {
+                readFunctionCalls(listener);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readToolCallCancellation(Listener listener) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("ids") && reader.peek() == ByteJsonReader.Token.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String id = readString();
+                    if (id != null) listener.onToolCallCancelled(id);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readFunctionCalls(Listener listener) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readFunctionCall(listener);
+        }
+        reader.endArray();
+    }
+
+    private void readFunctionCall(Listener listener) throws IOException {
+        String name = null;
+        JSONObject args = null;
+        String id = null;
+        String callId = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name":
+                    name = readString();
+                    break;
+                case "args":
+                    if (reader.peek() == ByteJsonReader.Token.BEGIN_OBJECT) {
+                        args = reader.nextJSONObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case "id":
+                    id = readString();
+                    break;
+                case "callId":
+                    callId = readString();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (name == null) {
+            throw new IOException("Function call without a name");
+        }
+        listener.onToolCall(name, args != null ? args : new JSONObject(), id != null && !id.isEmpty() ? id : callId);
+    }
+
+    private void readResumptionUpdate(Listener listener) throws IOException {
+        String handle = null;
+        boolean resumable = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "newHandle":
+                    handle = readString();
+                    break;
+                case "resumable":
+                    resumable = readFlag();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (resumable && handle != null) {
+            listener.onResumptionHandle(handle);
+        }
+    }
+
+    private boolean readFlag() throws IOException {
+        if (reader.peek() == ByteJsonReader.Token.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        reader.skipValue();
+        return false;
+    }
+
+    private String readString() throws IOException {
+        if (reader.peek() == ByteJsonReader.Token.STRING) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+}
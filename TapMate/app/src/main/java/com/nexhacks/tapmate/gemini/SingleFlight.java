@@ -0,0 +1,145 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.Log;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Coalesces concurrent identical model calls: the first caller for a key starts the HTTP
+// call, later callers with the same key wait on it, and every waiter gets the result.
+// A waiter can cancel without affecting the others; the HTTP call is only cancelled once
+// nobody is waiting for it any more.
+public class SingleFlight {
+    private static final String TAG = "SingleFlight";
+
+    // Sends the request with the given callback and returns its handle (null if it failed to start)
+    public interface Starter {
+        ResilientCaller.Handle start(GeminiClient.GeminiCallback callback);
+    }
+
+    public static final class Waiter {
+        private final SingleFlight owner;
+        private final Flight flight;
+        final GeminiClient.GeminiCallback callback;
+        private volatile boolean cancelled = false;
+
+        Waiter(SingleFlight owner, Flight flight, GeminiClient.GeminiCallback callback) {
+            this.owner = owner;
+            this.flight = flight;
+            this.callback = callback;
+        }
+
+        // Stop waiting; this waiter's callback will not be called
+        public void cancel() {
+            cancelled = true;
+            if (owner != null) {
+                owner.detach(this);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    // Handle for a request that was answered without a call (e.g. from the response cache)
+    public static Waiter completed() {
+        return new Waiter(null, null, null);
+    }
+
+    final class Flight implements GeminiClient.GeminiCallback {
+        final String key;
+        final List<Waiter> waiters = new ArrayList<>();
+        volatile ResilientCaller.Handle request;
+        boolean done = false;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onResponse(String toolName, JSONObject toolArgs) {
+            List<Waiter> targets = finish();
+            String argsJson = targets.size() > 1 ? toolArgs.toString() : null;
+            for (int i = 0; i < targets.size(); i++) {
+                Waiter waiter = targets.get(i);
+                if (waiter.cancelled) continue;
+                JSONObject args = toolArgs;
+                if (i > 0) {
+                    // Each waiter gets its own copy so one can't mutate another's result
+                    try {
+                        args = new JSONObject(argsJson);
+                    } catch (org.json.JSONException e) {
+                        Log.w(TAG, "Could not copy shared response", e);
+                    }
+                }
+                waiter.callback.onResponse(toolName, args);
+            }
+        }
+
+        @Override
+        public void onError(Exception e) {
+            for (Waiter waiter : finish()) {
+                if (!waiter.cancelled) {
+                    waiter.callback.onError(e);
+                }
+            }
+        }
+
+        private List<Waiter> finish() {
+            synchronized (SingleFlight.this) {
+                done = true;
+                if (flights.get(key) == this) {
+                    flights.remove(key);
+                }
+                return new ArrayList<>(waiters);
+            }
+        }
+    }
+
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger joined = new AtomicInteger();
+    private final AtomicInteger abandoned = new AtomicInteger();
+
+    // Wait on the in-flight call for key, or start it with starter
+    public synchronized Waiter join(String key, GeminiClient.GeminiCallback callback, Starter starter) {
+        Flight flight = flights.get(key);
+        if (flight != null) {
+            Waiter waiter = new Waiter(this, flight, callback);
+            flight.waiters.add(waiter);
+            joined.incrementAndGet();
+            return waiter;
+        }
+        flight = new Flight(key);
+        Waiter waiter = new Waiter(this, flight, callback);
+        flight.waiters.add(waiter);
+        flights.put(key, flight);
+        started.incrementAndGet();
+        // Enqueueing doesn't block; a synchronous failure re-enters finish() on this thread
+        flight.request = starter.start(flight);
+        return waiter;
+    }
+
+    private synchronized void detach(Waiter waiter) {
+        Flight flight = waiter.flight;
+        if (flight == null || !flight.waiters.remove(waiter) || flight.done) {
+            return;
+        }
+        if (flight.waiters.isEmpty()) {
+            flights.remove(flight.key);
+            abandoned.incrementAndGet();
+            ResilientCaller.Handle request = flight.request;
+            if (request != null) {
+                request.cancel();
+            }
+        }
+    }
+
+    public String getStats() {
+        return "started=" + started.get() + ", joined=" + joined.get() + ", abandoned=" + abandoned.get();
+    }
+}
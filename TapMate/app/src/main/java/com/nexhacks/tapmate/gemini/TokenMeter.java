@@ -0,0 +1,140 @@
+package com.nexhacks.tapmate.gemini;
+
+import android.util.Log;
+import org.json.JSONObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Token accounting from the usageMetadata the API returns with every response (REST and
+// Live). Counts are aggregated per function (call type), per GUI task and per session.
+// With a session budget set, isOverBudget() tells agents to switch to cheaper prompts.
+public class TokenMeter {
+    private static final String TAG = "TokenMeter";
+    private static final TokenMeter INSTANCE = new TokenMeter();
+
+    public static TokenMeter getInstance() {
+        return INSTANCE;
+    }
+
+    public static final class Usage {
+        private long calls;
+        private long promptTokens;
+        private long cachedTokens;
+        private long outputTokens;
+
+        synchronized void add(long prompt, long cached, long output) {
+            calls++;
+            promptTokens += prompt;
+            cachedTokens += cached;
+            outputTokens += output;
+        }
+
+        public synchronized long getCalls() {
+            return calls;
+        }
+
+        // Includes the cached part; cachedTokens is how much of it was billed at the cache rate
+        public synchronized long getPromptTokens() {
+            return promptTokens;
+        }
+
+        public synchronized long getCachedTokens() {
+            return cachedTokens;
+        }
+
+        public synchronized long getOutputTokens() {
+            return outputTokens;
+        }
+
+        public synchronized long getTotalTokens() {
+            return promptTokens + outputTokens;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "calls=" + calls + ", prompt=" + promptTokens + " (cached " + cachedTokens + "), output=" + outputTokens;
+        }
+    }
+
+    private final Map<String, Usage> byFunction = new LinkedHashMap<>();
+    private volatile Usage session = new Usage();
+    private volatile Usage currentTask;
+    // 0 = no budget
+    private volatile long sessionBudget = 0;
+    private volatile boolean budgetWarned = false;
+
+    public synchronized void startSession(long tokenBudget) {
+        byFunction.clear();
+        session = new Usage();
+        currentTask = null;
+        sessionBudget = tokenBudget;
+        budgetWarned = false;
+    }
+
+    // Calls recorded with forTask=true until endTask() also count towards the returned usage
+    public Usage beginTask() {
+        Usage task = new Usage();
+        currentTask = task;
+        return task;
+    }
+
+    public void endTask(Usage task) {
+        if (currentTask == task) {
+            currentTask = null;
+        }
+    }
+
+    // usageMetadata from a generateContent response, a stream's last chunk, or a Live message
+    public void record(String function, JSONObject usageMetadata, boolean forTask) {
+        if (usageMetadata == null) return;
+        long prompt = usageMetadata.optLong("promptTokenCount", 0);
+        long cached = usageMetadata.optLong("cachedContentTokenCount", 0);
+        // REST reports candidatesTokenCount, Live responseTokenCount; thinking tokens are billed as output
+        long output = usageMetadata.optLong("candidatesTokenCount", usageMetadata.optLong("responseTokenCount", 0))
+            + usageMetadata.optLong("thoughtsTokenCount", 0);
+
+        Usage functionUsage;
+        synchronized (this) {
+            functionUsage = byFunction.get(function);
+            if (functionUsage == null) {
+                functionUsage = new Usage();
+                byFunction.put(function, functionUsage);
+            }
+        }
+        functionUsage.add(prompt, cached, output);
+        session.add(prompt, cached, output);
+        Usage task = currentTask;
+        if (forTask && task != null) {
+            task.add(prompt, cached, output);
+        }
+
+        if (isOverBudget() && !budgetWarned) {
+            budgetWarned = true;
+            Log.w(TAG, "Session token budget of " + sessionBudget + " spent (" + session + "), degrading prompts");
+        }
+    }
+
+    public boolean isOverBudget() {
+        long budget = sessionBudget;
+        return budget > 0 && session.getTotalTokens() >= budget;
+    }
+
+    public Usage getSessionUsage() {
+        return session;
+    }
+
+    public synchronized Map<String, Usage> getUsageByFunction() {
+        return new LinkedHashMap<>(byFunction);
+    }
+
+    public synchronized String getStats() {
+        StringBuilder stats = new StringBuilder("session[" + session + "]");
+        if (sessionBudget > 0) {
+            stats.append(", budget=").append(sessionBudget);
+        }
+        for (Map.Entry<String, Usage> entry : byFunction.entrySet()) {
+            stats.append(", ").append(entry.getKey()).append('[').append(entry.getValue()).append(']');
+        }
+        return stats.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.nexhacks.tapmate.gemini;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Picks the function declarations worth advertising in the current mode instead of sending
+// every one with every request. INTERNAL functions (the GUI agent's low-level actions) are
+// never offered to the Live model. Tracks how many declaration tokens that saves.
+public class ToolSelector {
+    private static final ToolSelector INSTANCE = new ToolSelector();
+
+    public static ToolSelector getInstance() {
+        return INSTANCE;
+    }
+
+    public enum Mode {
+        // Talking with the user: start tasks, remember things, look things up
+        CONVERSATION("gui_execute_plan", "gui_open_app", "memory_save", "memory_recall",
+            "google_search", "maps_navigation", "get_location", "weather"),
+        // Driving the phone's UI step by step (the REST planner)
+        GUI_TASK("gui_click", "gui_type", "gui_scroll", "gui_open_app", "memory_recall"),
+        // Walking somewhere: directions and quick lookups
+        NAVIGATION("maps_navigation", "get_location", "google_search", "weather",
+            "memory_save", "memory_recall", "gui_execute_plan"),
+        // Street-crossing assistance: position and route only
+        ORBIT("get_location", "maps_navigation");
+
+        final List<String> functions;
+
+        Mode(String... functions) {
+            this.functions = Arrays.asList(functions);
+        }
+    }
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong advertisedTokens = new AtomicLong();
+    private final AtomicLong savedTokens = new AtomicLong();
+
+    // The mode's functions, in the order given by available (what the caller can execute)
+    public String[] select(Mode mode, SchemaRegistry.Dialect dialect, String[] available) {
+        List<String> selected = new ArrayList<>();
+        for (String name : available) {
+            if (!mode.functions.contains(name)) continue;
+            FunctionSchema schema = SchemaRegistry.getInstance().get(name);
+            if (dialect == SchemaRegistry.Dialect.LIVE && schema != null && schema.isInternal()) continue;
+            selected.add(name);
+        }
+        return selected.toArray(new String[0]);
+    }
+
+    // Estimated tokens of the tools array for these functions
+    public static int estimateTokens(SchemaRegistry.Dialect dialect, String[] names) {
+        return SchemaRegistry.getInstance().getToolsJson(dialect, names).length() / PromptBuilder.CHARS_PER_TOKEN;
+    }
+
+    // One request (or Live setup) sent with the selected tools instead of the full set
+    public void record(int selectedTokens, int fullTokens) {
+        requests.incrementAndGet();
+        advertisedTokens.addAndGet(selectedTokens);
+        savedTokens.addAndGet(Math.max(0, fullTokens - selectedTokens));
+    }
+
+    public long getSavedTokens() {
+        return savedTokens.get();
+    }
+
+    public String getStats() {
+        long advertised = advertisedTokens.get();
+        long saved = savedTokens.get();
+        long full = advertised + saved;
+        return "requests=" + requests.get() + ", toolTokens~" + advertised + ", saved~" + saved +
+            (full > 0 ? " (" + (saved * 100 / full) + "%)" : "");
+    }
+}
@@ -2,10 +2,14 @@ package com.nexhacks.tapmate.ui;
 
 import android.app.Activity;
 import android.content.pm.PackageManager;
+import android.media.AudioDeviceInfo;
 import android.media.AudioFormat;
+import android.media.AudioManager;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
-import android.media.AudioTrack;
+import android.media.audiofx.AcousticEchoCanceler;
+import android.media.audiofx.NoiseSuppressor;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -18,11 +22,20 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.nexhacks.tapmate.accessibility.TapMateAccessibilityService;
+import com.nexhacks.tapmate.audio.AudioFramePacer;
+import com.nexhacks.tapmate.audio.PlaybackEngine;
+import com.nexhacks.tapmate.audio.VoiceActivityGate;
 import com.nexhacks.tapmate.gemini.GeminiLiveClient;
+import com.nexhacks.tapmate.gemini.SchemaRegistry;
+import com.nexhacks.tapmate.gemini.TokenMeter;
+import com.nexhacks.tapmate.gemini.ToolSelector;
 import com.nexhacks.tapmate.memory.AppDatabase;
 import com.nexhacks.tapmate.memory.MemoryItem;
+import com.nexhacks.tapmate.utils.JsonCodec;
 import com.nexhacks.tapmate.utils.MapsIntegration;
 import com.nexhacks.tapmate.utils.LocationService;
+import com.nexhacks.tapmate.utils.LauncherIndex;
+import com.nexhacks.tapmate.utils.HttpStack;
 import com.nexhacks.tapmate.agents.AgentRegistry;
 import com.nexhacks.tapmate.agents.BaseAgent;
 import com.nexhacks.tapmate.agents.GUIAgent;
@@ -47,6 +60,11 @@ public class SessionActivity extends Activity {
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int INPUT_BUFFER_SIZE = AudioRecord.getMinBufferSize(INPUT_SAMPLE_RATE, CHANNEL_CONFIG, AUDIO_FORMAT) * 2;
+    // Voice activity gate: audio kept from before speech is detected, speech needed to
+    // start an utterance, and silence that ends one
+    private static final int VAD_PRE_ROLL_MS = 300;
+    private static final int VAD_ONSET_MS = 60;
+    private static final int VAD_HANGOVER_MS = 700;
     private static final int PERMISSION_REQUEST_RECORD_AUDIO = 1001;
     private static final int PERMISSION_REQUEST_LOCATION = 1002;
     
@@ -55,13 +73,15 @@ public class SessionActivity extends Activity {
     private TextView statusText;
     private boolean isMuted = false;
     private boolean isRecording = false;
-    private boolean isPlayingAudio = false; // Track when we're playing audio to prevent feedback
-    private boolean pauseSendingAudio = false; // Pause sending audio to Gemini during playback
-    private Handler unmuteHandler = new Handler(Looper.getMainLooper());
-    private Runnable unmuteRunnable = null;
+    // The mic stays open while Gemini speaks (so the user can interrupt); echo cancellation
+    // keeps the model from hearing itself. Previous audio mode is restored when the session ends.
+    private AudioManager audioManager;
+    private int previousAudioMode = -1;
+    private AcousticEchoCanceler echoCanceler;
+    private NoiseSuppressor noiseSuppressor;
     
     private AudioRecord audioRecord;
-    private AudioTrack audioTrack;
+    private PlaybackEngine playbackEngine;
     private Thread recordingThread;
     private Thread playbackThread;
     private GeminiLiveClient geminiLiveClient;
@@ -94,6 +114,32 @@ public class SessionActivity extends Activity {
         
         // Initialize Gemini client with agent registry
         geminiLiveClient = new GeminiLiveClient(agentRegistry);
+        geminiLiveClient.setManualActivityDetection(com.nexhacks.tapmate.utils.Config.LOCAL_VAD);
+        
+        // Model audio is played on its own thread, off the WebSocket thread
+        playbackEngine = new PlaybackEngine(OUTPUT_SAMPLE_RATE, new PlaybackEngine.Listener() {
+            @Override
+            public void onSpeechStart() {
+                mainHandler.post(() -> updateStatus("Speaking..."));
+            }
+            
+            @Override
+            public void onSpeechEnd() {
+                // The last frame has actually been played
+                mainHandler.post(() -> updateStatus(isMuted ? "Muted" : "Listening..."));
+            }
+        });
+        if (playbackEngine.start()) {
+            geminiLiveClient.setPlaybackEngine(playbackEngine);
+        } else {
+            playbackEngine = null;
+        }
+
+        // Open connections to Gemini/Maps/search hosts before the first tool call needs them
+        HttpStack.prewarm();
+
+        // Fresh token accounting (and budget) for this session
+        TokenMeter.getInstance().startSession(com.nexhacks.tapmate.utils.Config.SESSION_TOKEN_BUDGET);
         
         setContentView(createSessionLayout());
         
@@ -260,20 +306,25 @@ public class SessionActivity extends Activity {
             
             @Override
             public void onAudioChunk(byte[] audioData) {
-                // Play audio response from Gemini
-                Log.d(TAG, "onAudioChunk called with " + (audioData != null ? audioData.length : 0) + " bytes");
-                // Pause sending audio to Gemini during playback to prevent feedback loop
-                if (!isPlayingAudio) {
-                    isPlayingAudio = true;
-                    pauseSendingAudio = true; // Don't send mic audio while playing back
-                    Log.d(TAG, "Paused sending audio to Gemini during playback");
+                // Audio the client didn't decode into the playback ring itself; returns right away
+                if (!isMuted && audioData != null && playbackEngine != null) {
+                    playbackEngine.enqueue(audioData, 0, audioData.length);
                 }
-                // Cancel any pending resume since we're still receiving audio
-                if (unmuteRunnable != null) {
-                    unmuteHandler.removeCallbacks(unmuteRunnable);
-                    unmuteRunnable = null;
+            }
+            
+            @Override
+            public void onInterrupted() {
+                // The user talked over Gemini: drop what is still queued for playback right away
+                if (playbackEngine != null) {
+                    playbackEngine.flush();
+                }
+            }
+            
+            @Override
+            public void onTurnComplete() {
+                if (playbackEngine != null) {
+                    playbackEngine.endOfTurn();
                 }
-                playAudioChunk(audioData);
             }
 
             @Override
@@ -335,8 +386,10 @@ public class SessionActivity extends Activity {
                 return;
             }
             
+            enterCommunicationMode();
+            // VOICE_COMMUNICATION gets the platform's echo cancelling / noise suppressing input path
             audioRecord = new AudioRecord(
-                MediaRecorder.AudioSource.MIC,
+                MediaRecorder.AudioSource.VOICE_COMMUNICATION,
                 INPUT_SAMPLE_RATE,
                 CHANNEL_CONFIG,
                 AUDIO_FORMAT,
@@ -356,41 +409,61 @@ public class SessionActivity extends Activity {
                 return;
             }
             
+            attachAudioEffects(audioRecord.getAudioSessionId());
             audioRecord.startRecording();
             isRecording = true;
             Log.d(TAG, "Recording started successfully");
             
-            // Start recording thread
+            // Start recording thread. Reads come in whatever size the device likes; the pacer
+            // regroups them into AUDIO_FRAME_MS messages for Gemini, and with LOCAL_VAD only
+            // speech (framed by activityStart/activityEnd) gets past the gate.
+            VoiceActivityGate gate = com.nexhacks.tapmate.utils.Config.LOCAL_VAD ? new VoiceActivityGate(
+                INPUT_SAMPLE_RATE, VAD_PRE_ROLL_MS, VAD_ONSET_MS, VAD_HANGOVER_MS, new VoiceActivityGate.Uplink() {
+                    @Override
+                    public void onActivityStart() {
+                        geminiLiveClient.sendActivityStart();
+                    }
+                    
+                    @Override
+                    public void onAudio(byte[] pcm, int offset, int length) {
+                        geminiLiveClient.sendAudioChunk(pcm, offset, length);
+                    }
+                    
+                    @Override
+                    public void onActivityEnd() {
+                        geminiLiveClient.sendActivityEnd();
+                    }
+                }) : null;
+            AudioFramePacer pacer = new AudioFramePacer(INPUT_SAMPLE_RATE, 2,
+                com.nexhacks.tapmate.utils.Config.AUDIO_FRAME_MS, com.nexhacks.tapmate.utils.Config.AUDIO_FRAME_MAX_HOLD_MS,
+                gate != null ? gate : geminiLiveClient::sendAudioChunk);
             recordingThread = new Thread(() -> {
                 byte[] buffer = new byte[bufferSize];
-                int chunkCount = 0;
                 while (isRecording && !isMuted) {
                     int bytesRead = audioRecord.read(buffer, 0, buffer.length);
-                    Log.d(TAG, "Audio read: " + bytesRead + " bytes, chunkCount: " + chunkCount + ", wsConnected: " + geminiLiveClient.isConnected());
                     
                     if (bytesRead > 0) {
-                        if (geminiLiveClient.isConnected() && !pauseSendingAudio && !isMuted) {
-                            // Send audio chunk to Gemini Live (only if not paused and not manually muted)
-                            byte[] audioChunk = new byte[bytesRead];
-                            System.arraycopy(buffer, 0, audioChunk, 0, bytesRead);
-                            geminiLiveClient.sendAudioChunk(audioChunk);
-                            chunkCount++;
-                            Log.d(TAG, "Audio chunk sent to Gemini: chunkSize=" + bytesRead + ", totalChunks=" + chunkCount);
+                        if (geminiLiveClient.isConnected() && !isMuted) {
+                            // Send audio to Gemini Live, also while it is talking (only if not manually muted)
+                            pacer.write(buffer, 0, bytesRead);
                         } else {
-                            // Log why we're not sending audio
-                            if (!geminiLiveClient.isConnected()) {
-                                Log.d(TAG, "WebSocket not connected, cannot send audio: bytesRead=" + bytesRead);
-                            } else if (pauseSendingAudio) {
-                                Log.d(TAG, "Paused sending audio during playback: bytesRead=" + bytesRead);
-                            } else if (isMuted) {
-                                Log.d(TAG, "Manually muted, not sending audio: bytesRead=" + bytesRead);
-                            }
+                            // Don't send audio held from before the disconnect later
+                            pacer.reset();
+                            if (gate != null) gate.reset();
                         }
                     } else if (bytesRead < 0) {
                         Log.d(TAG, "Audio read error: " + bytesRead);
                         break;
                     }
                 }
+                if (geminiLiveClient.isConnected()) {
+                    pacer.flush();
+                }
+                Log.d(TAG, "Mic audio: " + pacer.getStats());
+                if (gate != null) {
+                    gate.reset();
+                    Log.d(TAG, "Voice activity: " + gate.getStats());
+                }
             });
             recordingThread.start();
             
@@ -416,6 +489,7 @@ public class SessionActivity extends Activity {
                 Log.e(TAG, "Error stopping audio capture", e);
             }
         }
+        releaseAudioEffects();
         
         if (recordingThread != null) {
             try {
@@ -427,116 +501,77 @@ public class SessionActivity extends Activity {
         }
     }
 
-    private void playAudioChunk(byte[] audioData) {
-        Log.d(TAG, "playAudioChunk: size=" + (audioData != null ? audioData.length : 0) + ", manuallyMuted=" + isMuted);
-        // Only skip playback if manually muted by user, not during auto-pause
-        if (isMuted || audioData == null || audioData.length == 0) return;
-        
-        // Skip very small chunks (likely metadata/headers, not actual audio)
-        if (audioData.length < 100) {
-            Log.d(TAG, "Skipping small audio chunk (likely metadata): " + audioData.length + " bytes");
-            return;
-        }
-        
-        // Ensure audio data length is even (16-bit PCM = 2 bytes per sample)
-        if (audioData.length % 2 != 0) {
-            Log.w(TAG, "Audio data length is odd, truncating last byte");
-            byte[] trimmed = new byte[audioData.length - 1];
-            System.arraycopy(audioData, 0, trimmed, 0, trimmed.length);
-            audioData = trimmed;
+    // Voice-call audio mode: turns on the echo canceller's playback reference and the
+    // communication input processing. Playback goes to the loudspeaker unless a headset is in use.
+    private void enterCommunicationMode() {
+        if (audioManager == null) {
+            audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
         }
-        
-        try {
-            if (audioTrack == null || audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
-                // Gemini Live outputs audio at 24kHz, 16-bit PCM, mono, little-endian
-                int outputBufferSize = AudioTrack.getMinBufferSize(
-                    OUTPUT_SAMPLE_RATE,
-                    AudioFormat.CHANNEL_OUT_MONO,
-                    AUDIO_FORMAT
-                );
-                
-                if (outputBufferSize == AudioTrack.ERROR_BAD_VALUE || outputBufferSize == AudioTrack.ERROR) {
-                    Log.e(TAG, "Invalid buffer size for AudioTrack");
-                    return;
-                }
-                
-                // Use larger buffer for smoother playback
-                outputBufferSize = Math.max(outputBufferSize * 4, 8192);
-                
-                audioTrack = new AudioTrack(
-                    android.media.AudioManager.STREAM_MUSIC,
-                    OUTPUT_SAMPLE_RATE, // 24kHz for Gemini Live output
-                    AudioFormat.CHANNEL_OUT_MONO,
-                    AUDIO_FORMAT, // ENCODING_PCM_16BIT (little-endian by default on Android)
-                    outputBufferSize,
-                    AudioTrack.MODE_STREAM
-                );
-                
-                if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
-                    Log.e(TAG, "AudioTrack initialization failed, state: " + audioTrack.getState());
-                    audioTrack.release();
-                    audioTrack = null;
-                    return;
-                }
-                
-                audioTrack.play();
-                Log.d(TAG, "AudioTrack started, play state: " + audioTrack.getPlayState());
-            }
-            
-            // Check AudioTrack state before writing
-            if (audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) {
-                Log.w(TAG, "AudioTrack not playing, state: " + audioTrack.getPlayState() + ", restarting");
-                audioTrack.play();
-            }
-            
-            // Inspect first few samples to check format
-            if (audioData.length >= 20) {
-                StringBuilder hex = new StringBuilder();
-                for (int i = 0; i < Math.min(20, audioData.length); i++) {
-                    hex.append(String.format("%02X ", audioData[i] & 0xFF));
-                }
-                Log.d(TAG, "First 20 bytes (hex): " + hex.toString());
-                
-                // Check if data looks like PCM (should have variation)
-                boolean allZeros = true;
-                boolean allSame = true;
-                byte first = audioData[0];
-                for (int i = 0; i < Math.min(100, audioData.length); i++) {
-                    if (audioData[i] != 0) allZeros = false;
-                    if (audioData[i] != first) allSame = false;
+        if (previousAudioMode != -1) return;
+        previousAudioMode = audioManager.getMode();
+        audioManager.setMode(AudioManager.MODE_IN_COMMUNICATION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            AudioDeviceInfo current = audioManager.getCommunicationDevice();
+            if (current == null || current.getType() == AudioDeviceInfo.TYPE_BUILTIN_EARPIECE) {
+                for (AudioDeviceInfo device : audioManager.getAvailableCommunicationDevices()) {
+                    if (device.getType() == AudioDeviceInfo.TYPE_BUILTIN_SPEAKER) {
+                        audioManager.setCommunicationDevice(device);
+                        break;
+                    }
                 }
-                Log.d(TAG, "Audio data check - allZeros: " + allZeros + ", allSame: " + allSame);
             }
-            
-            // Write audio data directly (AudioTrack handles buffering internally)
-            int written = audioTrack.write(audioData, 0, audioData.length);
-            if (written < 0) {
-                Log.e(TAG, "Error writing audio data, code: " + written);
-            } else if (written != audioData.length) {
-                Log.w(TAG, "Partial write: " + written + " of " + audioData.length + " bytes");
-            } else {
-                Log.d(TAG, "Successfully wrote " + written + " bytes to AudioTrack");
-            }
-            
-            // Schedule resume sending audio after playback finishes (estimate: bytes / (sampleRate * bytesPerSample * channels))
-            // For 24kHz, 16-bit mono: bytes / (24000 * 2 * 1) = bytes / 48000 seconds
-            // Add buffer for safety and to allow for silence detection
-            long playbackDurationMs = (audioData.length * 1000L) / (OUTPUT_SAMPLE_RATE * 2) + 500; // +500ms buffer
-            unmuteRunnable = () -> {
-                if (isPlayingAudio) {
-                    isPlayingAudio = false;
-                    pauseSendingAudio = false; // Resume sending audio to Gemini
-                    Log.d(TAG, "Resumed sending audio to Gemini after playback");
-                    unmuteRunnable = null;
-                }
-            };
-            unmuteHandler.postDelayed(unmuteRunnable, playbackDurationMs);
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error playing audio", e);
+        } else if (!audioManager.isWiredHeadsetOn() && !audioManager.isBluetoothScoOn()) {
+            audioManager.setSpeakerphoneOn(true);
+        }
+    }
+    
+    private void exitCommunicationMode() {
+        if (audioManager == null || previousAudioMode == -1) return;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            audioManager.clearCommunicationDevice();
+        } else {
+            audioManager.setSpeakerphoneOn(false);
+        }
+        audioManager.setMode(previousAudioMode);
+        previousAudioMode = -1;
+    }
+    
+    // Most devices already apply these for VOICE_COMMUNICATION; enabling them explicitly covers the rest
+    private void attachAudioEffects(int audioSessionId) {
+        releaseAudioEffects();
+        if (AcousticEchoCanceler.isAvailable()) {
+            echoCanceler = AcousticEchoCanceler.create(audioSessionId);
+            if (echoCanceler != null) echoCanceler.setEnabled(true);
+        } else {
+            Log.w(TAG, "No acoustic echo canceler on this device");
+        }
+        if (NoiseSuppressor.isAvailable()) {
+            noiseSuppressor = NoiseSuppressor.create(audioSessionId);
+            if (noiseSuppressor != null) noiseSuppressor.setEnabled(true);
+        }
+    }
+    
+    private void releaseAudioEffects() {
+        if (echoCanceler != null) {
+            echoCanceler.release();
+            echoCanceler = null;
+        }
+        if (noiseSuppressor != null) {
+            noiseSuppressor.release();
+            noiseSuppressor = null;
         }
     }
 
+    // The Live tools follow what the user is doing; the client swaps them once the turn is over
+    private void updateToolMode(String functionName) {
+        if (geminiLiveClient == null) return;
+        if ("maps_navigation".equals(functionName)) {
+            geminiLiveClient.setToolMode(ToolSelector.Mode.NAVIGATION);
+        } else if ("gui_execute_plan".equals(functionName) || "gui_open_app".equals(functionName)) {
+            geminiLiveClient.setToolMode(ToolSelector.Mode.CONVERSATION);
+        }
+    }
+    
     private void handleGeminiFunctionCall(String functionName, JSONObject args, String callId) {
         // #region agent log
         try {
@@ -562,6 +597,17 @@ public class SessionActivity extends Activity {
         
         Log.d(TAG, "Gemini called: " + functionName + " with args: " + args);
         
+        // Reject malformed calls here so the model gets told what to fix instead of an agent half-running them
+        String invalid = SchemaRegistry.getInstance().validate(functionName, args);
+        if (invalid != null) {
+            Log.w(TAG, "Rejected " + functionName + ": " + invalid);
+            updateStatus("Invalid arguments for " + functionName);
+            sendFunctionResultToGemini(functionName, "Invalid arguments: " + invalid, callId);
+            return;
+        }
+        
+        updateToolMode(functionName);
+        
         // Use AgentRegistry to route function calls
         if (agentRegistry != null) {
             // #region agent log
@@ -814,7 +860,7 @@ public class SessionActivity extends Activity {
                                     origin = "37.7749,-122.4194"; // Fallback
                                 }
                                 
-                                JSONObject directions = mapsIntegration.getWalkingDirections(destination, origin);
+                                JsonCodec.Directions directions = mapsIntegration.getWalkingDirections(destination, origin);
                                 mainHandler.post(() -> {
                                     if (directions != null) {
                                         String result = "I've started navigation to " + destination;
@@ -987,7 +1033,7 @@ public class SessionActivity extends Activity {
     
     private String performGoogleSearch(String query) {
         try {
-            okhttp3.OkHttpClient client = new okhttp3.OkHttpClient();
+            okhttp3.OkHttpClient client = HttpStack.client(HttpStack.Profile.SEARCH);
             
             // If query is about weather, use weather API
             if (query.toLowerCase().contains("weather")) {
@@ -1106,16 +1152,8 @@ public class SessionActivity extends Activity {
         } else if (lowerName.contains("camera")) {
             return "com.android.camera2";
         }
-        // Try to find by querying installed packages
-        PackageManager pm = getPackageManager();
-        java.util.List<android.content.pm.ApplicationInfo> apps = pm.getInstalledApplications(0);
-        for (android.content.pm.ApplicationInfo app : apps) {
-            String label = pm.getApplicationLabel(app).toString().toLowerCase();
-            if (label.contains(lowerName) || lowerName.contains(label)) {
-                return app.packageName;
-            }
-        }
-        return null;
+        // Look up the launcher index (built in the background at app start)
+        return LauncherIndex.getInstance(this).findPackage(appName);
     }
     
     private void sendTextToGemini(String text) {
@@ -1222,20 +1260,18 @@ public class SessionActivity extends Activity {
         muteButton.setText(isMuted ? "UNMUTE" : "MUTE");
         muteButton.setBackgroundColor(isMuted ? 0xFF9E9E9E : 0xFF2196F3);
         
+        if (playbackEngine != null) {
+            playbackEngine.setMuted(isMuted);
+        }
         if (isMuted) {
             stopAudioCapture();
-            if (audioTrack != null) {
-                audioTrack.pause();
-                audioTrack.flush();
+            if (playbackEngine != null) {
+                playbackEngine.flush();
             }
             updateStatus("Muted");
-            isPlayingAudio = false; // Reset playback flag when manually muted
         } else {
             updateStatus("Unmuted - Listening...");
             startAudioCapture();
-            if (audioTrack != null) {
-                audioTrack.play();
-            }
         }
     }
 
@@ -1243,15 +1279,22 @@ public class SessionActivity extends Activity {
         isMuted = true;
         stopAudioCapture();
         
-        if (audioTrack != null) {
-            audioTrack.stop();
-            audioTrack.release();
-            audioTrack = null;
+        if (playbackEngine != null) {
+            if (geminiLiveClient != null) {
+                geminiLiveClient.setPlaybackEngine(null);
+            }
+            Log.d(TAG, "Playback: " + playbackEngine.getStats());
+            playbackEngine.release();
+            playbackEngine = null;
         }
+        exitCommunicationMode();
         
         if (geminiLiveClient != null) {
             geminiLiveClient.stopSession();
         }
+        if (agentRegistry != null) {
+            agentRegistry.release();
+        }
         
         finish();
     }
@@ -1260,6 +1303,8 @@ public class SessionActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         stopSession();
+        Log.d(TAG, "Session tokens: " + TokenMeter.getInstance().getStats());
+        Log.d(TAG, "Tool selection: " + ToolSelector.getInstance().getStats());
         if (executorService != null) {
             executorService.shutdown();
         }
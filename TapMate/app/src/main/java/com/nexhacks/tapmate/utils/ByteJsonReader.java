@@ -0,0 +1,427 @@
+package com.nexhacks.tapmate.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Pull parser over UTF-8 JSON in a ByteBuffer, in the style of android.util.JsonReader but
+// without a Reader or char buffer in between: it works on the frame bytes in place and can
+// hand back where a string value sits instead of copying it. Names the caller lists up front
+// come back as the same String instances, so matching them allocates nothing. Commas and
+// colons are treated as separators without being checked. Not thread-safe; reset() per frame.
+public class ByteJsonReader {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int OBJECT_NAME = 0;
+    private static final int OBJECT_VALUE = 1;
+    private static final int ARRAY = 2;
+
+    private final String[] knownNames;
+    private final byte[][] knownNameBytes;
+
+    private ByteBuffer in;
+    private int pos;
+    private int limit;
+    private int[] stack = new int[16];
+    private int depth;
+    private byte[] scratch = new byte[256];
+    private int spanStart;
+    private int spanEnd;
+
+    public ByteJsonReader(String... knownNames) {
+        this.knownNames = knownNames;
+        this.knownNameBytes = new byte[knownNames.length][];
+        for (int i = 0; i < knownNames.length; i++) {
+            knownNameBytes[i] = knownNames[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // Starts over on the remaining bytes of frame (its position is left alone)
+    public void reset(ByteBuffer frame) {
+        in = frame;
+        pos = frame.position();
+        limit = frame.limit();
+        depth = 0;
+    }
+
+    public Token peek() throws IOException {
+        skipSeparators();
+        if (pos >= limit) return Token.END_DOCUMENT;
+        byte b = in.get(pos);
+        switch (b) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '"':
+                return depth > 0 && stack[depth - 1] == OBJECT_NAME ? Token.NAME : Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                if (b == '-' || b >= '0' && b <= '9') return Token.NUMBER;
+                throw syntaxError("Unexpected '" + (char) b + "'");
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        valueStarted();
+        pos++;
+        push(OBJECT_NAME);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        valueStarted();
+        pos++;
+        push(ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    // The next name; one of the known names as the same instance when it matches
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        readStringSpan();
+        stack[depth - 1] = OBJECT_VALUE;
+        if (spanHasNoEscapes()) {
+            int length = spanEnd - spanStart;
+            for (int i = 0; i < knownNameBytes.length; i++) {
+                if (knownNameBytes[i].length == length && regionMatches(spanStart, knownNameBytes[i])) {
+                    return knownNames[i];
+                }
+            }
+        }
+        return decodeSpan();
+    }
+
+    public String nextString() throws IOException {
+        expectValue(Token.STRING);
+        readStringSpan();
+        return decodeSpan();
+    }
+
+    // Consumes a string value and reports where its raw (still escaped) contents are:
+    // [spanStart(), spanEnd()) of the frame
+    public void nextStringSpan() throws IOException {
+        expectValue(Token.STRING);
+        readStringSpan();
+    }
+
+    public int spanStart() {
+        return spanStart;
+    }
+
+    public int spanEnd() {
+        return spanEnd;
+    }
+
+    // Consumes a string value; true if it starts with the ASCII prefix
+    public boolean nextStringStartsWith(String prefix) throws IOException {
+        expectValue(Token.STRING);
+        readStringSpan();
+        if (spanEnd - spanStart < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (in.get(spanStart + i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expectValue(Token.BOOLEAN);
+        if (literal("true")) return true;
+        if (literal("false")) return false;
+        throw syntaxError("Expected a boolean");
+    }
+
+    public void nextNull() throws IOException {
+        expectValue(Token.NULL);
+        if (!literal("null")) throw syntaxError("Expected null");
+    }
+
+    public void skipValue() throws IOException {
+        Token token = peek();
+        switch (token) {
+            case BEGIN_OBJECT:
+            case BEGIN_ARRAY:
+                valueStarted();
+                int nesting = 0;
+                do {
+                    byte b = in.get(pos);
+                    if (b == '"') {
+                        pos = stringEnd(pos + 1);
+                    } else if (b == '{' || b == '[') {
+                        nesting++;
+                    } else if (b == '}' || b == ']') {
+                        nesting--;
+                    }
+                    pos++;
+                    if (nesting > 0 && pos >= limit) throw syntaxError("Unterminated value");
+                } while (nesting > 0);
+                break;
+            case STRING:
+                valueStarted();
+                pos = stringEnd(pos + 1) + 1;
+                break;
+            case BOOLEAN:
+            case NULL:
+            case NUMBER:
+                valueStarted();
+                skipScalar();
+                break;
+            default:
+                throw syntaxError("Expected a value but was " + token);
+        }
+    }
+
+    // The object at the reader as an org.json tree (tool call args, usage metadata)
+    public JSONObject nextJSONObject() throws IOException {
+        JSONObject object = new JSONObject();
+        beginObject();
+        try {
+            while (hasNext()) {
+                object.put(nextName(), nextJSONValue());
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        endObject();
+        return object;
+    }
+
+    private Object nextJSONValue() throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                return nextJSONObject();
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    array.put(nextJSONValue());
+                }
+                endArray();
+                return array;
+            case NUMBER:
+                valueStarted();
+                int start = pos;
+                skipScalar();
+                String number = new String(bytes(start, pos), StandardCharsets.US_ASCII);
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        // too large for a long
+                    }
+                }
+                try {
+                    return Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    throw syntaxError("Bad number " + number);
+                }
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return JSONObject.NULL;
+            default:
+                return nextString();
+        }
+    }
+
+    // ---- Internals
+
+    private void skipSeparators() {
+        while (pos < limit) {
+            byte b = in.get(pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t' && b != ',' && b != ':') return;
+            pos++;
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) throw syntaxError("Expected " + expected + " but was " + token);
+    }
+
+    private void expectValue(Token expected) throws IOException {
+        expect(expected);
+        valueStarted();
+    }
+
+    // A value is being read: the enclosing object expects a name after it
+    private void valueStarted() {
+        if (depth > 0 && stack[depth - 1] == OBJECT_VALUE) {
+            stack[depth - 1] = OBJECT_NAME;
+        }
+    }
+
+    private void push(int context) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = context;
+    }
+
+    // pos is at the opening quote; leaves it after the closing one
+    private void readStringSpan() throws IOException {
+        spanStart = pos + 1;
+        spanEnd = stringEnd(spanStart);
+        pos = spanEnd + 1;
+    }
+
+    // Index of the closing quote of the string whose contents start at from
+    private int stringEnd(int from) throws IOException {
+        for (int i = from; i < limit; i++) {
+            byte b = in.get(i);
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                return i;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipScalar() {
+        while (pos < limit) {
+            byte b = in.get(pos);
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') return;
+            pos++;
+        }
+    }
+
+    private boolean literal(String word) {
+        if (pos + word.length() > limit) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (in.get(pos + i) != word.charAt(i)) return false;
+        }
+        pos += word.length();
+        return true;
+    }
+
+    private boolean regionMatches(int at, byte[] needle) {
+        for (int j = 0; j < needle.length; j++) {
+            if (in.get(at + j) != needle[j]) return false;
+        }
+        return true;
+    }
+
+    private boolean spanHasNoEscapes() {
+        for (int i = spanStart; i < spanEnd; i++) {
+            if (in.get(i) == '\\') return false;
+        }
+        return true;
+    }
+
+    private byte[] bytes(int from, int to) {
+        byte[] out = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            out[i - from] = in.get(i);
+        }
+        return out;
+    }
+
+    // The current span as a String, resolving escapes; the UTF-8 bytes pass through as-is
+    private String decodeSpan() throws IOException {
+        int n = 0;
+        for (int i = spanStart; i < spanEnd; i++) {
+            if (n + 4 > scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            byte b = in.get(i);
+            if (b != '\\') {
+                scratch[n++] = b;
+                continue;
+            }
+            byte e = in.get(++i);
+            switch (e) {
+                case 'n': scratch[n++] = '\n'; break;
+                case 't': scratch[n++] = '\t'; break;
+                case 'r': scratch[n++] = '\r'; break;
+                case 'b': scratch[n++] = '\b'; break;
+                case 'f': scratch[n++] = '\f'; break;
+                case 'u':
+                    int c = hex(i + 1);
+                    i += 4;
+                    // A surrogate pair is written as two escapes
+                    if (Character.isHighSurrogate((char) c) && i + 6 < spanEnd
+                            && in.get(i + 1) == '\\' && in.get(i + 2) == 'u') {
+                        int low = hex(i + 3);
+                        if (Character.isLowSurrogate((char) low)) {
+                            c = Character.toCodePoint((char) c, (char) low);
+                            i += 6;
+                        }
+                    }
+                    n = putUtf8(c, n);
+                    break;
+                default:
+                    // \" \\ \/
+                    scratch[n++] = e;
+            }
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private int hex(int at) throws IOException {
+        if (at + 4 > spanEnd) throw syntaxError("Bad \\u escape");
+        int value = 0;
+        for (int i = at; i < at + 4; i++) {
+            int digit = Character.digit(in.get(i), 16);
+            if (digit < 0) throw syntaxError("Bad \\u escape");
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private int putUtf8(int c, int n) {
+        if (c < 0x80) {
+            scratch[n++] = (byte) c;
+        } else if (c < 0x800) {
+            scratch[n++] = (byte) (0xc0 | c >> 6);
+            scratch[n++] = (byte) (0x80 | c & 0x3f);
+        } else if (c < 0x10000) {
+            scratch[n++] = (byte) (0xe0 | c >> 12);
+            scratch[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+            scratch[n++] = (byte) (0x80 | c & 0x3f);
+        } else {
+            scratch[n++] = (byte) (0xf0 | c >> 18);
+            scratch[n++] = (byte) (0x80 | c >> 12 & 0x3f);
+            scratch[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+            scratch[n++] = (byte) (0x80 | c & 0x3f);
+        }
+        return n;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at byte " + (pos - (in != null ? in.position() : 0)));
+    }
+}
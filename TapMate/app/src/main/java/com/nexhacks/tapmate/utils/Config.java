@@ -11,6 +11,14 @@ public class Config {
     public static String GEMINI_API_KEY = "";
     public static String OVERSHOOT_API_KEY = "";
     public static String MAPS_API_KEY = "";
+    // Model tokens (prompt + output) per session before agents switch to cheaper prompts; 0 = no limit
+    public static long SESSION_TOKEN_BUDGET = 0;
+    // Mic audio sent to Live per message: 20 = lowest latency, 100 = fewest messages
+    public static int AUDIO_FRAME_MS = 40;
+    // Longest a partial frame waits for more audio before it is sent anyway
+    public static int AUDIO_FRAME_MAX_HOLD_MS = 60;
+    // Detect speech on the phone and only send that; false streams everything and lets Live detect turns
+    public static boolean LOCAL_VAD = true;
 
     // Load keys from assets/env file
     public static void loadEnv(Context context) {
@@ -48,6 +56,22 @@ public class Config {
                         case "GOOGLE_CLOUD_API_KEY": // Fallback for user convenience
                             MAPS_API_KEY = value;
                             break;
+                        case "SESSION_TOKEN_BUDGET":
+                            try {
+                                SESSION_TOKEN_BUDGET = Long.parseLong(value);
+                            } catch (NumberFormatException e) {
+                                Log.w(TAG, "Ignoring invalid SESSION_TOKEN_BUDGET: " + value);
+                            }
+                            break;
+                        case "AUDIO_FRAME_MS":
+                            AUDIO_FRAME_MS = parseMillis(key, value, AUDIO_FRAME_MS, 10, 200);
+                            break;
+                        case "AUDIO_FRAME_MAX_HOLD_MS":
+                            AUDIO_FRAME_MAX_HOLD_MS = parseMillis(key, value, AUDIO_FRAME_MAX_HOLD_MS, 10, 500);
+                            break;
+                        case "LOCAL_VAD":
+                            LOCAL_VAD = !"false".equalsIgnoreCase(value);
+                            break;
                     }
                 }
             }
@@ -60,6 +84,17 @@ public class Config {
         }
     }
     
+    private static int parseMillis(String key, String value, int current, int min, int max) {
+        try {
+            int ms = Integer.parseInt(value);
+            if (ms >= min && ms <= max) return ms;
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        Log.w(TAG, "Ignoring invalid " + key + " (expected " + min + "-" + max + "): " + value);
+        return current;
+    }
+    
     // Getter methods for API keys
     public static String getGeminiApiKey() {
         return GEMINI_API_KEY;
@@ -0,0 +1,115 @@
+package com.nexhacks.tapmate.utils;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// App-scoped HTTP stack: every client shares one connection pool and dispatcher, so a TLS
+// connection to a host is set up once and reused (and multiplexed over HTTP/2) by every
+// agent that talks to it. Clients differ only in their timeout profile.
+public class HttpStack {
+    private static final String TAG = "HttpStack";
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 32;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+
+    // Hosts the app talks to during a session
+    private static final String[] WARM_HOSTS = {
+        "https://generativelanguage.googleapis.com/",
+        "https://us-central1-generativelanguage.googleapis.com/",
+        "https://maps.googleapis.com/",
+        "https://serpapi.com/",
+        "https://wttr.in/"
+    };
+
+    public enum Profile {
+        // connect, read, write timeouts in seconds (0 = none)
+        GEMINI(30, 30, 30),
+        LIVE(30, 0, 0),
+        SEARCH(10, 10, 10),
+        MAPS(10, 10, 10),
+        VISION(5, 5, 5),
+        PREWARM(5, 5, 5);
+
+        final int connectSeconds;
+        final int readSeconds;
+        final int writeSeconds;
+
+        Profile(int connectSeconds, int readSeconds, int writeSeconds) {
+            this.connectSeconds = connectSeconds;
+            this.readSeconds = readSeconds;
+            this.writeSeconds = writeSeconds;
+        }
+    }
+
+    private static final OkHttpClient BASE = buildBase();
+    private static final Map<Profile, OkHttpClient> CLIENTS = new EnumMap<>(Profile.class);
+
+    private static OkHttpClient buildBase() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    // Client for the given profile; newBuilder() keeps the shared pool and dispatcher
+    public static synchronized OkHttpClient client(Profile profile) {
+        OkHttpClient client = CLIENTS.get(profile);
+        if (client == null) {
+            client = BASE.newBuilder()
+                    .connectTimeout(profile.connectSeconds, TimeUnit.SECONDS)
+                    .readTimeout(profile.readSeconds, TimeUnit.SECONDS)
+                    .writeTimeout(profile.writeSeconds, TimeUnit.SECONDS)
+                    .build();
+            CLIENTS.put(profile, client);
+        }
+        return client;
+    }
+
+    // Open connections (DNS + TCP + TLS) to the session's hosts ahead of the first real
+    // request. The HEAD responses are discarded; the connections stay in the pool.
+    public static void prewarm() {
+        OkHttpClient client = client(Profile.PREWARM);
+        for (String url : WARM_HOSTS) {
+            final long start = System.currentTimeMillis();
+            Request request = new Request.Builder().url(url).head().build();
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.d(TAG, "Pre-warm failed for " + url + ": " + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                    Log.d(TAG, "Pre-warmed " + url + " (" + response.protocol() + ") in " +
+                        (System.currentTimeMillis() - start) + "ms");
+                }
+            });
+        }
+    }
+
+    public static String getStats() {
+        ConnectionPool pool = BASE.connectionPool();
+        return "connections=" + pool.connectionCount() + ", idle=" + pool.idleConnectionCount() +
+            ", queued=" + BASE.dispatcher().queuedCallsCount() + ", running=" + BASE.dispatcher().runningCallsCount();
+    }
+}
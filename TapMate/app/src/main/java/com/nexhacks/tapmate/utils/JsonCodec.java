@@ -0,0 +1,657 @@
+package com.nexhacks.tapmate.utils;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import okio.BufferedSource;
+
+// Pull-parser readers for the response bodies on hot paths (Gemini, SerpAPI, wttr.in, Places,
+// Directions) and a writer for small request bodies. Each reader walks the stream once,
+// keeps only the fields its caller uses and skips the rest without building org.json trees.
+// Readers throw IOException when a field the old getJSONxxx() code required is missing.
+public class JsonCodec {
+
+    // ---- Gemini generateContent: a whole response or one streamed chunk
+
+    public static final class Part {
+        public final String text;
+        public final String functionName;
+        public final JSONObject functionArgs;
+
+        Part(String text, String functionName, JSONObject functionArgs) {
+            this.text = text;
+            this.functionName = functionName;
+            this.functionArgs = functionArgs;
+        }
+
+        public boolean isFunctionCall() {
+            return functionName != null;
+        }
+    }
+
+    public static final class GenerateContent {
+        // Parts of candidates[0].content, in order
+        public final List<Part> parts = new ArrayList<>();
+        public JSONObject usageMetadata;
+        boolean hasCandidate = false;
+
+        public Part firstFunctionCall() {
+            for (Part part : parts) {
+                if (part.isFunctionCall()) return part;
+            }
+            return null;
+        }
+
+        public String text() {
+            StringBuilder text = new StringBuilder();
+            for (Part part : parts) {
+                if (part.text != null) text.append(part.text);
+            }
+            return text.toString();
+        }
+    }
+
+    // requireCandidate: a full response without candidates (e.g. blocked prompt) is an error;
+    // stream chunks may legitimately carry only usageMetadata
+    public static GenerateContent readGenerateContent(Reader in, boolean requireCandidate) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        GenerateContent result = new GenerateContent();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("candidates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readCandidate(reader, result);
+                }
+                skipRest(reader);
+                reader.endArray();
+            } else if (name.equals("usageMetadata") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                result.usageMetadata = readObject(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (requireCandidate && !result.hasCandidate) {
+            throw new IOException("Response has no candidates[0].content");
+        }
+        return result;
+    }
+
+    private static void readCandidate(JsonReader reader, GenerateContent result) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("content") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            result.hasCandidate = true;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("parts") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Part part = readPart(reader);
+                    if (part != null) result.parts.add(part);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    private static Part readPart(JsonReader reader) throws IOException {
+        String text = null;
+        String functionName = null;
+        JSONObject functionArgs = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("text")) {
+                text = readString(reader);
+            } else if (name.equals("functionCall") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("name")) {
+                        functionName = readString(reader);
+                    } else if (field.equals("args") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        functionArgs = readObject(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (functionName != null) {
+            return new Part(null, functionName, functionArgs != null ? functionArgs : new JSONObject());
+        }
+        return text != null ? new Part(text, null, null) : null;
+    }
+
+    // ---- SerpAPI search.json
+
+    public static final class SearchResults {
+        public String answer;
+        public String answerSnippet;
+        // {title, snippet or null}
+        public final List<String[]> organic = new ArrayList<>();
+    }
+
+    public static SearchResults readSerpApi(Reader in, int maxResults) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        SearchResults results = new SearchResults();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("answer_box") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (field.equals("answer")) {
+                        results.answer = readString(reader);
+                    } else if (field.equals("snippet")) {
+                        results.answerSnippet = readString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (name.equals("organic_results") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (results.organic.size() >= maxResults) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    String title = null;
+                    String snippet = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (field.equals("title")) {
+                            title = readString(reader);
+                        } else if (field.equals("snippet")) {
+                            snippet = readString(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (title == null) {
+                        throw new IOException("Organic result without a title");
+                    }
+                    results.organic.add(new String[] {title, snippet});
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return results;
+    }
+
+    // ---- wttr.in ?format=j1
+
+    public static final class Weather {
+        public String tempF;
+        public String tempC;
+        public String condition;
+        public String humidity;
+        public String windMph;
+    }
+
+    public static Weather readWttrCurrent(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        Weather weather = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("current_condition") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    weather = readCurrentCondition(reader);
+                }
+                skipRest(reader);
+                reader.endArray();
+            } else {
+                // The multi-day "weather" forecast is most of the body
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (weather == null || weather.tempF == null || weather.tempC == null || weather.condition == null
+            || weather.humidity == null || weather.windMph == null) {
+            throw new IOException("Incomplete current_condition in wttr.in response");
+        }
+        return weather;
+    }
+
+    private static Weather readCurrentCondition(JsonReader reader) throws IOException {
+        Weather weather = new Weather();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "temp_F":
+                    weather.tempF = readString(reader);
+                    break;
+                case "temp_C":
+                    weather.tempC = readString(reader);
+                    break;
+                case "humidity":
+                    weather.humidity = readString(reader);
+                    break;
+                case "windspeedMiles":
+                    weather.windMph = readString(reader);
+                    break;
+                case "weatherDesc":
+                    if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        if (reader.hasNext()) {
+                            weather.condition = readField(reader, "value");
+                        }
+                        skipRest(reader);
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return weather;
+    }
+
+    // ---- Places text search: results[0].geometry.location
+
+    // {lat, lng} of the first result, or null when there are no results
+    public static double[] readFirstPlaceLocation(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        double[] location = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("results") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            if (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("location") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                                location = readLatLng(reader);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (location == null) {
+                    throw new IOException("First place has no geometry.location");
+                }
+            }
+            skipRest(reader);
+            reader.endArray();
+        }
+        reader.endObject();
+        return location;
+    }
+
+    // ---- Directions API: routes[0].legs[0]
+
+    public static final class Directions {
+        public String status;
+        public String errorMessage;
+        public boolean hasRoute = false;
+        public String summary;
+        public long distanceMeters;
+        public long durationSeconds;
+        public final List<Step> steps = new ArrayList<>();
+    }
+
+    public static final class Step {
+        public String instruction;
+        public long distanceMeters;
+        public double endLat;
+        public double endLng;
+    }
+
+    public static Directions readDirections(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        Directions directions = new Directions();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("status")) {
+                directions.status = readString(reader);
+            } else if (name.equals("error_message")) {
+                directions.errorMessage = readString(reader);
+            } else if (name.equals("routes") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readRoute(reader, directions);
+                }
+                skipRest(reader);
+                reader.endArray();
+            } else {
+                // geocoded_waypoints etc.
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return directions;
+    }
+
+    private static void readRoute(JsonReader reader, Directions directions) throws IOException {
+        directions.hasRoute = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("summary")) {
+                directions.summary = readString(reader);
+            } else if (name.equals("legs") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readLeg(reader, directions);
+                }
+                skipRest(reader);
+                reader.endArray();
+            } else {
+                // overview_polyline, bounds, warnings...
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readLeg(JsonReader reader, Directions directions) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("distance") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                directions.distanceMeters = parseLong(readField(reader, "value"));
+            } else if (name.equals("duration") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                directions.durationSeconds = parseLong(readField(reader, "value"));
+            } else if (name.equals("steps") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    directions.steps.add(readStep(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static Step readStep(JsonReader reader) throws IOException {
+        Step step = new Step();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("html_instructions")) {
+                step.instruction = readString(reader);
+            } else if (name.equals("distance") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                step.distanceMeters = parseLong(readField(reader, "value"));
+            } else if (name.equals("end_location") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                double[] end = readLatLng(reader);
+                step.endLat = end[0];
+                step.endLng = end[1];
+            } else {
+                // polyline, start_location, travel_mode, maneuver
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return step;
+    }
+
+    // ---- Writers
+
+    // {"contents":[{"parts":[{"text":...}]}]} for a one-shot text generateContent call
+    public static byte[] writeTextRequest(String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() + 64);
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.beginObject().name("contents").beginArray()
+                .beginObject().name("parts").beginArray()
+                .beginObject().name("text").value(text).endObject()
+                .endArray().endObject()
+                .endArray().endObject();
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // ---- Helpers
+
+    // Reader for a response body: use with ResponseBody.source() instead of charStream()
+    public static Reader reader(BufferedSource source) {
+        return new Utf8SourceReader(source);
+    }
+
+    // Decodes UTF-8 from the okio source into the caller's array (JsonReader's own buffer)
+    // through a 1 KB scratch array, instead of InputStreamReader's 8 KB buffer and decoder
+    private static final class Utf8SourceReader extends Reader {
+        private final BufferedSource source;
+        private final byte[] bytes = new byte[1024];
+        // Bytes of a sequence split across reads, kept at the start of bytes
+        private int carry = 0;
+        // Low surrogate that didn't fit in the previous read
+        private int pendingLow = -1;
+
+        Utf8SourceReader(BufferedSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            int count = 0;
+            if (pendingLow >= 0) {
+                buffer[offset + count++] = (char) pendingLow;
+                pendingLow = -1;
+            }
+            while (count < length) {
+                // Every byte decodes to at most one char, except 4-byte sequences (two chars)
+                int read = source.read(bytes, carry, Math.min(bytes.length - carry, length - count));
+                if (read == -1) {
+                    if (carry > 0) {
+                        buffer[offset + count++] = '\uFFFD';
+                        carry = 0;
+                    }
+                    break;
+                }
+                int end = carry + read;
+                int i = 0;
+                while (i < end && count < length) {
+                    int b = bytes[i];
+                    if (b >= 0) {
+                        buffer[offset + count++] = (char) b;
+                        i++;
+                        continue;
+                    }
+                    int size = (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 0;
+                    if (size == 0) {
+                        buffer[offset + count++] = '\uFFFD';
+                        i++;
+                        continue;
+                    }
+                    if (i + size > end) break;
+                    int codePoint = b & (0x7F >> size);
+                    for (int k = 1; k < size; k++) {
+                        codePoint = (codePoint << 6) | (bytes[i + k] & 0x3F);
+                    }
+                    i += size;
+                    if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                        buffer[offset + count++] = (char) codePoint;
+                    } else {
+                        buffer[offset + count++] = Character.highSurrogate(codePoint);
+                        if (count < length) {
+                            buffer[offset + count++] = Character.lowSurrogate(codePoint);
+                        } else {
+                            pendingLow = Character.lowSurrogate(codePoint);
+                        }
+                    }
+                }
+                carry = end - i;
+                System.arraycopy(bytes, i, bytes, 0, carry);
+                // Return what we have rather than block for more
+                if (count > 0) break;
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    // Subtree as org.json, for the small parts callers hand on as JSONObject (tool args, usage)
+    public static JSONObject readObject(JsonReader reader) throws IOException {
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        try {
+            while (reader.hasNext()) {
+                object.put(reader.nextName(), readValue(reader));
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        reader.endObject();
+        return object;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                String number = reader.nextString();
+                if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        // too large for a long
+                    }
+                }
+                return Double.parseDouble(number);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    // String value the way JSONObject.getString() would render it
+    private static String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                return readValue(reader).toString();
+        }
+    }
+
+    // One field of the object at the reader, skipping the others
+    private static String readField(JsonReader reader, String field) throws IOException {
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(field)) {
+                value = readString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    private static double[] readLatLng(JsonReader reader) throws IOException {
+        double lat = Double.NaN;
+        double lng = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("lat")) {
+                lat = reader.nextDouble();
+            } else if (name.equals("lng")) {
+                lng = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (Double.isNaN(lat) || Double.isNaN(lng)) {
+            throw new IOException("Location without lat/lng");
+        }
+        return new double[] {lat, lng};
+    }
+
+    // Skip the remaining elements of the array the reader is in
+    private static void skipRest(JsonReader reader) throws IOException {
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return (long) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
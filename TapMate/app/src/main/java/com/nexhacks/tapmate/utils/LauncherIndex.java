@@ -0,0 +1,280 @@
+package com.nexhacks.tapmate.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.util.Log;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Label -> package index of launchable apps, built once in the background and kept up
+// to date from package add/remove/replace broadcasts, so gui_open_app is a map lookup
+// instead of a walk over every installed application
+public class LauncherIndex {
+    private static final String TAG = "LauncherIndex";
+    private static final long BUILD_WAIT_MS = 3000;
+    private static volatile LauncherIndex INSTANCE;
+
+    private final Context context;
+    private final Map<String, Entry> byPackage = new ConcurrentHashMap<>();
+    private volatile Map<String, String> byCompactLabel = new HashMap<>();
+    private volatile Map<String, Set<String>> byToken = new HashMap<>();
+    private final CountDownLatch built = new CountDownLatch(1);
+    private boolean started = false;
+
+    static class Entry {
+        final String packageName;
+        final String label;
+        final String compact;
+        final String[] tokens;
+
+        Entry(String packageName, String label) {
+            this.packageName = packageName;
+            this.label = label;
+            String normalized = normalize(label);
+            this.compact = normalized.replace(" ", "");
+            this.tokens = normalized.isEmpty() ? new String[0] : normalized.split(" ");
+        }
+    }
+
+    private LauncherIndex(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static LauncherIndex getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (LauncherIndex.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new LauncherIndex(context);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Build the index on a background thread and start listening for package changes
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageReceiver, filter);
+
+        Thread builder = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                Intent launcherIntent = new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_LAUNCHER);
+                PackageManager pm = context.getPackageManager();
+                List<ResolveInfo> activities = pm.queryIntentActivities(launcherIntent, 0);
+                for (ResolveInfo info : activities) {
+                    String packageName = info.activityInfo.packageName;
+                    byPackage.put(packageName, new Entry(packageName, info.loadLabel(pm).toString()));
+                }
+                rebuildLookups();
+                Log.d(TAG, "Indexed " + byPackage.size() + " launchable apps in " +
+                    (System.currentTimeMillis() - start) + "ms");
+            } catch (Exception e) {
+                Log.e(TAG, "Error building launcher index", e);
+            } finally {
+                built.countDown();
+            }
+        }, "LauncherIndex");
+        builder.setPriority(Thread.MIN_PRIORITY);
+        builder.start();
+    }
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context ctx, Intent intent) {
+            if (intent.getData() == null) return;
+            String packageName = intent.getData().getSchemeSpecificPart();
+            String action = intent.getAction();
+            boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(action)) {
+                // A replace sends REMOVED then ADDED/REPLACED; keep the entry until then
+                if (!replacing && byPackage.remove(packageName) != null) {
+                    rebuildLookups();
+                }
+                return;
+            }
+            // Loading a label hits the package manager, keep it off the main thread
+            new Thread(() -> reindexPackage(packageName), "LauncherIndex-update").start();
+        }
+    };
+
+    private void reindexPackage(String packageName) {
+        try {
+            PackageManager pm = context.getPackageManager();
+            Intent launcherIntent = new Intent(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER)
+                .setPackage(packageName);
+            List<ResolveInfo> activities = pm.queryIntentActivities(launcherIntent, 0);
+            if (activities.isEmpty()) {
+                byPackage.remove(packageName);
+            } else {
+                byPackage.put(packageName, new Entry(packageName, activities.get(0).loadLabel(pm).toString()));
+            }
+            rebuildLookups();
+            Log.d(TAG, "Reindexed package: " + packageName);
+        } catch (Exception e) {
+            Log.e(TAG, "Error reindexing " + packageName, e);
+        }
+    }
+
+    // Lookup maps are rebuilt and swapped in whole; readers never see a half-updated map
+    private synchronized void rebuildLookups() {
+        Map<String, String> labels = new HashMap<>();
+        Map<String, Set<String>> tokens = new HashMap<>();
+        for (Entry entry : byPackage.values()) {
+            Entry existing = labels.containsKey(entry.compact) ? byPackage.get(labels.get(entry.compact)) : null;
+            if (existing == null || entry.packageName.length() < existing.packageName.length()) {
+                labels.put(entry.compact, entry.packageName);
+            }
+            for (String token : entry.tokens) {
+                Set<String> packages = tokens.get(token);
+                if (packages == null) {
+                    packages = new HashSet<>();
+                    tokens.put(token, packages);
+                }
+                packages.add(entry.packageName);
+            }
+        }
+        byCompactLabel = labels;
+        byToken = tokens;
+    }
+
+    public boolean isReady() {
+        return built.getCount() == 0;
+    }
+
+    // Resolve a spoken app name to a package name, or null if nothing matches
+    public String findPackage(String appName) {
+        return findPackage(appName, true);
+    }
+
+    // Only an exact label, a package name or a label holding every spoken word; for callers
+    // that act on the match without confirming it (no substring or edit-distance guesses)
+    public String findPackageExact(String appName) {
+        return findPackage(appName, false);
+    }
+
+    private String findPackage(String appName, boolean fuzzy) {
+        if (appName == null) return null;
+        if (!isReady()) {
+            try {
+                built.await(BUILD_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String normalized = normalize(appName);
+        if (normalized.endsWith(" app")) {
+            normalized = normalized.substring(0, normalized.length() - 4);
+        }
+        String compact = normalized.replace(" ", "");
+        if (compact.isEmpty()) return null;
+
+        // 1. Exact label match ("WhatsApp", "whats app")
+        String exact = byCompactLabel.get(compact);
+        if (exact != null) return exact;
+
+        // 2. Package name spoken directly
+        if (byPackage.containsKey(appName.trim())) return appName.trim();
+
+        // 3. Every query token appears in the label ("google maps" -> "Maps" won't, "maps" -> "Google Maps" will)
+        String[] queryTokens = normalized.split(" ");
+        Set<String> candidates = null;
+        for (String token : queryTokens) {
+            Set<String> packages = byToken.get(token);
+            if (packages == null) {
+                candidates = null;
+                break;
+            }
+            if (candidates == null) {
+                candidates = new HashSet<>(packages);
+            } else {
+                candidates.retainAll(packages);
+            }
+        }
+        String best = shortestLabel(candidates);
+        if (best != null || !fuzzy) return best;
+
+        // 4. Substring either way (old behaviour), then 5. small edit distance
+        List<String> substringMatches = new ArrayList<>();
+        String fuzzyBest = null;
+        int fuzzyBestDistance = Integer.MAX_VALUE;
+        int maxDistance = Math.max(1, compact.length() / 4);
+        for (Entry entry : byPackage.values()) {
+            if (entry.compact.isEmpty()) continue;
+            if (entry.compact.contains(compact) || compact.contains(entry.compact)) {
+                substringMatches.add(entry.packageName);
+                continue;
+            }
+            int distance = boundedEditDistance(compact, entry.compact, maxDistance);
+            if (distance <= maxDistance && distance < fuzzyBestDistance) {
+                fuzzyBestDistance = distance;
+                fuzzyBest = entry.packageName;
+            }
+        }
+        best = shortestLabel(substringMatches);
+        return best != null ? best : fuzzyBest;
+    }
+
+    private String shortestLabel(java.util.Collection<String> packages) {
+        if (packages == null) return null;
+        Entry best = null;
+        for (String packageName : packages) {
+            Entry entry = byPackage.get(packageName);
+            if (entry != null && (best == null || entry.label.length() < best.label.length())) {
+                best = entry;
+            }
+        }
+        return best != null ? best.packageName : null;
+    }
+
+    static String normalize(String text) {
+        String stripped = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        return stripped.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", " ").trim();
+    }
+
+    // Levenshtein distance that gives up once every cell in a row exceeds the bound
+    static int boundedEditDistance(String a, String b, int bound) {
+        if (Math.abs(a.length() - b.length()) > bound) return bound + 1;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > bound) return bound + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -4,8 +4,6 @@ import android.content.Context;
 import android.location.Location;
 import android.util.Log;
 
-import org.json.JSONObject;
-
 import java.io.IOException;
 
 import okhttp3.OkHttpClient;
@@ -24,10 +22,11 @@ public class MapsIntegration {
         STOP_IMMEDIATELY
     }
 
-    private final OkHttpClient client = new OkHttpClient();
+    private final OkHttpClient client = HttpStack.client(HttpStack.Profile.MAPS);
 
     // 1. Get Walking Directions (Brain Tool)
-    public JSONObject getWalkingDirections(String destination, String origin) {
+    // First route's leg and steps, or null if there is none
+    public JsonCodec.Directions getWalkingDirections(String destination, String origin) {
         try {
             // First, try to get place details using Places API Text Search
             String placesUrl = "https://maps.googleapis.com/maps/api/place/textsearch/json?query=" 
@@ -35,15 +34,13 @@ public class MapsIntegration {
                              + "&key=" + API_KEY;
             
             Request placesRequest = new Request.Builder().url(placesUrl).build();
-            Response placesResponse = client.newCall(placesRequest).execute();
-            
             String destCoords = null;
-            if (placesResponse.isSuccessful() && placesResponse.body() != null) {
-                JSONObject placesJson = new JSONObject(placesResponse.body().string());
-                if (placesJson.has("results") && placesJson.getJSONArray("results").length() > 0) {
-                    JSONObject firstResult = placesJson.getJSONArray("results").getJSONObject(0);
-                    JSONObject location = firstResult.getJSONObject("geometry").getJSONObject("location");
-                    destCoords = location.getDouble("lat") + "," + location.getDouble("lng");
+            try (Response placesResponse = client.newCall(placesRequest).execute()) {
+                if (placesResponse.isSuccessful() && placesResponse.body() != null) {
+                    double[] location = JsonCodec.readFirstPlaceLocation(JsonCodec.reader(placesResponse.body().source()));
+                    if (location != null) {
+                        destCoords = location[0] + "," + location[1];
+                    }
                 }
             }
             
@@ -60,17 +57,17 @@ public class MapsIntegration {
                          + "&mode=walking&key=" + API_KEY;
             
             Request request = new Request.Builder().url(url).build();
-            Response response = client.newCall(request).execute();
-            if (response.isSuccessful() && response.body() != null) {
-                String responseBody = response.body().string();
-                JSONObject result = new JSONObject(responseBody);
-                if (result.has("routes") && result.getJSONArray("routes").length() > 0) {
-                    return result;
-                } else if (result.has("error_message")) {
-                    Log.e(TAG, "Directions API error: " + result.getString("error_message"));
+            try (Response response = client.newCall(request).execute()) {
+                if (response.isSuccessful() && response.body() != null) {
+                    JsonCodec.Directions result = JsonCodec.readDirections(JsonCodec.reader(response.body().source()));
+                    if (result.hasRoute) {
+                        return result;
+                    } else if (result.errorMessage != null) {
+                        Log.e(TAG, "Directions API error: " + result.errorMessage);
+                    }
+                } else {
+                    Log.e(TAG, "Directions API HTTP error: " + response.code());
                 }
-            } else {
-                Log.e(TAG, "Directions API HTTP error: " + (response != null ? response.code() : "null"));
             }
         } catch (Exception e) {
             Log.e(TAG, "Error fetching directions", e);
@@ -5,7 +5,6 @@ import android.util.Log;
 import org.json.JSONObject;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.MediaType;
@@ -14,6 +13,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import com.nexhacks.tapmate.utils.HttpStack;
 
 public class OvershootClient {
     private static final String TAG = "OvershootClient";
@@ -24,10 +24,7 @@ public class OvershootClient {
 
     public OvershootClient() {
         // Short timeouts for real-time vision
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(5, TimeUnit.SECONDS)
-                .readTimeout(5, TimeUnit.SECONDS)
-                .build();
+        this.client = HttpStack.client(HttpStack.Profile.VISION);
     }
 
     public interface VisionCallback {
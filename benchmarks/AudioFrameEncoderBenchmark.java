@@ -0,0 +1,127 @@
+// package com.nexhacks.tapmate.benchmarks; // Commented out for standalone execution
+
+import com.nexhacks.tapmate.gemini.AudioFrameEncoder;
+import org.json.JSONObject;
+import okio.ByteString;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Encodes mic-sized PCM chunks into realtimeInput messages with the old JSONObject path and
+// with AudioFrameEncoder, and reports time and bytes allocated per frame. "encode" is the
+// encoder alone (steady state should be 0 B); "encode+send" adds the ByteString copy the
+// WebSocket queues. Needs the Robolectric android-all jar for android.util.Base64 and org.json:
+//   javac -cp <android-all.jar>:<okio.jar>:<app classes> -d benchmarks benchmarks/AudioFrameEncoderBenchmark.java
+//   java -cp <android-all.jar>:<okio.jar>:<app classes>:benchmarks AudioFrameEncoderBenchmark
+public class AudioFrameEncoderBenchmark {
+
+    static final int WARMUP = 20000;
+    static final int ITERATIONS = 100000;
+    // 16 kHz mono 16-bit: 20, 40 and 100 ms frames
+    static final int[] CHUNK_BYTES = {640, 1280, 3200};
+
+    interface Encoder {
+        Object encode(byte[] pcm) throws Exception;
+    }
+
+    static class BenchmarkResult {
+        int chunkBytes;
+        String encoder;
+        double microsPerOp;
+        long bytesPerOp;
+
+        public String toCSV() {
+            return chunkBytes + "," + encoder + "," + String.format("%.2f", microsPerOp) + "," + bytesPerOp + "\n";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Starting audio frame encoder benchmark...");
+        List<BenchmarkResult> results = new ArrayList<>();
+
+        for (int chunkBytes : CHUNK_BYTES) {
+            byte[] pcm = new byte[chunkBytes];
+            new Random(chunkBytes).nextBytes(pcm);
+            checkSameMessage(pcm);
+
+            AudioFrameEncoder encoder = new AudioFrameEncoder();
+            results.add(run(chunkBytes, "JSONObject", pcm, AudioFrameEncoderBenchmark::jsonObjectFrame));
+            results.add(run(chunkBytes, "encode", pcm, p -> {
+                encoder.encode(p, 0, p.length);
+                return encoder;
+            }));
+            results.add(run(chunkBytes, "encode+send", pcm, p -> {
+                encoder.encode(p, 0, p.length);
+                return encoder.frame();
+            }));
+        }
+
+        System.out.println(String.format("%-8s %-12s %10s %12s", "chunk", "encoder", "us/op", "alloc B/op"));
+        for (BenchmarkResult r : results) {
+            System.out.println(String.format("%-8d %-12s %10.2f %12d", r.chunkBytes, r.encoder, r.microsPerOp, r.bytesPerOp));
+        }
+
+        try (FileWriter writer = new FileWriter("benchmarks/audio_frame_results.csv")) {
+            writer.write("ChunkBytes,Encoder,MicrosPerOp,BytesPerOp\n");
+            for (BenchmarkResult r : results) {
+                writer.write(r.toCSV());
+            }
+            System.out.println("Benchmarks saved to benchmarks/audio_frame_results.csv");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static BenchmarkResult run(int chunkBytes, String name, byte[] pcm, Encoder encoder) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Object sink = null;
+        for (int i = 0; i < WARMUP; i++) {
+            sink = encoder.encode(pcm);
+        }
+        long allocStart = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = encoder.encode(pcm);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocStart;
+        if (sink == null) throw new IllegalStateException(name + " returned nothing");
+
+        BenchmarkResult res = new BenchmarkResult();
+        res.chunkBytes = chunkBytes;
+        res.encoder = name;
+        res.microsPerOp = elapsed / 1000.0 / ITERATIONS;
+        res.bytesPerOp = allocated / ITERATIONS;
+        return res;
+    }
+
+    // The message sendAudioChunk used to build: four JSONObjects, a Base64 String and
+    // toString(), then OkHttp's UTF-8 encoding of that String
+    private static Object jsonObjectFrame(byte[] pcm) throws Exception {
+        String base64Audio = android.util.Base64.encodeToString(pcm, android.util.Base64.NO_WRAP);
+        JSONObject realtimeInputWrapper = new JSONObject();
+        JSONObject realtimeInput = new JSONObject();
+        JSONObject audioObj = new JSONObject();
+        audioObj.put("data", base64Audio);
+        audioObj.put("mimeType", "audio/pcm;rate=16000");
+        realtimeInput.put("audio", audioObj);
+        realtimeInputWrapper.put("realtimeInput", realtimeInput);
+        return ByteString.encodeUtf8(realtimeInputWrapper.toString());
+    }
+
+    private static void checkSameMessage(byte[] pcm) throws Exception {
+        AudioFrameEncoder encoder = new AudioFrameEncoder();
+        encoder.encode(pcm, 0, pcm.length);
+        JSONObject encoded = new JSONObject(encoder.frame().string(StandardCharsets.UTF_8));
+        String data = encoded.getJSONObject("realtimeInput").getJSONObject("audio").getString("data");
+        if (!data.equals(android.util.Base64.encodeToString(pcm, android.util.Base64.NO_WRAP))) {
+            throw new IllegalStateException("Base64 mismatch for " + pcm.length + " bytes");
+        }
+    }
+}
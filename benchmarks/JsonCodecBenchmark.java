@@ -0,0 +1,278 @@
+// package com.nexhacks.tapmate.benchmarks; // Commented out for standalone execution
+
+import com.nexhacks.tapmate.utils.JsonCodec;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import okio.Buffer;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Parses representative response bodies with the old org.json code (body string -> tree ->
+// fields) and with JsonCodec (pull parser over the body stream), and reports time and
+// bytes allocated per parse. android.util.JsonReader and org.json need real implementations,
+// so run it on the JVM with the Robolectric android-all jar and the app classes:
+//   javac -cp <android-all.jar>:<app classes> -d benchmarks benchmarks/JsonCodecBenchmark.java
+//   java -cp <android-all.jar>:<app classes>:benchmarks JsonCodecBenchmark
+public class JsonCodecBenchmark {
+
+    static final int WARMUP = 5000;
+    static final int ITERATIONS = 20000;
+
+    interface Parser {
+        Object parse(byte[] body) throws Exception;
+    }
+
+    static class BenchmarkResult {
+        String payload;
+        String parser;
+        int bodyBytes;
+        double microsPerOp;
+        long bytesPerOp;
+
+        public String toCSV() {
+            return payload + "," + parser + "," + bodyBytes + "," + String.format("%.1f", microsPerOp) + "," + bytesPerOp + "\n";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Starting JSON codec benchmark...");
+        List<BenchmarkResult> results = new ArrayList<>();
+
+        byte[] gemini = geminiResponse();
+        results.add(run("gemini", "org.json", gemini, JsonCodecBenchmark::geminiOrgJson));
+        results.add(run("gemini", "JsonCodec", gemini, body -> JsonCodec.readGenerateContent(reader(body), true).firstFunctionCall()));
+
+        byte[] serp = serpApiResponse();
+        results.add(run("serpapi", "org.json", serp, JsonCodecBenchmark::serpOrgJson));
+        results.add(run("serpapi", "JsonCodec", serp, body -> JsonCodec.readSerpApi(reader(body), 3)));
+
+        byte[] wttr = wttrResponse();
+        results.add(run("wttr", "org.json", wttr, JsonCodecBenchmark::wttrOrgJson));
+        results.add(run("wttr", "JsonCodec", wttr, body -> JsonCodec.readWttrCurrent(reader(body))));
+
+        byte[] directions = directionsResponse();
+        results.add(run("directions", "org.json", directions, JsonCodecBenchmark::directionsOrgJson));
+        results.add(run("directions", "JsonCodec", directions, body -> JsonCodec.readDirections(reader(body))));
+
+        System.out.println(String.format("%-11s %-10s %8s %12s %12s", "payload", "parser", "bytes", "us/op", "alloc B/op"));
+        for (BenchmarkResult r : results) {
+            System.out.println(String.format("%-11s %-10s %8d %12.1f %12d", r.payload, r.parser, r.bodyBytes, r.microsPerOp, r.bytesPerOp));
+        }
+
+        try (FileWriter writer = new FileWriter("benchmarks/json_codec_results.csv")) {
+            writer.write("Payload,Parser,BodyBytes,MicrosPerOp,BytesPerOp\n");
+            for (BenchmarkResult r : results) {
+                writer.write(r.toCSV());
+            }
+            System.out.println("Benchmarks saved to benchmarks/json_codec_results.csv");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static BenchmarkResult run(String payload, String name, byte[] body, Parser parser) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Object sink = null;
+        for (int i = 0; i < WARMUP; i++) {
+            sink = parser.parse(body);
+        }
+        long allocStart = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = parser.parse(body);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocStart;
+        if (sink == null) throw new IllegalStateException(name + " returned nothing for " + payload);
+
+        BenchmarkResult res = new BenchmarkResult();
+        res.payload = payload;
+        res.parser = name;
+        res.bodyBytes = body.length;
+        res.microsPerOp = elapsed / 1000.0 / ITERATIONS;
+        res.bytesPerOp = allocated / ITERATIONS;
+        return res;
+    }
+
+    // The app reads ResponseBody.source(), an okio buffer over the pooled socket segments
+    private static Reader reader(byte[] body) {
+        return JsonCodec.reader(new Buffer().write(body));
+    }
+
+    // ---- The org.json code paths JsonCodec replaced (ResponseBody.string() + tree)
+
+    private static Object geminiOrgJson(byte[] body) throws Exception {
+        JSONObject json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        json.optJSONObject("usageMetadata");
+        JSONArray parts = json.getJSONArray("candidates").getJSONObject(0).getJSONObject("content").getJSONArray("parts");
+        for (int i = 0; i < parts.length(); i++) {
+            JSONObject part = parts.getJSONObject(i);
+            if (part.has("functionCall")) {
+                return part.getJSONObject("functionCall").optJSONObject("args");
+            }
+        }
+        return parts;
+    }
+
+    private static Object serpOrgJson(byte[] body) throws Exception {
+        JSONObject json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        if (json.has("answer_box") && json.getJSONObject("answer_box").has("answer")) {
+            return json.getJSONObject("answer_box").getString("answer");
+        }
+        JSONArray results = json.optJSONArray("organic_results");
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < Math.min(3, results.length()); i++) {
+            JSONObject result = results.getJSONObject(i);
+            output.append(result.getString("title")).append(result.optString("snippet"));
+        }
+        return output;
+    }
+
+    private static Object wttrOrgJson(byte[] body) throws Exception {
+        JSONObject json = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        JSONObject current = json.getJSONArray("current_condition").getJSONObject(0);
+        return current.getString("temp_F") + current.getString("temp_C")
+            + current.getJSONArray("weatherDesc").getJSONObject(0).getString("value")
+            + current.getString("humidity") + current.getString("windspeedMiles");
+    }
+
+    private static Object directionsOrgJson(byte[] body) throws Exception {
+        JSONObject result = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        return result.has("routes") && result.getJSONArray("routes").length() > 0 ? result : null;
+    }
+
+    // ---- Representative bodies, shaped like the real APIs' responses
+
+    private static byte[] geminiResponse() throws Exception {
+        JSONObject args = new JSONObject().put("node_id", "com.ubercab:id/destination_input").put("text", "Golden Gate Bakery");
+        JSONObject response = new JSONObject()
+            .put("candidates", new JSONArray().put(new JSONObject()
+                .put("content", new JSONObject().put("role", "model").put("parts", new JSONArray()
+                    .put(new JSONObject().put("text", repeat("The destination field is focused, typing the bakery name. ", 6)))
+                    .put(new JSONObject().put("functionCall", new JSONObject().put("name", "type_text").put("args", args)))))
+                .put("finishReason", "STOP")
+                .put("avgLogprobs", -0.0123)
+                .put("safetyRatings", safetyRatings())))
+            .put("usageMetadata", new JSONObject().put("promptTokenCount", 3120).put("cachedContentTokenCount", 1800)
+                .put("candidatesTokenCount", 64).put("totalTokenCount", 3184)
+                .put("promptTokensDetails", new JSONArray().put(new JSONObject().put("modality", "TEXT").put("tokenCount", 3120))))
+            .put("modelVersion", "gemini-2.0-flash")
+            .put("responseId", "b3JpZ2luYWwtcmVzcG9uc2UtaWQ");
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JSONArray safetyRatings() throws Exception {
+        JSONArray ratings = new JSONArray();
+        for (String category : new String[] {"HATE_SPEECH", "DANGEROUS_CONTENT", "HARASSMENT", "SEXUALLY_EXPLICIT"}) {
+            ratings.put(new JSONObject().put("category", "HARM_CATEGORY_" + category).put("probability", "NEGLIGIBLE")
+                .put("probabilityScore", 0.05).put("severity", "HARM_SEVERITY_NEGLIGIBLE").put("severityScore", 0.02));
+        }
+        return ratings;
+    }
+
+    private static byte[] serpApiResponse() throws Exception {
+        JSONArray organic = new JSONArray();
+        for (int i = 0; i < 10; i++) {
+            organic.put(new JSONObject().put("position", i + 1).put("title", "Result title number " + i)
+                .put("link", "https://example.com/articles/" + i).put("displayed_link", "example.com > articles > " + i)
+                .put("snippet", repeat("Snippet text describing the page contents. ", 5))
+                .put("sitelinks", new JSONObject().put("inline", new JSONArray()
+                    .put(new JSONObject().put("title", "About").put("link", "https://example.com/about"))
+                    .put(new JSONObject().put("title", "Contact").put("link", "https://example.com/contact"))))
+                .put("source", "Example"));
+        }
+        JSONArray related = new JSONArray();
+        for (int i = 0; i < 8; i++) {
+            related.put(new JSONObject().put("question", "Related question " + i + "?")
+                .put("snippet", repeat("Answer to the related question. ", 4)).put("link", "https://example.org/q/" + i));
+        }
+        JSONObject response = new JSONObject()
+            .put("search_metadata", new JSONObject().put("id", "65a1f0c2").put("status", "Success")
+                .put("created_at", "2026-10-19 10:00:00 UTC").put("total_time_taken", 1.23))
+            .put("search_parameters", new JSONObject().put("engine", "google").put("q", "bakery opening hours").put("num", "3"))
+            .put("search_information", new JSONObject().put("total_results", 1250000).put("time_taken_displayed", 0.41))
+            .put("organic_results", organic)
+            .put("related_questions", related)
+            .put("pagination", new JSONObject().put("current", 1).put("next", "https://serpapi.com/search.json?start=10"));
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] wttrResponse() throws Exception {
+        JSONObject current = new JSONObject().put("temp_F", "61").put("temp_C", "16").put("humidity", "72")
+            .put("windspeedMiles", "9").put("windspeedKmph", "14").put("FeelsLikeF", "61").put("cloudcover", "50")
+            .put("weatherDesc", new JSONArray().put(new JSONObject().put("value", "Partly cloudy")))
+            .put("weatherIconUrl", new JSONArray().put(new JSONObject().put("value", "")));
+        JSONArray days = new JSONArray();
+        for (int d = 0; d < 3; d++) {
+            JSONArray hourly = new JSONArray();
+            for (int h = 0; h < 8; h++) {
+                JSONObject hour = new JSONObject().put("time", String.valueOf(h * 300));
+                for (String field : new String[] {"tempF", "tempC", "humidity", "windspeedMiles", "chanceofrain",
+                    "chanceofsunshine", "cloudcover", "DewPointF", "FeelsLikeF", "HeatIndexF", "pressure", "visibility", "uvIndex"}) {
+                    hour.put(field, String.valueOf(50 + h + d));
+                }
+                hour.put("weatherDesc", new JSONArray().put(new JSONObject().put("value", "Sunny")));
+                hourly.put(hour);
+            }
+            days.put(new JSONObject().put("date", "2026-10-" + (19 + d)).put("maxtempF", "68").put("mintempF", "54")
+                .put("astronomy", new JSONArray().put(new JSONObject().put("sunrise", "07:20 AM").put("sunset", "06:29 PM")))
+                .put("hourly", hourly));
+        }
+        JSONObject response = new JSONObject()
+            .put("current_condition", new JSONArray().put(current))
+            .put("nearest_area", new JSONArray().put(new JSONObject()
+                .put("areaName", new JSONArray().put(new JSONObject().put("value", "San Francisco")))))
+            .put("request", new JSONArray().put(new JSONObject().put("query", "San Francisco").put("type", "City")))
+            .put("weather", days);
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] directionsResponse() throws Exception {
+        JSONArray steps = new JSONArray();
+        for (int i = 0; i < 20; i++) {
+            steps.put(new JSONObject()
+                .put("distance", new JSONObject().put("text", "0.1 mi").put("value", 120 + i))
+                .put("duration", new JSONObject().put("text", "2 mins").put("value", 90 + i))
+                .put("start_location", new JSONObject().put("lat", 37.7749 + i * 0.001).put("lng", -122.4194))
+                .put("end_location", new JSONObject().put("lat", 37.7759 + i * 0.001).put("lng", -122.4184))
+                .put("html_instructions", "Turn <b>left</b> onto <b>Market St</b>")
+                .put("polyline", new JSONObject().put("points", repeat("a~l~Fjk~uOnAqB", 6)))
+                .put("travel_mode", "WALKING"));
+        }
+        JSONObject leg = new JSONObject()
+            .put("distance", new JSONObject().put("text", "1.5 mi").put("value", 2450))
+            .put("duration", new JSONObject().put("text", "31 mins").put("value", 1860))
+            .put("start_address", "Market St, San Francisco, CA").put("end_address", "Golden Gate Bakery, San Francisco, CA")
+            .put("steps", steps);
+        JSONObject response = new JSONObject()
+            .put("geocoded_waypoints", new JSONArray()
+                .put(new JSONObject().put("geocoder_status", "OK").put("place_id", "ChIJIQBpAG2ahYAR_6128GcTUEo"))
+                .put(new JSONObject().put("geocoder_status", "OK").put("place_id", "ChIJ6Xq6Ra2AhYARGJmyRTKIzr8")))
+            .put("routes", new JSONArray().put(new JSONObject()
+                .put("summary", "Market St")
+                .put("legs", new JSONArray().put(leg))
+                .put("overview_polyline", new JSONObject().put("points", repeat("a~l~Fjk~uOnAqBwHnJ", 40)))
+                .put("bounds", new JSONObject()
+                    .put("northeast", new JSONObject().put("lat", 37.79).put("lng", -122.40))
+                    .put("southwest", new JSONObject().put("lat", 37.77).put("lng", -122.42)))
+                .put("copyrights", "Map data 2026")
+                .put("warnings", new JSONArray().put("Walking directions are in beta."))))
+            .put("status", "OK");
+        return response.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            out.append(text);
+        }
+        return out.toString();
+    }
+}